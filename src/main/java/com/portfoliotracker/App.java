@@ -1,6 +1,7 @@
 package com.portfoliotracker;
 
 import com.portfoliotracker.controller.PassphraseController;
+import com.portfoliotracker.service.PortfolioRepository;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -57,6 +58,12 @@ public class App extends Application {
         dialogStage.showAndWait();
     }
 
+    @Override
+    public void stop() {
+        // Portfolio saves are written in the background; don't lose the last few
+        PortfolioRepository.getInstance().flush();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,55 @@
+package com.portfoliotracker.api;
+
+import com.portfoliotracker.model.PriceSeries;
+
+import java.util.Arrays;
+
+// Growable pair of primitive columns (epoch millis, price) filled by the streaming parsers
+public class CandleBuffer {
+    private long[] times;
+    private double[] prices;
+    private int size;
+
+    public CandleBuffer() {
+        this(256);
+    }
+
+    public CandleBuffer(int capacity) {
+        this.times = new long[Math.max(capacity, 1)];
+        this.prices = new double[Math.max(capacity, 1)];
+    }
+
+    public void add(long epochMillis, double price) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            prices = Arrays.copyOf(prices, size * 2);
+        }
+        times[size] = epochMillis;
+        prices[size] = price;
+        size++;
+    }
+
+    public void scale(double factor) {
+        if (factor == 1.0) return;
+        for (int i = 0; i < size; i++) {
+            prices[i] *= factor;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timeAt(int index) {
+        return times[index];
+    }
+
+    public double priceAt(int index) {
+        return prices[index];
+    }
+
+    public PriceSeries toSeries() {
+        if (size == 0) return PriceSeries.EMPTY;
+        return new PriceSeries(Arrays.copyOf(times, size), Arrays.copyOf(prices, size));
+    }
+}
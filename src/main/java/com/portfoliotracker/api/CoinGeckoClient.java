@@ -1,29 +1,37 @@
 package com.portfoliotracker.api;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import com.portfoliotracker.model.PricePoint;
+import com.portfoliotracker.model.PriceSeries;
+import com.portfoliotracker.util.BoundedCache;
 
+import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
+import java.net.URLEncoder;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CoinGeckoClient {
     private static final String BINANCE_URL = "https://api.binance.com/api/v3";
-    private final HttpClient httpClient;
+    private final HttpTransport transport;
+    private final ExchangeRateClient exchangeClient;
     private final Gson gson;
     
-    private final Map<String, Double> priceCache = new ConcurrentHashMap<>();
-    private long lastPriceFetch = 0;
     private static final long PRICE_CACHE_TTL = 30_000;
+    private static final long PRICE_REFRESH_AFTER = 20_000;
+    private static final int MAX_CACHED_SYMBOLS = 1_000;
+    private final BoundedCache<String, Double> priceCache = new BoundedCache<>(MAX_CACHED_SYMBOLS, PRICE_CACHE_TTL);
+    private final AtomicReference<CompletableFuture<Void>> refreshingAll = new AtomicReference<>();
+    private volatile long lastPriceFetch = 0;
+    private static final int MAX_KLINES = 1000;
+    private static final String ALL_PRICES_URL = BINANCE_URL + "/ticker/price";
     
     private static final Map<String, String> NAME_TO_SYMBOL = new HashMap<>();
     private static final Set<String> SUPPORTED_SYMBOLS = new HashSet<>();
@@ -77,10 +85,14 @@ public class CoinGeckoClient {
     }
 
     public CoinGeckoClient() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this(HttpTransport.getInstance(), new ExchangeRateClient());
+    }
+
+    public CoinGeckoClient(HttpTransport transport, ExchangeRateClient exchangeClient) {
+        this.transport = transport;
+        this.exchangeClient = exchangeClient;
         this.gson = new Gson();
+        priceCache.refreshAhead(PRICE_REFRESH_AFTER, this::refreshAllPrices);
     }
     
     private String toSymbol(String coinId) {
@@ -92,34 +104,61 @@ public class CoinGeckoClient {
     }
     
     private void loadAllPrices() {
-        if (System.currentTimeMillis() - lastPriceFetch < PRICE_CACHE_TTL && !priceCache.isEmpty()) {
+        if (System.currentTimeMillis() - lastPriceFetch < PRICE_CACHE_TTL && priceCache.size() > 0) {
             return;
         }
-        
+        fetchAllPrices();
+    }
+    
+    // Reloads the whole Binance table in the background when a cached price nears expiry,
+    // so readers keep hitting the cache instead of waiting on the next full fetch. Fully async:
+    // the body is parsed on the transport's parse threads, never on the HttpClient's own pool.
+    // The returned future completes when the table is in, or the fetch failed, so the cache
+    // can ask again for a symbol the table did not cover.
+    private CompletableFuture<Void> refreshAllPrices(String symbol) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> running = refreshingAll.compareAndExchange(null, done);
+        if (running != null) return running;
         try {
-            String url = BINANCE_URL + "/ticker/price";
-            String response = sendRequest(url);
-            
-            if (response != null) {
-                JsonArray prices = gson.fromJson(response, JsonArray.class);
-                int count = 0;
-                for (int i = 0; i < prices.size(); i++) {
-                    JsonObject item = prices.get(i).getAsJsonObject();
-                    String symbol = item.get("symbol").getAsString();
-                    if (SUPPORTED_SYMBOLS.contains(symbol)) {
-                        double price = Double.parseDouble(item.get("price").getAsString());
-                        priceCache.put(symbol, price);
-                        count++;
-                    }
-                }
-                lastPriceFetch = System.currentTimeMillis();
-                System.out.println("[BINANCE] Loaded " + count + " prices in 1 request");
-            }
+            transport.sendAsyncParsed(buildRequest(ALL_PRICES_URL), CoinGeckoClient::readSupportedPrices)
+                    .whenComplete((prices, error) -> {
+                        if (error != null) {
+                            System.err.println("Price fetch error: " + error.getMessage());
+                        } else {
+                            storeAllPrices(prices);
+                        }
+                        refreshingAll.set(null);
+                        done.complete(null);
+                    });
+        } catch (RuntimeException e) {
+            refreshingAll.set(null);
+            done.complete(null);
+            throw e;
+        }
+        return done;
+    }
+    
+    private void fetchAllPrices() {
+        try {
+            storeAllPrices(transport.sendParsed(buildRequest(ALL_PRICES_URL), CoinGeckoClient::readSupportedPrices));
         } catch (Exception e) {
             System.err.println("Price fetch error: " + e.getMessage());
         }
     }
 
+    // Binance lists thousands of pairs; only the supported ones are kept
+    private static Map<String, Double> readSupportedPrices(JsonReader reader) throws IOException {
+        return MarketDataParsers.readTickerPrices(reader, SUPPORTED_SYMBOLS);
+    }
+
+    private void storeAllPrices(Map<String, Double> prices) {
+        for (Map.Entry<String, Double> entry : prices.entrySet()) {
+            priceCache.put(entry.getKey(), entry.getValue());
+        }
+        lastPriceFetch = System.currentTimeMillis();
+        System.out.println("[BINANCE] Loaded " + prices.size() + " prices in 1 request");
+    }
+
     public double getCurrentPrice(String coinId, String currency) {
         String symbol = toSymbol(coinId);
         
@@ -127,8 +166,9 @@ public class CoinGeckoClient {
         
         double priceUsd = 0;
         
-        if (priceCache.containsKey(symbol)) {
-            priceUsd = priceCache.get(symbol);
+        Double cached = priceCache.get(symbol);
+        if (cached != null) {
+            priceUsd = cached;
         } else {
             try {
                 String url = BINANCE_URL + "/ticker/price?symbol=" + symbol;
@@ -152,64 +192,186 @@ public class CoinGeckoClient {
             return priceUsd;
         }
         
-        ExchangeRateClient exchangeClient = new ExchangeRateClient();
         return exchangeClient.convert(priceUsd, "USD", currency);
     }
 
-    public List<PricePoint> getPriceHistory(String coinId, String currency, int days) {
-        List<PricePoint> pricePoints = new ArrayList<>();
-        try {
+    public Map<String, Double> getCurrentPricesUsd(Collection<String> coinIds) {
+        Map<String, Double> result = new HashMap<>();
+        if (coinIds.isEmpty()) return result;
+        
+        loadAllPrices();
+        
+        Map<String, List<String>> missing = new LinkedHashMap<>();
+        for (String coinId : coinIds) {
             String symbol = toSymbol(coinId);
-            
-            String interval;
-            int limit;
-            if (days <= 1) {
-                interval = "15m";
-                limit = 96;
-            } else if (days <= 7) {
-                interval = "1h";
-                limit = days * 24;
-            } else if (days <= 30) {
-                interval = "4h";
-                limit = days * 6;
-            } else if (days <= 90) {
-                interval = "1d";
-                limit = days;
+            Double cached = priceCache.get(symbol);
+            if (cached != null) {
+                result.put(coinId, cached);
             } else {
-                interval = "1d";
-                limit = Math.min(days, 365);
+                missing.computeIfAbsent(symbol, k -> new ArrayList<>()).add(coinId);
             }
-            
-            String url = BINANCE_URL + "/klines?symbol=" + symbol + "&interval=" + interval + "&limit=" + limit;
-            
-            String response = sendRequest(url);
-            if (response != null) {
-                JsonArray data = gson.fromJson(response, JsonArray.class);
-                
-                double conversionRate = 1.0;
-                if (!currency.equalsIgnoreCase("USD")) {
-                    ExchangeRateClient exchangeClient = new ExchangeRateClient();
-                    conversionRate = exchangeClient.getRate("USD", currency);
+        }
+        
+        if (!missing.isEmpty()) {
+            Map<String, Double> fetched = fetchSymbols(missing.keySet());
+            for (Map.Entry<String, List<String>> entry : missing.entrySet()) {
+                Double price = fetched.get(entry.getKey());
+                if (price == null) continue;
+                priceCache.put(entry.getKey(), price);
+                for (String coinId : entry.getValue()) {
+                    result.put(coinId, price);
                 }
-                
-                for (int i = 0; i < data.size(); i++) {
-                    JsonArray candle = data.get(i).getAsJsonArray();
-                    long timestamp = candle.get(0).getAsLong();
-                    double closePrice = Double.parseDouble(candle.get(4).getAsString());
-                    
-                    LocalDateTime dateTime = LocalDateTime.ofInstant(
-                            Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
-                    pricePoints.add(new PricePoint(dateTime, closePrice * conversionRate));
+            }
+        }
+        return result;
+    }
+    
+    private Map<String, Double> fetchSymbols(Collection<String> symbols) {
+        Map<String, Double> prices = new HashMap<>();
+        try {
+            // Binance rejects the whole batch when one symbol is unknown, so fall back per symbol below
+            String symbolsParam = gson.toJson(symbols);
+            String url = BINANCE_URL + "/ticker/price?symbols=" + URLEncoder.encode(symbolsParam, StandardCharsets.UTF_8);
+            prices.putAll(transport.sendParsed(buildRequest(url), reader -> MarketDataParsers.readTickerPrices(reader, null)));
+            System.out.println("[BINANCE] Loaded " + prices.size() + " prices in 1 batch request");
+            return prices;
+        } catch (Exception e) {
+            System.err.println("Binance batch error: " + e.getMessage());
+        }
+        
+        for (String symbol : symbols) {
+            try {
+                String response = sendRequest(BINANCE_URL + "/ticker/price?symbol=" + symbol);
+                if (response != null) {
+                    JsonObject json = gson.fromJson(response, JsonObject.class);
+                    if (json.has("price")) {
+                        prices.put(symbol, Double.parseDouble(json.get("price").getAsString()));
+                    }
                 }
-                
-                System.out.println("[BINANCE] Got " + pricePoints.size() + " candles for " + symbol);
+            } catch (Exception e) {
+                System.err.println("Binance error for " + symbol + ": " + e.getMessage());
             }
+        }
+        return prices;
+    }
+
+    public CompletableFuture<Double> getCurrentPriceAsync(String coinId, String currency) {
+        String symbol = toSymbol(coinId);
+        Double cached = priceCache.get(symbol);
+        
+        CompletableFuture<Double> priceUsd;
+        if (cached != null) {
+            priceUsd = CompletableFuture.completedFuture(cached);
+        } else {
+            priceUsd = sendRequestAsync(BINANCE_URL + "/ticker/price?symbol=" + symbol).thenApply(response -> {
+                if (response == null) return 0.0;
+                JsonObject json = gson.fromJson(response, JsonObject.class);
+                if (!json.has("price")) return 0.0;
+                double price = Double.parseDouble(json.get("price").getAsString());
+                priceCache.put(symbol, price);
+                return price;
+            });
+        }
+        
+        return priceUsd.thenCompose(price -> {
+            if (price == 0 || currency.equalsIgnoreCase("USD")) {
+                return CompletableFuture.completedFuture(price);
+            }
+            return exchangeClient.convertAsync(price, "USD", currency);
+        }).exceptionally(e -> {
+            System.err.println("Binance error for " + coinId + ": " + e.getMessage());
+            return 0.0;
+        });
+    }
+
+    public List<PricePoint> getPriceHistory(String coinId, String currency, int days) {
+        List<PricePoint> pricePoints = new ArrayList<>();
+        try {
+            String symbol = toSymbol(coinId);
+            CandleBuffer candles = transport.sendParsed(buildRequest(klinesUrl(symbol, days)), MarketDataParsers::readKlines);
+            if (!currency.equalsIgnoreCase("USD")) {
+                candles.scale(exchangeClient.getRate("USD", currency));
+            }
+            pricePoints = candles.toSeries().toPricePoints();
+            System.out.println("[BINANCE] Got " + pricePoints.size() + " candles for " + symbol);
         } catch (Exception e) {
             System.err.println("Binance history error for " + coinId + ": " + e.getMessage());
         }
         return pricePoints;
     }
 
+    public CompletableFuture<PriceSeries> getPriceSeriesAsync(String coinId, String currency, int days) {
+        return fetchKlinesAsync(coinId, klinesUrl(toSymbol(coinId), days), currency);
+    }
+
+    // How far back getPriceSeriesSinceAsync can reach in one request; beyond that the response
+    // stops short of now
+    public static long maxSinceMillis(String interval) {
+        return (MAX_KLINES - 1) * intervalMillis(interval);
+    }
+
+    // Length of a Binance interval such as "15m", "4h" or "1d"
+    public static long intervalMillis(String interval) {
+        long count = Long.parseLong(interval.substring(0, interval.length() - 1));
+        return switch (interval.charAt(interval.length() - 1)) {
+            case 'm' -> count * 60_000L;
+            case 'h' -> count * 3_600_000L;
+            case 'd' -> count * 86_400_000L;
+            case 'w' -> count * 7 * 86_400_000L;
+            default -> throw new IllegalArgumentException("Unknown interval " + interval);
+        };
+    }
+
+    // Candles opening at or after startMillis, used to top up a series that is already stored.
+    // At most MAX_KLINES candles, see maxSinceMillis.
+    public CompletableFuture<PriceSeries> getPriceSeriesSinceAsync(String coinId, String currency,
+                                                                  String interval, long startMillis) {
+        String url = BINANCE_URL + "/klines?symbol=" + toSymbol(coinId) + "&interval=" + interval
+                + "&startTime=" + startMillis + "&limit=" + MAX_KLINES;
+        return fetchKlinesAsync(coinId, url, currency);
+    }
+
+    private CompletableFuture<PriceSeries> fetchKlinesAsync(String coinId, String url, String currency) {
+        String symbol = toSymbol(coinId);
+        CompletableFuture<CandleBuffer> candles = transport.sendAsyncParsed(buildRequest(url), MarketDataParsers::readKlines);
+        CompletableFuture<Double> rate = currency.equalsIgnoreCase("USD")
+                ? CompletableFuture.completedFuture(1.0)
+                : exchangeClient.getRateAsync("USD", currency);
+        
+        return candles.thenCombine(rate, (buffer, conversionRate) -> {
+            buffer.scale(conversionRate);
+            System.out.println("[BINANCE] Got " + buffer.size() + " candles for " + symbol);
+            return buffer.toSeries();
+        }).exceptionally(e -> {
+            System.err.println("Binance history error for " + coinId + ": " + e.getMessage());
+            return PriceSeries.EMPTY;
+        });
+    }
+
+    public static String historyInterval(int days) {
+        if (days <= 1) return "15m";
+        if (days <= 7) return "1h";
+        if (days <= 30) return "4h";
+        return "1d";
+    }
+
+    private String klinesUrl(String symbol, int days) {
+        String interval = historyInterval(days);
+        int limit;
+        if (days <= 1) {
+            limit = 96;
+        } else if (days <= 7) {
+            limit = days * 24;
+        } else if (days <= 30) {
+            limit = days * 6;
+        } else if (days <= 90) {
+            limit = days;
+        } else {
+            limit = Math.min(days, 365);
+        }
+        return BINANCE_URL + "/klines?symbol=" + symbol + "&interval=" + interval + "&limit=" + limit;
+    }
+
     public List<String> searchCoin(String query) {
         List<String> results = new ArrayList<>();
         String queryUpper = query.toUpperCase();
@@ -221,16 +383,18 @@ public class CoinGeckoClient {
         return results;
     }
 
+    private HttpRequest buildRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept", "application/json")
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+    }
+
     private String sendRequest(String url) {
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Accept", "application/json")
-                    .timeout(Duration.ofSeconds(10))
-                    .GET()
-                    .build();
-            
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(buildRequest(url));
             
             if (response.statusCode() == 200) {
                 return response.body();
@@ -242,4 +406,14 @@ public class CoinGeckoClient {
         }
         return null;
     }
+
+    private CompletableFuture<String> sendRequestAsync(String url) {
+        return transport.sendAsync(buildRequest(url)).thenApply(response -> {
+            if (response.statusCode() == 200) {
+                return response.body();
+            }
+            System.err.println("Binance returned: " + response.statusCode() + " for " + url);
+            return null;
+        });
+    }
 }
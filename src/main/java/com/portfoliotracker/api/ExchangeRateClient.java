@@ -1,40 +1,34 @@
 package com.portfoliotracker.api;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public class ExchangeRateClient {
-    private static final String BASE_URL = "https://api.exchangerate-api.com/v4/latest/";
-    private final HttpClient httpClient;
-    private final Gson gson;
+    // Rates come from the shared table cache, so conversions don't download a table each time
+    private final FxRateCache rateCache;
+    private final HttpTransport transport;
 
     public ExchangeRateClient() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-        this.gson = new Gson();
+        this(HttpTransport.getInstance());
     }
 
-    public double getRate(String from, String to) {
-        try {
-            String url = BASE_URL + from.toUpperCase();
-            String response = sendRequest(url);
-            JsonObject json = gson.fromJson(response, JsonObject.class);
-            JsonObject rates = json.getAsJsonObject("rates");
-            
-            if (rates != null && rates.has(to.toUpperCase())) {
-                return rates.get(to.toUpperCase()).getAsDouble();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    public ExchangeRateClient(HttpTransport transport) {
+        this.transport = transport;
+        this.rateCache = FxRateCache.getInstance(transport);
+    }
+
+    // The shared cache outlives any one client; a cache for another transport is closed with it
+    public void close() {
+        if (transport != HttpTransport.getInstance()) {
+            rateCache.close();
         }
-        return 1.0;
+    }
+
+    public double getRate(String from, String to) {
+        return rateCache.getRate(from, to);
+    }
+
+    public CompletableFuture<Double> getRateAsync(String from, String to) {
+        return rateCache.getRateAsync(from, to);
     }
 
     public double convert(double amount, String from, String to) {
@@ -45,15 +39,7 @@ public class ExchangeRateClient {
         return amount * rate;
     }
 
-    private String sendRequest(String url) throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Accept", "application/json")
-                .timeout(Duration.ofSeconds(30))
-                .GET()
-                .build();
-        
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        return response.body();
+    public CompletableFuture<Double> convertAsync(double amount, String from, String to) {
+        return getRateAsync(from, to).thenApply(rate -> amount * rate);
     }
 }
@@ -0,0 +1,220 @@
+package com.portfoliotracker.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.portfoliotracker.util.SingleFlight;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Holds whole exchange-rate tables instead of single rates. Every currency code gets an ordinal
+// the first time it is seen, and a table is a double[] of rates indexed by that ordinal. Cross
+// rates are derived from one table (rate[to] / rate[from]), so after the first download no
+// conversion needs the network until the scheduled refresh.
+public class FxRateCache implements AutoCloseable {
+    private static FxRateCache instance;
+    // Caches for transports other than the shared one, e.g. injected in tests; close() removes them
+    private static final Map<HttpTransport, FxRateCache> otherTransports = new ConcurrentHashMap<>();
+    // One refresh thread for every cache, however many transports there are
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fx-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final String BASE_URL = "https://api.exchangerate-api.com/v4/latest/";
+    private static final String PIVOT = "USD";
+    private static final long REFRESH_INTERVAL_MINUTES = 10;
+
+    private final HttpTransport transport;
+    private final Gson gson = new Gson();
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private final AtomicInteger nextOrdinal = new AtomicInteger();
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final SingleFlight<Snapshot> loads = new SingleFlight<>();
+    private final ScheduledFuture<?> refresh;
+
+    private FxRateCache(HttpTransport transport) {
+        this.transport = transport;
+        this.refresh = scheduler.scheduleWithFixedDelay(this::refreshAll,
+                REFRESH_INTERVAL_MINUTES, REFRESH_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public static FxRateCache getInstance() {
+        if (instance == null) {
+            instance = new FxRateCache(HttpTransport.getInstance());
+        }
+        return instance;
+    }
+
+    // Rates fetched through the given transport; the shared cache for the default one
+    public static FxRateCache getInstance(HttpTransport transport) {
+        if (transport == HttpTransport.getInstance()) {
+            return getInstance();
+        }
+        return otherTransports.computeIfAbsent(transport, FxRateCache::new);
+    }
+
+    // Stops the scheduled refresh and forgets the cache, so the next getInstance builds a new one
+    @Override
+    public void close() {
+        refresh.cancel(false);
+        otherTransports.remove(transport, this);
+        if (instance == this) {
+            instance = null;
+        }
+    }
+
+    public double getRate(String from, String to) {
+        if (from.equalsIgnoreCase(to)) return 1.0;
+        Double cached = crossRate(from, to);
+        if (cached != null) return cached;
+        try {
+            loadBlocking(PIVOT);
+            cached = crossRate(from, to);
+            if (cached == null) {
+                // Not in the pivot table, so fetch the table for the source currency itself
+                loadBlocking(from.toUpperCase());
+                cached = crossRate(from, to);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Exchange rate error " + from + "->" + to + ": " + e.getMessage());
+        }
+        return cached != null ? cached : 1.0;
+    }
+
+    public CompletableFuture<Double> getRateAsync(String from, String to) {
+        if (from.equalsIgnoreCase(to)) {
+            return CompletableFuture.completedFuture(1.0);
+        }
+        Double cached = crossRate(from, to);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return load(PIVOT)
+                .thenCompose(pivot -> {
+                    Double rate = crossRate(from, to);
+                    if (rate != null) return CompletableFuture.completedFuture(rate);
+                    return load(from.toUpperCase()).thenApply(table -> crossRate(from, to));
+                })
+                .thenApply(rate -> rate != null ? rate : 1.0)
+                .exceptionally(e -> {
+                    System.err.println("Exchange rate error " + from + "->" + to + ": " + e.getMessage());
+                    return 1.0;
+                });
+    }
+
+    // Any loaded table that quotes both currencies can answer the question
+    private Double crossRate(String from, String to) {
+        Integer fromOrdinal = ordinals.get(from.toUpperCase());
+        Integer toOrdinal = ordinals.get(to.toUpperCase());
+        if (fromOrdinal == null || toOrdinal == null) return null;
+
+        Snapshot pivot = snapshots.get(PIVOT);
+        Double rate = pivot != null ? pivot.cross(fromOrdinal, toOrdinal) : null;
+        if (rate != null) return rate;
+        for (Snapshot snapshot : snapshots.values()) {
+            rate = snapshot.cross(fromOrdinal, toOrdinal);
+            if (rate != null) return rate;
+        }
+        return null;
+    }
+
+    private void loadBlocking(String base) {
+        load(base).join();
+    }
+
+    private CompletableFuture<Snapshot> load(String base) {
+        return loads.executeAsync(base, () -> transport.sendAsync(buildRequest(BASE_URL + base))
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new IllegalStateException("Exchange rate API returned " + response.statusCode());
+                    }
+                    Snapshot snapshot = parse(base, response.body());
+                    snapshots.put(base, snapshot);
+                    return snapshot;
+                }));
+    }
+
+    // Keeps serving the previous table when a scheduled refresh fails
+    private void refreshAll() {
+        for (String base : snapshots.keySet()) {
+            try {
+                loadBlocking(base);
+            } catch (RuntimeException e) {
+                System.err.println("Exchange rate refresh failed for " + base + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Snapshot parse(String base, String body) {
+        JsonObject json = gson.fromJson(body, JsonObject.class);
+        JsonObject rates = json.getAsJsonObject("rates");
+        if (rates == null) {
+            throw new IllegalStateException("No rates in response for " + base);
+        }
+        int baseOrdinal = ordinalOf(base);
+        int[] codes = new int[rates.size()];
+        double[] values = new double[rates.size()];
+        int n = 0;
+        for (Map.Entry<String, JsonElement> entry : rates.entrySet()) {
+            codes[n] = ordinalOf(entry.getKey());
+            values[n] = entry.getValue().getAsDouble();
+            n++;
+        }
+        double[] table = new double[nextOrdinal.get()];
+        Arrays.fill(table, Double.NaN);
+        for (int i = 0; i < n; i++) {
+            table[codes[i]] = values[i];
+        }
+        table[baseOrdinal] = 1.0;
+        return new Snapshot(table, System.currentTimeMillis());
+    }
+
+    private int ordinalOf(String code) {
+        return ordinals.computeIfAbsent(code.toUpperCase(), c -> nextOrdinal.getAndIncrement());
+    }
+
+    private HttpRequest buildRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept", "application/json")
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+    }
+
+    public long getSnapshotAge(String base) {
+        Snapshot snapshot = snapshots.get(base.toUpperCase());
+        return snapshot != null ? System.currentTimeMillis() - snapshot.fetchedAt : -1;
+    }
+
+    private static class Snapshot {
+        final double[] rates;
+        final long fetchedAt;
+
+        Snapshot(double[] rates, long fetchedAt) {
+            this.rates = rates;
+            this.fetchedAt = fetchedAt;
+        }
+
+        Double cross(int from, int to) {
+            if (from >= rates.length || to >= rates.length) return null;
+            double fromRate = rates[from];
+            double toRate = rates[to];
+            if (Double.isNaN(fromRate) || Double.isNaN(toRate) || fromRate == 0) return null;
+            return toRate / fromRate;
+        }
+    }
+}
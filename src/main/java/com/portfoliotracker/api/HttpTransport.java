@@ -0,0 +1,239 @@
+package com.portfoliotracker.api;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+public class HttpTransport {
+    private static HttpTransport instance;
+
+    private static final int EXECUTOR_THREADS = 4;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    static {
+        // Read once by the JDK connection pool, so they must be set before the first HttpClient is built
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(KEEP_ALIVE_SECONDS));
+        }
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", "32");
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final ExecutorService parseExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("http-parse-", 0).factory());
+    private final Map<String, HostLane> hostLanes = new ConcurrentHashMap<>();
+    private final Map<String, Long> hostLastUsed = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong newConnections = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+
+    private HttpTransport() {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "http-transport-" + threadCounter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+    }
+
+    public static HttpTransport getInstance() {
+        if (instance == null) {
+            instance = new HttpTransport();
+        }
+        return instance;
+    }
+
+    public HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return inLane(request, () -> httpClient.send(request, handler));
+    }
+
+    // Parses the body as it streams in, without holding it as a String first. The host permit
+    // is held until the body has been read, not only until the headers arrived.
+    public <T> T sendParsed(HttpRequest request, JsonStreamParser<T> parser) throws IOException, InterruptedException {
+        return inLane(request, () -> parse(request, httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream()), parser));
+    }
+
+    // The body stream must not be read on the client's own executor, which also feeds it,
+    // so parsing happens on a virtual thread. A streamed response completes at its headers,
+    // so the permit is only given back once the parse is done; otherwise the per-host cap would
+    // not bound the downloads themselves.
+    public <T> CompletableFuture<T> sendAsyncParsed(HttpRequest request, JsonStreamParser<T> parser) {
+        return inLaneAsync(request, () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApplyAsync(response -> {
+                    try {
+                        return parse(request, response, parser);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, parseExecutor));
+    }
+
+    private static <T> T parse(HttpRequest request, HttpResponse<InputStream> response, JsonStreamParser<T> parser)
+            throws IOException {
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("HTTP " + response.statusCode() + " for " + request.uri());
+            }
+            JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            return parser.parse(reader);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    // With a streaming handler the permit goes back at the headers; use sendAsyncParsed for those
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return inLaneAsync(request, () -> httpClient.sendAsync(request, handler));
+    }
+
+    private <T> T inLane(HttpRequest request, BlockingCall<T> call) throws IOException, InterruptedException {
+        String host = hostOf(request.uri());
+        HostLane lane = laneFor(host);
+        lane.permits.acquire();
+        try {
+            recordUse(host);
+            return call.run();
+        } finally {
+            lane.permits.release();
+            drain(lane);
+        }
+    }
+
+    // Holds one of the host's permits from the start of the call until its future completes
+    private <T> CompletableFuture<T> inLaneAsync(HttpRequest request, Supplier<CompletableFuture<T>> call) {
+        String host = hostOf(request.uri());
+        HostLane lane = laneFor(host);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        
+        // Requests over the per-host limit wait in the lane instead of blocking a thread
+        lane.pending.add(() -> {
+            recordUse(host);
+            CompletableFuture<T> response;
+            try {
+                response = call.get();
+            } catch (RuntimeException e) {
+                // Rejected before it was sent (bad URI, client shut down): the permit is still ours
+                lane.permits.release();
+                result.completeExceptionally(e);
+                drain(lane);
+                return;
+            }
+            response.whenComplete((value, error) -> {
+                lane.permits.release();
+                drain(lane);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        drain(lane);
+        return result;
+    }
+
+    private void drain(HostLane lane) {
+        while (!lane.pending.isEmpty() && lane.permits.tryAcquire()) {
+            Runnable next = lane.pending.poll();
+            if (next == null) {
+                lane.permits.release();
+            } else {
+                next.run();
+            }
+        }
+    }
+
+    private HostLane laneFor(String host) {
+        return hostLanes.computeIfAbsent(host, h -> new HostLane());
+    }
+
+    // The JDK client does not expose pool events, so a request counts as reusing a connection
+    // when the same host was used within the keep-alive window.
+    private void recordUse(String host) {
+        requestCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Long last = hostLastUsed.put(host, now);
+        if (last != null && now - last < KEEP_ALIVE_SECONDS * 1000) {
+            reusedConnections.incrementAndGet();
+        } else {
+            newConnections.incrementAndGet();
+        }
+    }
+
+    private static String hostOf(URI uri) {
+        return uri.getHost() != null ? uri.getHost().toLowerCase() : "";
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getNewConnectionCount() {
+        return newConnections.get();
+    }
+
+    public long getReusedConnectionCount() {
+        return reusedConnections.get();
+    }
+
+    private interface BlockingCall<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    private static class HostLane {
+        final Semaphore permits = new Semaphore(MAX_CONNECTIONS_PER_HOST);
+        final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    }
+}
@@ -0,0 +1,10 @@
+package com.portfoliotracker.api;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface JsonStreamParser<T> {
+    T parse(JsonReader reader) throws IOException;
+}
@@ -0,0 +1,206 @@
+package com.portfoliotracker.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Streaming parsers for the large market-data responses. They walk the token stream once and
+// write straight into primitive columns instead of building a Gson tree first.
+final class MarketDataParsers {
+
+    private MarketDataParsers() {
+    }
+
+    // Binance /klines: [[openTime, open, high, low, close, volume, ...], ...]
+    static CandleBuffer readKlines(JsonReader reader) throws IOException {
+        CandleBuffer candles = new CandleBuffer();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginArray();
+            long openTime = reader.nextLong();
+            for (int i = 1; i < 4; i++) {
+                reader.skipValue();
+            }
+            double close = reader.nextDouble();
+            while (reader.hasNext()) {
+                reader.skipValue();
+            }
+            reader.endArray();
+            candles.add(openTime, close);
+        }
+        reader.endArray();
+        return candles;
+    }
+
+    // Binance /ticker/price: [{"symbol": "BTCUSDT", "price": "..."}, ...]. The price is only
+    // converted for wanted symbols; a null set keeps everything.
+    static Map<String, Double> readTickerPrices(JsonReader reader, Set<String> wanted) throws IOException {
+        Map<String, Double> prices = new HashMap<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String symbol = null;
+            String price = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("symbol")) {
+                    symbol = reader.nextString();
+                } else if (name.equals("price") && (symbol == null || wanted == null || wanted.contains(symbol))) {
+                    // Binance sends the symbol first, so unwanted prices are skipped without a String
+                    price = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (symbol != null && price != null && (wanted == null || wanted.contains(symbol))) {
+                prices.put(symbol, Double.parseDouble(price));
+            }
+        }
+        reader.endArray();
+        return prices;
+    }
+
+    // Yahoo /v8/finance/chart: {"chart": {"result": [{"timestamp": [...],
+    // "indicators": {"quote": [{"close": [...]}]}}]}}. Timestamps are in seconds and
+    // candles without a close are dropped.
+    static CandleBuffer readChart(JsonReader reader) throws IOException {
+        long[] timestamps = new long[0];
+        double[] closes = new double[0];
+        int timestampCount = 0;
+        int closeCount = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("chart") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("result") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if (name.equals("timestamp") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                            LongColumn column = readLongs(reader);
+                            timestamps = column.values;
+                            timestampCount = column.size;
+                        } else if (name.equals("indicators") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            DoubleColumn column = readQuoteCloses(reader);
+                            closes = column.values;
+                            closeCount = column.size;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+
+        int count = Math.min(timestampCount, closeCount);
+        CandleBuffer candles = new CandleBuffer(count);
+        for (int i = 0; i < count; i++) {
+            if (!Double.isNaN(closes[i])) {
+                candles.add(timestamps[i] * 1000, closes[i]);
+            }
+        }
+        return candles;
+    }
+
+    // indicators: {"quote": [{"close": [...], ...}], "adjclose": [...]}
+    private static DoubleColumn readQuoteCloses(JsonReader reader) throws IOException {
+        DoubleColumn closes = new DoubleColumn();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("quote") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            boolean first = true;
+            while (reader.hasNext()) {
+                if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                first = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("close") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            if (reader.peek() == JsonToken.NULL) {
+                                reader.nextNull();
+                                closes.add(Double.NaN);
+                            } else {
+                                closes.add(reader.nextDouble());
+                            }
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return closes;
+    }
+
+    private static LongColumn readLongs(JsonReader reader) throws IOException {
+        LongColumn column = new LongColumn();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            column.add(reader.nextLong());
+        }
+        reader.endArray();
+        return column;
+    }
+
+    private static class LongColumn {
+        long[] values = new long[256];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static class DoubleColumn {
+        double[] values = new double[256];
+        int size;
+
+        void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -9,6 +9,15 @@ import java.util.List;
 public class WhaleAlertClient {
     private static final String API_URL = "https://api.whale-alert.io/v1/transactions";
     private static final String API_KEY = "demo";
+    private final HttpTransport transport;
+
+    public WhaleAlertClient() {
+        this(HttpTransport.getInstance());
+    }
+
+    public WhaleAlertClient(HttpTransport transport) {
+        this.transport = transport;
+    }
     
     public List<WhaleTransaction> getRecentTransactions() {
         List<WhaleTransaction> transactions = new ArrayList<>();
@@ -19,14 +28,13 @@ public class WhaleAlertClient {
             
             String url = API_URL + "?api_key=" + API_KEY + "&min_value=1000000&start=" + oneHourAgo;
             
-            HttpClient client = HttpClient.newHttpClient();
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(url))
                     .timeout(java.time.Duration.ofSeconds(10))
                     .GET()
                     .build();
             
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(request);
             
             if (response.statusCode() == 200) {
                 JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
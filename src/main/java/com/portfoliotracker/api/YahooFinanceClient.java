@@ -4,92 +4,164 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.portfoliotracker.model.PricePoint;
+import com.portfoliotracker.model.PriceSeries;
 
 import java.net.URI;
-import java.net.http.HttpClient;
+import java.net.URLEncoder;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class YahooFinanceClient {
     private static final String BASE_URL = "https://query1.finance.yahoo.com/v8/finance/chart/";
-    private final HttpClient httpClient;
+    private static final String QUOTE_URL = "https://query1.finance.yahoo.com/v7/finance/quote?symbols=";
+    private static final int QUOTE_BATCH_SIZE = 50;
+    private final HttpTransport transport;
     private final Gson gson;
 
     public YahooFinanceClient() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this(HttpTransport.getInstance());
+    }
+
+    public YahooFinanceClient(HttpTransport transport) {
+        this.transport = transport;
         this.gson = new Gson();
     }
 
     public double getCurrentPrice(String symbol) {
         try {
-            String url = BASE_URL + symbol.toUpperCase() + "?interval=1d&range=1d";
-            String response = sendRequest(url);
-            JsonObject json = gson.fromJson(response, JsonObject.class);
-            JsonObject chart = json.getAsJsonObject("chart");
-            JsonArray result = chart.getAsJsonArray("result");
-            
-            if (result != null && result.size() > 0) {
-                JsonObject data = result.get(0).getAsJsonObject();
-                JsonObject meta = data.getAsJsonObject("meta");
-                return meta.get("regularMarketPrice").getAsDouble();
-            }
+            return parseCurrentPrice(sendRequest(currentPriceUrl(symbol)));
         } catch (Exception e) {
             e.printStackTrace();
         }
         return 0;
     }
 
-    public List<PricePoint> getPriceHistory(String symbol, int days) {
-        List<PricePoint> pricePoints = new ArrayList<>();
-        try {
-            String range = days <= 7 ? "5d" : days <= 30 ? "1mo" : days <= 90 ? "3mo" : "1y";
-            String url = BASE_URL + symbol.toUpperCase() + "?interval=1d&range=" + range;
-            String response = sendRequest(url);
-            JsonObject json = gson.fromJson(response, JsonObject.class);
-            JsonObject chart = json.getAsJsonObject("chart");
-            JsonArray result = chart.getAsJsonArray("result");
-            
-            if (result != null && result.size() > 0) {
-                JsonObject data = result.get(0).getAsJsonObject();
-                JsonArray timestamps = data.getAsJsonArray("timestamp");
-                JsonObject indicators = data.getAsJsonObject("indicators");
-                JsonArray quote = indicators.getAsJsonArray("quote");
-                JsonArray closes = quote.get(0).getAsJsonObject().getAsJsonArray("close");
-                
-                for (int i = 0; i < timestamps.size(); i++) {
-                    long timestamp = timestamps.get(i).getAsLong();
-                    if (!closes.get(i).isJsonNull()) {
-                        double price = closes.get(i).getAsDouble();
-                        LocalDateTime dateTime = LocalDateTime.ofInstant(
-                                Instant.ofEpochSecond(timestamp), ZoneId.systemDefault());
-                        pricePoints.add(new PricePoint(dateTime, price));
+    public CompletableFuture<Double> getCurrentPriceAsync(String symbol) {
+        return transport.sendAsync(buildRequest(currentPriceUrl(symbol)))
+                .thenApply(response -> parseCurrentPrice(response.body()))
+                .exceptionally(e -> {
+                    System.err.println("Yahoo price error for " + symbol + ": " + e.getMessage());
+                    return 0.0;
+                });
+    }
+
+    private String currentPriceUrl(String symbol) {
+        return BASE_URL + symbol.toUpperCase() + "?interval=1d&range=1d";
+    }
+
+    private double parseCurrentPrice(String response) {
+        JsonObject json = gson.fromJson(response, JsonObject.class);
+        JsonObject chart = json.getAsJsonObject("chart");
+        JsonArray result = chart.getAsJsonArray("result");
+        
+        if (result != null && result.size() > 0) {
+            JsonObject data = result.get(0).getAsJsonObject();
+            JsonObject meta = data.getAsJsonObject("meta");
+            return meta.get("regularMarketPrice").getAsDouble();
+        }
+        return 0;
+    }
+
+    public Map<String, Double> getCurrentPrices(Collection<String> symbols) {
+        Map<String, Double> prices = new HashMap<>();
+        List<String> upper = new ArrayList<>();
+        for (String symbol : symbols) {
+            String s = symbol.toUpperCase();
+            if (!upper.contains(s)) upper.add(s);
+        }
+        
+        for (int start = 0; start < upper.size(); start += QUOTE_BATCH_SIZE) {
+            List<String> chunk = upper.subList(start, Math.min(start + QUOTE_BATCH_SIZE, upper.size()));
+            try {
+                String url = QUOTE_URL + URLEncoder.encode(String.join(",", chunk), StandardCharsets.UTF_8);
+                String response = sendRequest(url);
+                JsonObject json = gson.fromJson(response, JsonObject.class);
+                JsonObject quoteResponse = json != null ? json.getAsJsonObject("quoteResponse") : null;
+                JsonArray result = quoteResponse != null ? quoteResponse.getAsJsonArray("result") : null;
+                if (result != null) {
+                    for (int i = 0; i < result.size(); i++) {
+                        JsonObject quote = result.get(i).getAsJsonObject();
+                        if (quote.has("symbol") && quote.has("regularMarketPrice")) {
+                            prices.put(quote.get("symbol").getAsString().toUpperCase(),
+                                    quote.get("regularMarketPrice").getAsDouble());
+                        }
                     }
                 }
+            } catch (Exception e) {
+                System.err.println("Yahoo quote batch error: " + e.getMessage());
+            }
+        }
+        
+        // Symbols the quote endpoint did not return go through the chart endpoint one by one
+        for (String symbol : upper) {
+            if (!prices.containsKey(symbol)) {
+                double price = getCurrentPrice(symbol);
+                if (price > 0) {
+                    prices.put(symbol, price);
+                }
             }
+        }
+        return prices;
+    }
+
+    public List<PricePoint> getPriceHistory(String symbol, int days) {
+        try {
+            return transport.sendParsed(buildRequest(historyUrl(symbol, days)), MarketDataParsers::readChart)
+                    .toSeries().toPricePoints();
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return pricePoints;
+        return new ArrayList<>();
     }
 
-    private String sendRequest(String url) throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
+    public CompletableFuture<PriceSeries> getPriceSeriesAsync(String symbol, int days) {
+        return fetchChartAsync(symbol, historyUrl(symbol, days));
+    }
+
+    public CompletableFuture<PriceSeries> getPriceSeriesSinceAsync(String symbol, String interval, long startMillis) {
+        String url = BASE_URL + symbol.toUpperCase() + "?interval=" + interval
+                + "&period1=" + (startMillis / 1000) + "&period2=" + (System.currentTimeMillis() / 1000);
+        return fetchChartAsync(symbol, url);
+    }
+
+    private CompletableFuture<PriceSeries> fetchChartAsync(String symbol, String url) {
+        return transport.sendAsyncParsed(buildRequest(url), MarketDataParsers::readChart)
+                .thenApply(CandleBuffer::toSeries)
+                .exceptionally(e -> {
+                    System.err.println("Yahoo history error for " + symbol + ": " + e.getMessage());
+                    return PriceSeries.EMPTY;
+                });
+    }
+
+    public static String historyInterval(int days) {
+        return "1d";
+    }
+
+    private String historyUrl(String symbol, int days) {
+        String range = days <= 7 ? "5d" : days <= 30 ? "1mo" : days <= 90 ? "3mo" : "1y";
+        return BASE_URL + symbol.toUpperCase() + "?interval=" + historyInterval(days) + "&range=" + range;
+    }
+
+    private HttpRequest buildRequest(String url) {
+        return HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .header("Accept", "application/json")
                 .header("User-Agent", "Mozilla/5.0")
                 .timeout(Duration.ofSeconds(30))
                 .GET()
                 .build();
-        
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String sendRequest(String url) throws Exception {
+        HttpResponse<String> response = transport.send(buildRequest(url));
         return response.body();
     }
 }
@@ -3,9 +3,11 @@ package com.portfoliotracker.controller;
 import com.portfoliotracker.api.WhaleAlertClient;
 import com.portfoliotracker.model.Asset;
 import com.portfoliotracker.model.Portfolio;
-import com.portfoliotracker.model.PricePoint;
+import com.portfoliotracker.model.PriceSeries;
+import com.portfoliotracker.service.BackgroundExecutor;
 import com.portfoliotracker.service.MarketDataService;
 import com.portfoliotracker.service.PortfolioService;
+import com.portfoliotracker.service.PortfolioValuationEngine;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -15,11 +17,12 @@ import javafx.scene.control.*;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class AnalysisController {
     @FXML private TableView<WhaleAlertClient.WhaleTransaction> whaleTable;
@@ -45,6 +48,8 @@ public class AnalysisController {
     private final WhaleAlertClient whaleClient = new WhaleAlertClient();
     private final PortfolioService portfolioService = PortfolioService.getInstance();
     private final MarketDataService marketDataService = MarketDataService.getInstance();
+    private final BackgroundExecutor backgroundExecutor = BackgroundExecutor.getInstance();
+    private final PortfolioValuationEngine valuationEngine = PortfolioValuationEngine.getInstance();
     private static final int ANALYSIS_DAYS = 30;
 
     @FXML
@@ -81,7 +86,7 @@ public class AnalysisController {
             updateStats(transactions);
         });
         
-        new Thread(task).start();
+        backgroundExecutor.submitLatest("analysis.whales", task);
     }
     
     private void updateStats(List<WhaleAlertClient.WhaleTransaction> transactions) {
@@ -145,7 +150,7 @@ public class AnalysisController {
         }
         Task<AnalysisData> task = new Task<>() {
             @Override
-            protected AnalysisData call() {
+            protected AnalysisData call() throws Exception {
                 Portfolio portfolio = portfolioService.getPortfolio(selected.getId());
                 if (portfolio == null) {
                     portfolio = selected;
@@ -154,28 +159,33 @@ public class AnalysisController {
             }
         };
         task.setOnSucceeded(e -> updateAnalysisUI(task.getValue()));
-        new Thread(task).start();
+        backgroundExecutor.submitLatest("analysis.portfolio", task);
     }
 
-    private AnalysisData computeAnalysis(Portfolio portfolio) {
+    private AnalysisData computeAnalysis(Portfolio portfolio) throws Exception {
         if (portfolio.getAssets() == null || portfolio.getAssets().isEmpty()) {
             return AnalysisData.empty();
         }
-        Map<String, List<PricePoint>> assetHistory = new HashMap<>();
+        Map<String, PriceSeries> assetHistory = new HashMap<>();
         Map<String, Double> quantities = new HashMap<>();
+        Map<Asset, CompletableFuture<PriceSeries>> pending = new LinkedHashMap<>();
         for (Asset asset : portfolio.getAssets()) {
-            double quantity = asset.getTotalQuantity();
-            if (quantity <= 0) {
-                continue;
+            if (asset.getTotalQuantity() > 0) {
+                pending.put(asset, marketDataService.getPriceSeriesAsync(
+                        asset.getTicker(), asset.getType(), portfolio.getCurrency(), ANALYSIS_DAYS));
             }
-            List<PricePoint> history = marketDataService.getPriceHistory(
-                    asset.getTicker(), asset.getType(), portfolio.getCurrency(), ANALYSIS_DAYS);
+        }
+        CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).get();
+        for (Map.Entry<Asset, CompletableFuture<PriceSeries>> entry : pending.entrySet()) {
+            Asset asset = entry.getKey();
+            double quantity = asset.getTotalQuantity();
+            PriceSeries history = entry.getValue().join();
             if (history != null && !history.isEmpty()) {
                 assetHistory.put(asset.getTicker(), history);
                 quantities.put(asset.getTicker(), quantity);
             }
         }
-        List<ValuePoint> totalHistory = calculateTotalValueHistory(assetHistory, quantities);
+        PriceSeries totalHistory = valuationEngine.valueHistory(assetHistory, quantities);
         if (totalHistory.size() < 2) {
             return AnalysisData.empty();
         }
@@ -186,8 +196,8 @@ public class AnalysisController {
         LocalDateTime bestDate = null;
         LocalDateTime worstDate = null;
         for (int i = 1; i < totalHistory.size(); i++) {
-            double prev = totalHistory.get(i - 1).value;
-            double curr = totalHistory.get(i).value;
+            double prev = totalHistory.priceAt(i - 1);
+            double curr = totalHistory.priceAt(i);
             if (prev <= 0) {
                 continue;
             }
@@ -199,11 +209,11 @@ public class AnalysisController {
             }
             if (change > bestChange) {
                 bestChange = change;
-                bestDate = totalHistory.get(i).timestamp;
+                bestDate = totalHistory.dateTimeAt(i);
             }
             if (change < worstChange) {
                 worstChange = change;
-                worstDate = totalHistory.get(i).timestamp;
+                worstDate = totalHistory.dateTimeAt(i);
             }
         }
         return new AnalysisData(profitDays, lossDays, bestChange, worstChange, bestDate, worstDate);
@@ -245,41 +255,6 @@ public class AnalysisController {
         worstDayLabel.setText("—");
     }
 
-    private List<ValuePoint> calculateTotalValueHistory(Map<String, List<PricePoint>> assetHistory, Map<String, Double> quantities) {
-        List<ValuePoint> result = new ArrayList<>();
-        if (assetHistory.isEmpty()) {
-            return result;
-        }
-        int minSize = assetHistory.values().stream().mapToInt(List::size).min().orElse(0);
-        if (minSize == 0) {
-            return result;
-        }
-        List<String> assets = new ArrayList<>(assetHistory.keySet());
-        List<PricePoint> firstHistory = assetHistory.get(assets.get(0));
-        for (int i = 0; i < minSize; i++) {
-            double totalValue = 0;
-            LocalDateTime timestamp = firstHistory.get(i).getTimestamp();
-            for (String asset : assets) {
-                List<PricePoint> history = assetHistory.get(asset);
-                double price = history.get(i).getPrice();
-                double qty = quantities.getOrDefault(asset, 0.0);
-                totalValue += price * qty;
-            }
-            result.add(new ValuePoint(timestamp, totalValue));
-        }
-        return result;
-    }
-
-    private static class ValuePoint {
-        LocalDateTime timestamp;
-        double value;
-
-        ValuePoint(LocalDateTime timestamp, double value) {
-            this.timestamp = timestamp;
-            this.value = value;
-        }
-    }
-
     private static class AnalysisData {
         final int profitDays;
         final int lossDays;
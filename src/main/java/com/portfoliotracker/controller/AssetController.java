@@ -5,6 +5,7 @@ import com.portfoliotracker.model.Portfolio;
 import com.portfoliotracker.model.Transaction;
 import com.portfoliotracker.model.enums.AssetType;
 import com.portfoliotracker.model.enums.TransactionType;
+import com.portfoliotracker.service.BackgroundExecutor;
 import com.portfoliotracker.service.MarketDataService;
 import com.portfoliotracker.service.PortfolioService;
 import javafx.application.Platform;
@@ -32,6 +33,7 @@ public class AssetController {
     private boolean editMode = false;
     private final PortfolioService portfolioService = PortfolioService.getInstance();
     private final MarketDataService marketDataService = MarketDataService.getInstance();
+    private final BackgroundExecutor backgroundExecutor = BackgroundExecutor.getInstance();
 
     @FXML
     public void initialize() {
@@ -104,7 +106,7 @@ public class AssetController {
             }
         });
         
-        new Thread(task).start();
+        backgroundExecutor.submitLatest("asset.price", task);
     }
 
     @FXML
@@ -121,22 +123,18 @@ public class AssetController {
         double fees = parseDouble(feesField.getText());
         LocalDateTime date = datePicker.getValue().atStartOfDay();
 
+        Transaction transaction = new Transaction(TransactionType.BUY, quantity, price, date, fees, "");
         if (editMode && currentAsset != null) {
-            Transaction transaction = new Transaction(TransactionType.BUY, quantity, price, date, fees, "");
-            currentAsset.addTransaction(transaction);
-            portfolioService.updatePortfolio(currentPortfolio);
+            portfolioService.addTransaction(currentPortfolio.getId(), currentAsset.getId(), transaction);
         } else {
             Asset existingAsset = currentPortfolio.getAssetByTicker(ticker);
             if (existingAsset != null) {
-                Transaction transaction = new Transaction(TransactionType.BUY, quantity, price, date, fees, "");
-                existingAsset.addTransaction(transaction);
+                portfolioService.addTransaction(currentPortfolio.getId(), existingAsset.getId(), transaction);
             } else {
                 Asset newAsset = new Asset(ticker, name.isEmpty() ? ticker : name, type);
-                Transaction transaction = new Transaction(TransactionType.BUY, quantity, price, date, fees, "");
                 newAsset.addTransaction(transaction);
-                currentPortfolio.addAsset(newAsset);
+                portfolioService.addAssetToPortfolio(currentPortfolio.getId(), newAsset);
             }
-            portfolioService.updatePortfolio(currentPortfolio);
         }
 
         closeDialog();
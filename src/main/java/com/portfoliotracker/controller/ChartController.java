@@ -1,12 +1,17 @@
 package com.portfoliotracker.controller;
 
 import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
 import com.portfoliotracker.model.Event;
 import com.portfoliotracker.model.Portfolio;
-import com.portfoliotracker.model.PricePoint;
+import com.portfoliotracker.model.PriceSeries;
+import com.portfoliotracker.model.enums.ValuationMode;
+import com.portfoliotracker.service.BackgroundExecutor;
 import com.portfoliotracker.service.EventService;
 import com.portfoliotracker.service.MarketDataService;
+import com.portfoliotracker.service.PortfolioBatchValuator;
 import com.portfoliotracker.service.PortfolioService;
+import com.portfoliotracker.service.PortfolioValuationEngine;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
@@ -19,9 +24,10 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.Node;
 
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class ChartController {
     @FXML private ComboBox<Portfolio> portfolioCombo;
@@ -53,16 +59,21 @@ public class ChartController {
 
     private ObservableList<Portfolio> portfolios;
     private final MarketDataService marketDataService = MarketDataService.getInstance();
+    private final BackgroundExecutor backgroundExecutor = BackgroundExecutor.getInstance();
     private final PortfolioService portfolioService = PortfolioService.getInstance();
     private final EventService eventService = EventService.getInstance();
+    private final PortfolioValuationEngine valuationEngine = PortfolioValuationEngine.getInstance();
+    private final PortfolioBatchValuator batchValuator = PortfolioBatchValuator.getInstance();
     
     private int currentDays = 30;
     private String selectedAsset = null;
     private ChartData lastChartData = null;
     private Button activeAssetButton = null;
     private boolean compareMode = false;
+    private ValuationMode valuationMode = ValuationMode.HISTORICAL_HOLDINGS;
     
     @FXML private Button compareAllBtn;
+    @FXML private Button holdingsModeBtn;
 
     @FXML
     public void initialize() {
@@ -195,18 +206,28 @@ public class ChartController {
                     String bestAsset = "";
                     double bestPnlPercent = Double.NEGATIVE_INFINITY;
                     
+                    // Fan out every asset's history request and wait once
+                    Map<Asset, CompletableFuture<PriceSeries>> pending = new LinkedHashMap<>();
                     for (Asset asset : finalPortfolio.getAssets()) {
-                        List<PricePoint> history = marketDataService.getPriceHistory(
-                                asset.getTicker(), asset.getType(), finalPortfolio.getCurrency(), currentDays);
+                        pending.put(asset, marketDataService.getPriceSeriesAsync(
+                                asset.getTicker(), asset.getType(), finalPortfolio.getCurrency(), currentDays));
+                    }
+                    // get() rather than join() so a superseded load stops waiting when cancelled
+                    CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).get();
+                    
+                    Map<AssetKey, PriceSeries> histories = new HashMap<>();
+                    for (Asset asset : finalPortfolio.getAssets()) {
+                        PriceSeries history = pending.get(asset).join();
                         
                         if (history != null && !history.isEmpty()) {
+                            histories.put(AssetKey.of(asset), history);
                             data.assetHistory.put(asset.getTicker(), history);
                             data.quantities.put(asset.getTicker(), asset.getTotalQuantity());
                             data.invested.put(asset.getTicker(), asset.getTotalInvested());
                             data.avgPrices.put(asset.getTicker(), asset.getAverageBuyPrice());
                             totalInvested += asset.getTotalInvested();
                             
-                            double currentPrice = history.get(history.size() - 1).getPrice();
+                            double currentPrice = history.lastPrice();
                             double value = asset.getTotalQuantity() * currentPrice;
                             data.allocation.put(asset.getTicker(), value);
                             
@@ -221,17 +242,17 @@ public class ChartController {
                         }
                     }
                     
-                    data.totalValueHistory = calculateTotalValueHistory(data.assetHistory, data.quantities);
+                    data.totalValueHistory = valuationEngine.valueHistory(finalPortfolio.getAssets(), histories, valuationMode);
                     data.totalInvested = totalInvested;
                     
                     if (!data.totalValueHistory.isEmpty()) {
-                        data.totalValue = data.totalValueHistory.get(data.totalValueHistory.size() - 1).value;
+                        data.totalValue = data.totalValueHistory.lastPrice();
                         data.totalPnL = data.totalValue - totalInvested;
                         
                         // Calculate change over the entire selected period
                         if (data.totalValueHistory.size() >= 2) {
-                            double firstValue = data.totalValueHistory.get(0).value;
-                            double lastValue = data.totalValueHistory.get(data.totalValueHistory.size() - 1).value;
+                            double firstValue = data.totalValueHistory.priceAt(0);
+                            double lastValue = data.totalValueHistory.lastPrice();
                             data.change24h = firstValue > 0 ? ((lastValue - firstValue) / firstValue) * 100 : 0;
                         }
                     }
@@ -240,7 +261,11 @@ public class ChartController {
                     data.assetTickers = new ArrayList<>(data.assetHistory.keySet());
                     
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    if (!isSuperseded(e)) {
+                        e.printStackTrace();
+                    } else if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
                 
                 return data;
@@ -256,38 +281,22 @@ public class ChartController {
         
         task.setOnFailed(e -> {
             showLoading(false);
-            task.getException().printStackTrace();
+            if (!isSuperseded(task.getException())) {
+                task.getException().printStackTrace();
+            }
         });
         
-        new Thread(task).start();
+        backgroundExecutor.submitLatest("chart.data", task);
     }
     
-    private List<ValuePoint> calculateTotalValueHistory(Map<String, List<PricePoint>> assetHistory, Map<String, Double> quantities) {
-        List<ValuePoint> result = new ArrayList<>();
-        
-        if (assetHistory.isEmpty()) return result;
-        
-        int minSize = assetHistory.values().stream().mapToInt(List::size).min().orElse(0);
-        if (minSize == 0) return result;
-        
-        List<String> assets = new ArrayList<>(assetHistory.keySet());
-        List<PricePoint> firstHistory = assetHistory.get(assets.get(0));
-        
-        for (int i = 0; i < minSize; i++) {
-            double totalValue = 0;
-            LocalDateTime timestamp = firstHistory.get(i).getTimestamp();
-            
-            for (String asset : assets) {
-                List<PricePoint> history = assetHistory.get(asset);
-                double price = history.get(i).getPrice();
-                double qty = quantities.getOrDefault(asset, 0.0);
-                totalValue += price * qty;
+    // submitLatest cancels a load once a newer one is queued; that is not an error
+    private static boolean isSuperseded(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof CancellationException || e instanceof InterruptedException) {
+                return true;
             }
-            
-            result.add(new ValuePoint(timestamp, totalValue));
         }
-        
-        return result;
+        return false;
     }
     
     private void updateUI(ChartData data) {
@@ -305,7 +314,7 @@ public class ChartController {
         int totalDays = data.totalValueHistory.size();
         if (totalDays > 1) {
             for (int i = 1; i < totalDays; i++) {
-                if (data.totalValueHistory.get(i).value > data.totalValueHistory.get(i-1).value) {
+                if (data.totalValueHistory.priceAt(i) > data.totalValueHistory.priceAt(i-1)) {
                     profitDays++;
                 }
             }
@@ -323,16 +332,13 @@ public class ChartController {
     private void updateLineChart(ChartData data) {
         lineChart.getData().clear();
         
-        List<ValuePoint> historyToShow;
+        PriceSeries historyToShow;
         String title;
         
         if (selectedAsset != null && data.assetHistory.containsKey(selectedAsset)) {
-            List<PricePoint> assetHistory = data.assetHistory.get(selectedAsset);
+            PriceSeries assetHistory = data.assetHistory.get(selectedAsset);
             double qty = data.quantities.getOrDefault(selectedAsset, 1.0);
-            historyToShow = new ArrayList<>();
-            for (PricePoint p : assetHistory) {
-                historyToShow.add(new ValuePoint(p.getTimestamp(), p.getPrice() * qty));
-            }
+            historyToShow = assetHistory.scaled(qty);
             title = selectedAsset;
             chartTitleLabel.setText(selectedAsset + " Value");
             chartSubtitle.setText("Showing individual asset");
@@ -355,15 +361,13 @@ public class ChartController {
         int step = Math.max(1, historyToShow.size() / 25);
         
         for (int i = 0; i < historyToShow.size(); i += step) {
-            ValuePoint point = historyToShow.get(i);
-            String label = point.timestamp.format(formatter);
-            series.getData().add(new XYChart.Data<>(label, point.value));
+            String label = historyToShow.dateTimeAt(i).format(formatter);
+            series.getData().add(new XYChart.Data<>(label, historyToShow.priceAt(i)));
         }
         
         int lastIdx = historyToShow.size() - 1;
         if (lastIdx > 0 && lastIdx % step != 0) {
-            ValuePoint last = historyToShow.get(lastIdx);
-            series.getData().add(new XYChart.Data<>(last.timestamp.format(formatter), last.value));
+            series.getData().add(new XYChart.Data<>(historyToShow.dateTimeAt(lastIdx).format(formatter), historyToShow.priceAt(lastIdx)));
         }
         
         lineChart.getData().add(series);
@@ -371,7 +375,7 @@ public class ChartController {
         addEventMarkers(historyToShow, formatter);
     }
     
-    private void addEventMarkers(List<ValuePoint> history, DateTimeFormatter formatter) {
+    private void addEventMarkers(PriceSeries history, DateTimeFormatter formatter) {
         if (history.isEmpty()) return;
         
         Portfolio selected = portfolioCombo.getSelectionModel().getSelectedItem();
@@ -383,14 +387,13 @@ public class ChartController {
         XYChart.Series<String, Number> eventSeries = new XYChart.Series<>();
         eventSeries.setName("Events");
         
-        java.time.LocalDate startDate = history.get(0).timestamp.toLocalDate();
-        java.time.LocalDate endDate = history.get(history.size() - 1).timestamp.toLocalDate();
+        java.time.LocalDate startDate = history.dateTimeAt(0).toLocalDate();
+        java.time.LocalDate endDate = history.dateTimeAt(history.size() - 1).toLocalDate();
         
         // Create a map of dates to values for precise positioning
         Map<String, Double> dateValueMap = new HashMap<>();
-        for (ValuePoint vp : history) {
-            String label = vp.timestamp.format(formatter);
-            dateValueMap.put(label, vp.value);
+        for (int i = 0; i < history.size(); i++) {
+            dateValueMap.put(history.dateTimeAt(i).format(formatter), history.priceAt(i));
         }
         
         for (Event event : events) {
@@ -402,14 +405,7 @@ public class ChartController {
                 Double valueAtDate = dateValueMap.get(label);
                 if (valueAtDate == null) {
                     // Find closest date
-                    valueAtDate = history.stream()
-                        .min((v1, v2) -> {
-                            long diff1 = Math.abs(java.time.Duration.between(v1.timestamp, eventDate.atStartOfDay()).toMillis());
-                            long diff2 = Math.abs(java.time.Duration.between(v2.timestamp, eventDate.atStartOfDay()).toMillis());
-                            return Long.compare(diff1, diff2);
-                        })
-                        .map(v -> v.value)
-                        .orElse(0.0);
+                    valueAtDate = history.priceAt(closestIndex(history, PriceSeries.toEpochMillis(eventDate.atStartOfDay())));
                 }
                 
                 XYChart.Data<String, Number> point = new XYChart.Data<>(label, valueAtDate);
@@ -541,14 +537,16 @@ public class ChartController {
         }
     }
     
-    private static class ValuePoint {
-        LocalDateTime timestamp;
-        double value;
-        
-        ValuePoint(LocalDateTime timestamp, double value) {
-            this.timestamp = timestamp;
-            this.value = value;
-        }
+    private static int closestIndex(PriceSeries history, long millis) {
+        int after = Math.min(history.indexAtOrAfter(millis), history.size() - 1);
+        int before = Math.max(after - 1, 0);
+        return Math.abs(history.timeAt(before) - millis) <= Math.abs(history.timeAt(after) - millis) ? before : after;
+    }
+    
+    private static class CompareData {
+        List<String> names = new ArrayList<>();
+        List<PriceSeries> valueHistories = new ArrayList<>();
+        PortfolioBatchValuator.Result totals;
     }
     
     private static class ChartData {
@@ -558,9 +556,9 @@ public class ChartController {
         double change24h = 0;
         String bestAsset = "";
         List<String> assetTickers = new ArrayList<>();
-        List<ValuePoint> totalValueHistory = new ArrayList<>();
+        PriceSeries totalValueHistory = PriceSeries.EMPTY;
         Map<String, Double> allocation = new HashMap<>();
-        Map<String, List<PricePoint>> assetHistory = new HashMap<>();
+        Map<String, PriceSeries> assetHistory = new HashMap<>();
         Map<String, Double> quantities = new HashMap<>();
         Map<String, Double> invested = new HashMap<>();
         Map<String, Double> avgPrices = new HashMap<>();
@@ -628,94 +626,129 @@ public class ChartController {
         }
     }
 
+    @FXML
+    public void onToggleHoldingsMode() {
+        valuationMode = valuationMode == ValuationMode.HISTORICAL_HOLDINGS
+                ? ValuationMode.CURRENT_HOLDINGS
+                : ValuationMode.HISTORICAL_HOLDINGS;
+        holdingsModeBtn.setText(valuationMode == ValuationMode.HISTORICAL_HOLDINGS
+                ? "Holdings: Over Time" : "Holdings: Today");
+        
+        if (compareMode) {
+            loadCompareChart();
+        } else {
+            loadChartData();
+        }
+    }
+
     private void loadCompareChart() {
         if (portfolios == null || portfolios.isEmpty()) return;
         
         lineChart.getData().clear();
         chartTitleLabel.setText("Portfolio Comparison");
         chartSubtitle.setText("Showing all portfolios");
-        
-        DateTimeFormatter formatter = currentDays <= 7 ? 
-            DateTimeFormatter.ofPattern("dd/MM HH:mm") : 
-            DateTimeFormatter.ofPattern("dd MMM");
+        showLoading(true);
         
         String currency = marketDataService.getReferenceCurrency();
+        List<Portfolio> compared = new ArrayList<>(portfolios);
+        ValuationMode mode = valuationMode;
+        int days = currentDays;
         
-        // Calculate real historical data for each portfolio
-        for (Portfolio portfolio : portfolios) {
-            // Skip empty portfolios
-            if (portfolio.getAssets().isEmpty()) continue;
-            
-            try {
-                // Calculate portfolio history using real data
-                Map<String, List<PricePoint>> assetHistory = new HashMap<>();
-                Map<String, Double> quantities = new HashMap<>();
+        // Network and valuation work stays off the FX thread; only the chart update runs on it
+        Task<CompareData> task = new Task<>() {
+            @Override
+            protected CompareData call() throws Exception {
+                CompareData data = new CompareData();
                 
-                for (Asset asset : portfolio.getAssets()) {
-                    String ticker = asset.getTicker();
-                    double quantity = asset.getTotalQuantity();
-                    
-                    if (quantity > 0) {
-                        List<PricePoint> history = marketDataService.getPriceHistory(
-                            ticker, asset.getType(), currency, currentDays
-                        );
-                        
-                        if (!history.isEmpty()) {
-                            assetHistory.put(ticker, history);
-                            quantities.put(ticker, quantity);
+                // Request every history up front so the portfolios below only wait on the slowest one
+                Map<AssetKey, CompletableFuture<PriceSeries>> pending = new HashMap<>();
+                for (Portfolio portfolio : compared) {
+                    for (Asset asset : portfolio.getAssets()) {
+                        if (isValued(asset, mode)) {
+                            pending.computeIfAbsent(AssetKey.of(asset), key -> marketDataService.getPriceSeriesAsync(
+                                    key.getTicker(), key.getType(), currency, days));
                         }
                     }
                 }
+                data.totals = batchValuator.valueAll(compared, currency);
+                // get() rather than join() so a superseded load stops waiting when cancelled
+                CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).get();
                 
-                // Skip if no valid data
-                if (assetHistory.isEmpty()) continue;
-                
-                // Calculate total value history
-                List<ValuePoint> valueHistory = calculateTotalValueHistory(assetHistory, quantities);
-                
-                if (valueHistory.isEmpty()) continue;
-                
-                // Create series for this portfolio
-                XYChart.Series<String, Number> series = new XYChart.Series<>();
-                series.setName(portfolio.getName());
-                
-                for (ValuePoint vp : valueHistory) {
-                    String label = vp.timestamp.format(formatter);
-                    series.getData().add(new XYChart.Data<>(label, vp.value));
+                for (Portfolio portfolio : compared) {
+                    Map<AssetKey, PriceSeries> assetHistory = new HashMap<>();
+                    for (Asset asset : portfolio.getAssets()) {
+                        if (isValued(asset, mode)) {
+                            PriceSeries history = pending.get(AssetKey.of(asset)).join();
+                            if (!history.isEmpty()) {
+                                assetHistory.put(AssetKey.of(asset), history);
+                            }
+                        }
+                    }
+                    
+                    // Skip portfolios without any priced history
+                    if (assetHistory.isEmpty()) continue;
+                    
+                    PriceSeries valueHistory = valuationEngine.valueHistory(portfolio.getAssets(), assetHistory, mode);
+                    if (!valueHistory.isEmpty()) {
+                        data.names.add(portfolio.getName());
+                        data.valueHistories.add(valueHistory);
+                    }
                 }
-                
-                lineChart.getData().add(series);
-                
-            } catch (Exception e) {
-                System.err.println("Error loading portfolio: " + portfolio.getName());
-                e.printStackTrace();
+                return data;
             }
-        }
+        };
         
-        // Update stats to show combined totals
-        updateCompareStats();
+        task.setOnSucceeded(e -> {
+            showCompareChart(task.getValue(), days);
+            showLoading(false);
+        });
+        
+        task.setOnFailed(e -> {
+            showLoading(false);
+            if (!isSuperseded(task.getException())) {
+                task.getException().printStackTrace();
+            }
+        });
+        
+        backgroundExecutor.submitLatest("chart.data", task);
     }
     
-    private void updateCompareStats() {
-        // Calculate combined stats for all portfolios
-        double totalValue = 0;
-        double totalInvested = 0;
+    private void showCompareChart(CompareData data, int days) {
+        DateTimeFormatter formatter = days <= 7 ? 
+            DateTimeFormatter.ofPattern("dd/MM HH:mm") : 
+            DateTimeFormatter.ofPattern("dd MMM");
         
-        String currency = marketDataService.getReferenceCurrency();
-        for (Portfolio portfolio : portfolios) {
-            for (Asset asset : portfolio.getAssets()) {
-                totalInvested += asset.getTotalInvested();
-                try {
-                    double price = marketDataService.getPrice(
-                        asset.getTicker(), asset.getType(), currency
-                    );
-                    totalValue += asset.getTotalQuantity() * price;
-                } catch (Exception e) {
-                    // Skip on error
-                }
+        lineChart.getData().clear();
+        for (int p = 0; p < data.names.size(); p++) {
+            PriceSeries valueHistory = data.valueHistories.get(p);
+            XYChart.Series<String, Number> series = new XYChart.Series<>();
+            series.setName(data.names.get(p));
+            
+            for (int i = 0; i < valueHistory.size(); i++) {
+                String label = valueHistory.dateTimeAt(i).format(formatter);
+                series.getData().add(new XYChart.Data<>(label, valueHistory.priceAt(i)));
             }
+            
+            lineChart.getData().add(series);
         }
         
+        // Update stats to show combined totals
+        updateCompareStats(data.totals);
+    }
+    
+    // Sold-out positions still count when valuing what was held in the past
+    private static boolean isValued(Asset asset, ValuationMode mode) {
+        if (mode == ValuationMode.HISTORICAL_HOLDINGS) {
+            return !asset.getQuantitySchedule().isEmpty();
+        }
+        return asset.getTotalQuantity() > 0;
+    }
+    
+    private void updateCompareStats(PortfolioBatchValuator.Result totals) {
+        // Combined stats for all portfolios, converted to the reference currency
+        double totalValue = totals.getTotalValue();
+        double totalInvested = totals.getTotalInvested();
+        
         double totalPnL = totalValue - totalInvested;
         
         totalValueLabel.setText(String.format("€%.2f", totalValue));
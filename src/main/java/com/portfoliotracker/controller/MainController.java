@@ -1,9 +1,12 @@
 package com.portfoliotracker.controller;
 
 import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioHeader;
 import com.portfoliotracker.service.DemoService;
 import com.portfoliotracker.service.MarketDataService;
+import com.portfoliotracker.service.PortfolioRepository;
 import com.portfoliotracker.service.PortfolioService;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -22,7 +25,7 @@ import java.util.List;
 import java.util.Optional;
 
 public class MainController {
-    @FXML private ListView<Portfolio> portfolioListView;
+    @FXML private ListView<PortfolioHeader> portfolioListView;
     @FXML private StackPane contentArea;
     @FXML private Button newPortfolioBtn;
     @FXML private Button importCsvBtn;
@@ -32,17 +35,21 @@ public class MainController {
 
     private final PortfolioService portfolioService = PortfolioService.getInstance();
     private final MarketDataService marketDataService = MarketDataService.getInstance();
-    private ObservableList<Portfolio> portfolios;
+    private ObservableList<PortfolioHeader> portfolios;
     private Portfolio currentPortfolio = null;
 
     @FXML
     public void initialize() {
-        portfolios = FXCollections.observableArrayList(portfolioService.getAllPortfolios());
+        // Only the header index is read here; the portfolios themselves load in the background
+        portfolios = FXCollections.observableArrayList(portfolioService.getPortfolioHeaders());
         portfolioListView.setItems(portfolios);
+        // Portfolio files edited outside the app show up without a restart
+        PortfolioRepository.getInstance().addChangeListener(id -> Platform.runLater(this::refreshPortfolios));
+        PortfolioRepository.getInstance().addSaveFailureListener(id -> Platform.runLater(() -> onSaveFailed(id)));
         
-        portfolioListView.setCellFactory(lv -> new ListCell<Portfolio>() {
+        portfolioListView.setCellFactory(lv -> new ListCell<PortfolioHeader>() {
             @Override
-            protected void updateItem(Portfolio item, boolean empty) {
+            protected void updateItem(PortfolioHeader item, boolean empty) {
                 super.updateItem(item, empty);
                 setText(empty || item == null ? null : item.getName());
             }
@@ -50,8 +57,11 @@ public class MainController {
         
         portfolioListView.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
             if (newVal != null) {
-                currentPortfolio = newVal;
-                loadPortfolioView(newVal);
+                Portfolio portfolio = portfolioService.getPortfolio(newVal.getId());
+                if (portfolio != null) {
+                    currentPortfolio = portfolio;
+                    loadPortfolioView(portfolio);
+                }
             }
         });
         
@@ -69,8 +79,7 @@ public class MainController {
                     
                     if (currentPortfolio != null) {
                         System.out.println("[CURRENCY] Updating portfolio: " + currentPortfolio.getName());
-                        currentPortfolio.setCurrency(newVal);
-                        portfolioService.updatePortfolio(currentPortfolio);
+                        portfolioService.changeCurrency(currentPortfolio.getId(), newVal);
                         System.out.println("[CURRENCY] Reloading portfolio view...");
                         loadPortfolioView(currentPortfolio);
                         System.out.println("[CURRENCY] Portfolio updated successfully");
@@ -134,15 +143,16 @@ public class MainController {
         
         Optional<Portfolio> result = dialog.showAndWait();
         result.ifPresent(portfolio -> {
-            portfolios.add(portfolio);
-            portfolioListView.getSelectionModel().select(portfolio);
+            PortfolioHeader header = PortfolioHeader.of(portfolio, portfolio.getCreatedAt());
+            portfolios.add(header);
+            portfolioListView.getSelectionModel().select(header);
             setStatus("Created portfolio: " + portfolio.getName());
         });
     }
 
     @FXML
     public void onImportCSV() {
-        Portfolio selected = portfolioListView.getSelectionModel().getSelectedItem();
+        PortfolioHeader selected = portfolioListView.getSelectionModel().getSelectedItem();
         if (selected == null) {
             showAlert("No Portfolio Selected", "Please select a portfolio first to import CSV data.");
             return;
@@ -157,7 +167,7 @@ public class MainController {
         if (file != null) {
             portfolioService.importFromCoinbaseCSV(selected.getId(), file);
             refreshPortfolios();
-            loadPortfolioView(selected);
+            loadPortfolioView(portfolioService.getPortfolio(selected.getId()));
             setStatus("Imported CSV: " + file.getName());
         }
     }
@@ -169,7 +179,7 @@ public class MainController {
             Parent chartView = loader.load();
             
             ChartController controller = loader.getController();
-            controller.setPortfolios(portfolios);
+            controller.setPortfolios(portfolioService.getAllPortfolios());
             
             contentArea.getChildren().clear();
             contentArea.getChildren().add(chartView);
@@ -183,8 +193,9 @@ public class MainController {
 
     @FXML
     public void onRefresh() {
+        String selectedId = currentPortfolio != null ? currentPortfolio.getId() : null;
         refreshPortfolios();
-        Portfolio selected = portfolioListView.getSelectionModel().getSelectedItem();
+        Portfolio selected = selectedId != null ? portfolioService.getPortfolio(selectedId) : null;
         if (selected != null) {
             loadPortfolioView(selected);
         }
@@ -274,8 +285,7 @@ public class MainController {
     }
 
     public void refreshPortfolios() {
-        portfolios.clear();
-        portfolios.addAll(portfolioService.getAllPortfolios());
+        portfolios.setAll(portfolioService.getPortfolioHeaders());
     }
 
     public void removePortfolioFromList(Portfolio portfolio) {
@@ -285,7 +295,18 @@ public class MainController {
     }
 
     public void addPortfolioToList(Portfolio portfolio) {
-        portfolios.add(portfolio);
+        portfolios.add(PortfolioHeader.of(portfolio, portfolio.getCreatedAt()));
+    }
+
+    // The edits stay in memory and the repository keeps retrying; the user should still know
+    private void onSaveFailed(String id) {
+        String name = portfolios.stream()
+                .filter(p -> p.getId().equals(id))
+                .map(PortfolioHeader::getName)
+                .findFirst()
+                .orElse(id);
+        setStatus("Could not save " + name + ", retrying");
+        showNotification("Save Failed", "Changes to " + name + " could not be written to disk. Retrying in the background.");
     }
 
     private void setStatus(String message) {
@@ -1,8 +1,11 @@
 package com.portfoliotracker.controller;
 
 import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
 import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioSnapshot;
 import com.portfoliotracker.service.AnalysisService;
+import com.portfoliotracker.service.BackgroundExecutor;
 import com.portfoliotracker.service.MarketDataService;
 import com.portfoliotracker.service.PortfolioService;
 import javafx.application.Platform;
@@ -42,10 +45,12 @@ public class PortfolioController {
     private MainController mainController;
     private final PortfolioService portfolioService = PortfolioService.getInstance();
     private final MarketDataService marketDataService = MarketDataService.getInstance();
+    private final BackgroundExecutor backgroundExecutor = BackgroundExecutor.getInstance();
     private final AnalysisService analysisService = AnalysisService.getInstance();
     private ObservableList<Asset> assets;
     
-    private final Map<String, Double> priceCache = new HashMap<>();
+    private final Map<AssetKey, Double> priceCache = new HashMap<>();
+    private PortfolioSnapshot snapshot;
 
     @FXML
     public void initialize() {
@@ -62,17 +67,17 @@ public class PortfolioController {
                 new SimpleStringProperty(formatCurrency(data.getValue().getAverageBuyPrice())));
         currentPriceColumn.setCellValueFactory(data -> {
             Asset asset = data.getValue();
-            Double price = priceCache.getOrDefault(asset.getTicker(), 0.0);
+            Double price = priceCache.getOrDefault(AssetKey.of(asset), 0.0);
             return new SimpleStringProperty(formatCurrency(price));
         });
         valueColumn.setCellValueFactory(data -> {
             Asset asset = data.getValue();
-            Double price = priceCache.getOrDefault(asset.getTicker(), 0.0);
+            Double price = priceCache.getOrDefault(AssetKey.of(asset), 0.0);
             return new SimpleStringProperty(formatCurrency(asset.getTotalQuantity() * price));
         });
         pnlColumn.setCellValueFactory(data -> {
             Asset asset = data.getValue();
-            Double price = priceCache.getOrDefault(asset.getTicker(), 0.0);
+            Double price = priceCache.getOrDefault(AssetKey.of(asset), 0.0);
             double pnl = (price - asset.getAverageBuyPrice()) * asset.getTotalQuantity();
             return new SimpleStringProperty(formatPnL(pnl));
         });
@@ -80,6 +85,9 @@ public class PortfolioController {
 
     public void setPortfolio(Portfolio portfolio) {
         // Use the portfolio parameter directly to preserve in-memory changes (e.g., currency)
+        if (portfolio != currentPortfolio) {
+            snapshot = null;
+        }
         this.currentPortfolio = portfolio;
         
         portfolioNameLabel.setText(currentPortfolio.getName());
@@ -90,26 +98,20 @@ public class PortfolioController {
     }
 
     private void loadPricesAsync() {
-        Task<Map<String, Double>> task = new Task<>() {
+        Portfolio portfolio = currentPortfolio;
+        Task<PortfolioSnapshot> task = new Task<>() {
             @Override
-            protected Map<String, Double> call() {
-                Map<String, Double> prices = new HashMap<>();
-                for (Asset asset : currentPortfolio.getAssets()) {
-                    try {
-                        double price = marketDataService.getPrice(
-                                asset.getTicker(), asset.getType(), currentPortfolio.getCurrency());
-                        prices.put(asset.getTicker(), price);
-                    } catch (Exception e) {
-                        prices.put(asset.getTicker(), 0.0);
-                    }
-                }
-                return prices;
+            protected PortfolioSnapshot call() {
+                return analysisService.computeSnapshot(portfolio);
             }
         };
         
         task.setOnSucceeded(e -> {
+            snapshot = task.getValue();
             priceCache.clear();
-            priceCache.putAll(task.getValue());
+            for (Asset asset : portfolio.getAssets()) {
+                priceCache.put(AssetKey.of(asset), snapshot.getPrice(asset));
+            }
             refreshTable();
             updateSummary();
         });
@@ -119,7 +121,7 @@ public class PortfolioController {
             updateSummary();
         });
         
-        new Thread(task).start();
+        backgroundExecutor.submitLatest("portfolio.prices", task);
     }
 
     public void setMainController(MainController mainController) {
@@ -200,17 +202,11 @@ public class PortfolioController {
     }
 
     private void updateSummary() {
-        double totalValue = 0;
-        double totalInvested = 0;
-        
-        for (Asset asset : currentPortfolio.getAssets()) {
-            Double price = priceCache.getOrDefault(asset.getTicker(), 0.0);
-            totalValue += asset.getTotalQuantity() * price;
-            totalInvested += asset.getTotalInvested();
-        }
-        
-        double pnl = totalValue - totalInvested;
-        double roi = totalInvested > 0 ? ((totalValue - totalInvested) / totalInvested) * 100 : 0;
+        // Zeros until the first snapshot for this portfolio arrives
+        PortfolioSnapshot current = snapshot;
+        double totalValue = current != null ? current.getTotalValue() : 0;
+        double pnl = current != null ? current.getPnL() : 0;
+        double roi = current != null ? current.getRoi() : 0;
         
         String currency = currentPortfolio.getCurrency();
         portfolioValueLabel.setText(formatCurrency(totalValue) + " " + currency);
@@ -2,9 +2,13 @@ package com.portfoliotracker.model;
 
 import com.portfoliotracker.model.enums.AssetType;
 import com.portfoliotracker.model.enums.TransactionType;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Asset {
     private String id;
@@ -12,6 +16,22 @@ public class Asset {
     private String name;
     private AssetType type;
     private List<Transaction> transactions;
+    // Derived from the transactions; rebuilt on demand after any change that cannot be applied
+    // incrementally. Editing a Transaction in place is not tracked. Snapshots read them on
+    // background threads, so rebuilds and changes to the list hold the asset's lock.
+    private transient volatile Totals totals;
+    private transient volatile QuantitySchedule quantitySchedule;
+    private transient volatile long version;
+    private transient volatile long rewriteVersion;
+    private transient TrackedList transactionView;
+
+    // Versions come from one counter shared by all assets and portfolios, so a change anywhere
+    // in a portfolio always moves its version past every value it had before
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    static long nextVersion() {
+        return VERSIONS.incrementAndGet();
+    }
 
     public Asset() {
         this.id = UUID.randomUUID().toString();
@@ -35,46 +55,94 @@ public class Asset {
     }
 
     public double getTotalQuantity() {
-        double total = 0;
-        for (Transaction t : transactions) {
-            if (t.getType() == TransactionType.BUY || t.getType() == TransactionType.REWARD) {
-                total += t.getQuantity();
-            } else if (t.getType() == TransactionType.SELL) {
-                total -= t.getQuantity();
-            }
-        }
-        return total;
+        return totals().quantity;
     }
 
     public double getAverageBuyPrice() {
-        double totalCost = 0;
-        double totalQuantity = 0;
-        for (Transaction t : transactions) {
-            if (t.getType() == TransactionType.BUY) {
-                totalCost += t.getQuantity() * t.getPricePerUnit();
-                totalQuantity += t.getQuantity();
-            }
-        }
-        if (totalQuantity == 0) return 0;
-        return totalCost / totalQuantity;
+        Totals totals = totals();
+        if (totals.buyQuantity == 0) return 0;
+        return totals.buyCost / totals.buyQuantity;
     }
 
     public double getTotalInvested() {
-        double total = 0;
-        for (Transaction t : transactions) {
-            if (t.getType() == TransactionType.BUY) {
-                total += t.getTotalCost();
+        return totals().invested;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // Moves when transactions are removed or replaced, but not when one is appended, so
+    // derived state built in order can tell whether it only needs to apply the new tail
+    public long getRewriteVersion() {
+        return rewriteVersion;
+    }
+
+    public QuantitySchedule getQuantitySchedule() {
+        QuantitySchedule schedule = quantitySchedule;
+        if (schedule != null) {
+            return schedule;
+        }
+        synchronized (this) {
+            if (quantitySchedule == null) {
+                quantitySchedule = QuantitySchedule.fromTransactions(transactions);
             }
+            return quantitySchedule;
         }
-        return total;
     }
 
-    public void addTransaction(Transaction t) {
+    public synchronized void addTransaction(Transaction t) {
         transactions.add(t);
+        Totals current = totals;
+        quantitySchedule = null;
+        totals = current != null ? current.plus(t, 1) : null;
+        version = nextVersion();
+    }
+
+    public synchronized void removeTransaction(String transactionId) {
+        Totals current = totals;
+        boolean removed = false;
+        for (Iterator<Transaction> it = transactions.iterator(); it.hasNext(); ) {
+            Transaction t = it.next();
+            if (t.getId().equals(transactionId)) {
+                it.remove();
+                removed = true;
+                if (current != null) current = current.plus(t, -1);
+            }
+        }
+        if (removed) {
+            quantitySchedule = null;
+            totals = current;
+            version = nextVersion();
+            rewriteVersion = version;
+        }
+    }
+
+    // Running sums over the transactions. Assets loaded by Gson skip the constructors and
+    // start without them, so they are built on first use. Built under the lock: a transaction
+    // added halfway through a scan would otherwise be missing from totals cached after it.
+    private Totals totals() {
+        Totals current = totals;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (totals == null) {
+                Totals built = Totals.EMPTY;
+                for (Transaction t : transactions) {
+                    built = built.plus(t, 1);
+                }
+                totals = built;
+            }
+            return totals;
+        }
     }
 
-    public void removeTransaction(String transactionId) {
-        transactions.removeIf(t -> t.getId().equals(transactionId));
+    private synchronized void invalidate() {
+        totals = null;
+        quantitySchedule = null;
+        version = nextVersion();
+        rewriteVersion = version;
     }
 
     public String getId() {
@@ -109,11 +177,87 @@ public class Asset {
         this.type = type;
     }
 
+    // Callers may still modify the returned list; any change through it drops the cached totals
     public List<Transaction> getTransactions() {
-        return transactions;
+        // Read on every pass over the transactions, so the view is made once
+        TrackedList view = transactionView;
+        if (view == null) {
+            view = new TrackedList();
+            transactionView = view;
+        }
+        return view;
     }
 
-    public void setTransactions(List<Transaction> transactions) {
+    public synchronized void setTransactions(List<Transaction> transactions) {
         this.transactions = transactions;
+        invalidate();
+    }
+
+    private class TrackedList extends AbstractList<Transaction> implements RandomAccess {
+        @Override
+        public Transaction get(int index) {
+            return transactions.get(index);
+        }
+
+        @Override
+        public int size() {
+            return transactions.size();
+        }
+
+        @Override
+        public Transaction set(int index, Transaction element) {
+            synchronized (Asset.this) {
+                Transaction previous = transactions.set(index, element);
+                invalidate();
+                return previous;
+            }
+        }
+
+        @Override
+        public void add(int index, Transaction element) {
+            synchronized (Asset.this) {
+                transactions.add(index, element);
+                invalidate();
+            }
+        }
+
+        @Override
+        public Transaction remove(int index) {
+            synchronized (Asset.this) {
+                Transaction removed = transactions.remove(index);
+                invalidate();
+                return removed;
+            }
+        }
+    }
+
+    private static final class Totals {
+        static final Totals EMPTY = new Totals(0, 0, 0, 0);
+
+        final double quantity;
+        final double buyQuantity;
+        final double buyCost;
+        final double invested;
+
+        Totals(double quantity, double buyQuantity, double buyCost, double invested) {
+            this.quantity = quantity;
+            this.buyQuantity = buyQuantity;
+            this.buyCost = buyCost;
+            this.invested = invested;
+        }
+
+        // sign is 1 to add the transaction, -1 to take it back out
+        Totals plus(Transaction t, int sign) {
+            double q = sign * t.getQuantity();
+            if (t.getType() == TransactionType.BUY) {
+                return new Totals(quantity + q, buyQuantity + q, buyCost + q * t.getPricePerUnit(),
+                        invested + sign * t.getTotalCost());
+            } else if (t.getType() == TransactionType.REWARD) {
+                return new Totals(quantity + q, buyQuantity, buyCost, invested);
+            } else if (t.getType() == TransactionType.SELL) {
+                return new Totals(quantity - q, buyQuantity, buyCost, invested);
+            }
+            return this;
+        }
     }
 }
@@ -0,0 +1,42 @@
+package com.portfoliotracker.model;
+
+import com.portfoliotracker.model.enums.AssetType;
+
+public final class AssetKey {
+    private final String ticker;
+    private final AssetType type;
+
+    public AssetKey(String ticker, AssetType type) {
+        this.ticker = ticker.toUpperCase();
+        this.type = type;
+    }
+
+    public static AssetKey of(Asset asset) {
+        return new AssetKey(asset.getTicker(), asset.getType());
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    public AssetType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AssetKey other)) return false;
+        return ticker.equals(other.ticker) && type == other.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ticker.hashCode() + (type != null ? type.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return ticker + "/" + type;
+    }
+}
@@ -12,6 +12,7 @@ public class Portfolio {
     private String currency;
     private LocalDateTime createdAt;
     private List<Asset> assets;
+    private transient volatile long version;
 
     public Portfolio() {
         this.id = UUID.randomUUID().toString();
@@ -39,10 +40,23 @@ public class Portfolio {
 
     public void addAsset(Asset asset) {
         assets.add(asset);
+        version = Asset.nextVersion();
     }
 
     public void removeAsset(String assetId) {
-        assets.removeIf(a -> a.getId().equals(assetId));
+        if (assets.removeIf(a -> a.getId().equals(assetId))) {
+            version = Asset.nextVersion();
+        }
+    }
+
+    // Changes whenever an asset is added or removed or any asset's transactions change.
+    // The asset list itself must only be changed through addAsset/removeAsset/setAssets.
+    public long getVersion() {
+        long latest = version;
+        for (Asset asset : assets) {
+            latest = Math.max(latest, asset.getVersion());
+        }
+        return latest;
     }
 
     public Asset getAssetByTicker(String ticker) {
@@ -113,6 +127,7 @@ public class Portfolio {
 
     public void setCurrency(String currency) {
         this.currency = currency;
+        this.version = Asset.nextVersion();
     }
 
     public LocalDateTime getCreatedAt() {
@@ -129,5 +144,6 @@ public class Portfolio {
 
     public void setAssets(List<Asset> assets) {
         this.assets = assets;
+        this.version = Asset.nextVersion();
     }
 }
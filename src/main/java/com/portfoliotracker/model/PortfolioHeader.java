@@ -0,0 +1,57 @@
+package com.portfoliotracker.model;
+
+import java.time.LocalDateTime;
+
+// What the portfolio list needs without reading assets and transactions. Kept in an index file
+// next to the portfolio files; fileStamp records which version of the files it was taken from.
+public final class PortfolioHeader {
+    private final String id;
+    private final String name;
+    private final String currency;
+    private final int assetCount;
+    private final LocalDateTime updatedAt;
+    private final String fileStamp;
+
+    public PortfolioHeader(String id, String name, String currency, int assetCount,
+                           LocalDateTime updatedAt, String fileStamp) {
+        this.id = id;
+        this.name = name;
+        this.currency = currency;
+        this.assetCount = assetCount;
+        this.updatedAt = updatedAt;
+        this.fileStamp = fileStamp;
+    }
+
+    public static PortfolioHeader of(Portfolio portfolio, LocalDateTime updatedAt) {
+        return new PortfolioHeader(portfolio.getId(), portfolio.getName(), portfolio.getCurrency(),
+                portfolio.getAssets().size(), updatedAt, null);
+    }
+
+    public PortfolioHeader withFileStamp(String fileStamp) {
+        return new PortfolioHeader(id, name, currency, assetCount, updatedAt, fileStamp);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public int getAssetCount() {
+        return assetCount;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public String getFileStamp() {
+        return fileStamp;
+    }
+}
@@ -0,0 +1,127 @@
+package com.portfoliotracker.model;
+
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.CostBasisMethod;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Every headline metric of a portfolio at one set of prices. Immutable, so it can be shared
+// between views and handed across threads.
+public final class PortfolioSnapshot {
+    private final long portfolioVersion;
+    private final long priceEpoch;
+    // When the oldest price used here goes stale; afterwards the prices are looked up again
+    private final long pricesExpireAt;
+    private final String currency;
+    private final CostBasisMethod costBasisMethod;
+    private final double totalValue;
+    private final double totalInvested;
+    private final double realizedPnL;
+    private final double unrealizedPnL;
+    private final Map<AssetKey, Double> prices;
+    private final Map<String, Double> assetValues;
+    private final Map<AssetType, Double> typeValues;
+
+    public PortfolioSnapshot(long portfolioVersion, long priceEpoch, long pricesExpireAt,
+                             String currency, CostBasisMethod costBasisMethod,
+                             double totalInvested, double realizedPnL, double unrealizedPnL,
+                             Map<AssetKey, Double> prices, Map<String, Double> assetValues,
+                             Map<AssetType, Double> typeValues) {
+        this.portfolioVersion = portfolioVersion;
+        this.priceEpoch = priceEpoch;
+        this.pricesExpireAt = pricesExpireAt;
+        this.currency = currency;
+        this.costBasisMethod = costBasisMethod;
+        this.totalInvested = totalInvested;
+        this.realizedPnL = realizedPnL;
+        this.unrealizedPnL = unrealizedPnL;
+        this.prices = Collections.unmodifiableMap(new LinkedHashMap<>(prices));
+        this.assetValues = Collections.unmodifiableMap(new LinkedHashMap<>(assetValues));
+        this.typeValues = Collections.unmodifiableMap(new EnumMap<>(typeValues));
+        double total = 0;
+        for (double value : assetValues.values()) {
+            total += value;
+        }
+        this.totalValue = total;
+    }
+
+    public boolean isCurrent(long portfolioVersion, long priceEpoch, String currency, CostBasisMethod costBasisMethod) {
+        return this.portfolioVersion == portfolioVersion && this.priceEpoch == priceEpoch
+                && System.currentTimeMillis() < pricesExpireAt && this.currency.equalsIgnoreCase(currency) && this.costBasisMethod == costBasisMethod;
+    }
+
+    public CostBasisMethod getCostBasisMethod() {
+        return costBasisMethod;
+    }
+
+    public double getTotalValue() {
+        return totalValue;
+    }
+
+    public double getTotalInvested() {
+        return totalInvested;
+    }
+
+    public double getPnL() {
+        return totalValue - totalInvested;
+    }
+
+    public double getRoi() {
+        if (totalInvested == 0) return 0;
+        return (getPnL() / totalInvested) * 100;
+    }
+
+    public double getRealizedPnL() {
+        return realizedPnL;
+    }
+
+    public double getUnrealizedPnL() {
+        return unrealizedPnL;
+    }
+
+    public boolean isProfitable() {
+        return getPnL() > 0;
+    }
+
+    // 0 when unknown
+    public double getPrice(AssetKey key) {
+        return prices.getOrDefault(key, 0.0);
+    }
+
+    public double getPrice(Asset asset) {
+        return getPrice(AssetKey.of(asset));
+    }
+
+    public Map<AssetKey, Double> getPrices() {
+        return prices;
+    }
+
+    // Current value per ticker as held in the portfolio
+    public Map<String, Double> getAssetValues() {
+        return assetValues;
+    }
+
+    // Share of the total value per asset type in percent; every type is present
+    public Map<AssetType, Double> getAllocation() {
+        Map<AssetType, Double> allocation = new EnumMap<>(AssetType.class);
+        for (AssetType type : AssetType.values()) {
+            double value = typeValues.getOrDefault(type, 0.0);
+            allocation.put(type, totalValue > 0 ? (value / totalValue) * 100 : 0.0);
+        }
+        return allocation;
+    }
+
+    // Share of the total value per ticker in percent; empty when the portfolio is worth nothing
+    public Map<String, Double> getAssetAllocation() {
+        Map<String, Double> allocation = new LinkedHashMap<>();
+        if (totalValue > 0) {
+            for (Map.Entry<String, Double> entry : assetValues.entrySet()) {
+                allocation.put(entry.getKey(), (entry.getValue() / totalValue) * 100);
+            }
+        }
+        return allocation;
+    }
+}
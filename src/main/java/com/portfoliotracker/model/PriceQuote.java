@@ -0,0 +1,37 @@
+package com.portfoliotracker.model;
+
+public class PriceQuote {
+    private final double price;
+    private final boolean stale;
+    private final long ageMillis;
+
+    public PriceQuote(double price, boolean stale, long ageMillis) {
+        this.price = price;
+        this.stale = stale;
+        this.ageMillis = ageMillis;
+    }
+
+    public static PriceQuote fresh(double price) {
+        return new PriceQuote(price, false, 0);
+    }
+
+    public static PriceQuote unavailable() {
+        return new PriceQuote(0, false, 0);
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public long getAgeMillis() {
+        return ageMillis;
+    }
+
+    public boolean isAvailable() {
+        return price > 0;
+    }
+}
@@ -0,0 +1,177 @@
+package com.portfoliotracker.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable price history stored as two primitive columns sorted by time. Slices share the
+// parent's arrays, so cutting a shorter window out of a long series copies nothing.
+public final class PriceSeries {
+    public static final PriceSeries EMPTY = new PriceSeries(new long[0], new double[0]);
+
+    private final long[] epochMillis;
+    private final double[] prices;
+    private final int offset;
+    private final int length;
+
+    // Takes ownership of the arrays; callers must not modify them afterwards
+    public PriceSeries(long[] epochMillis, double[] prices) {
+        this(epochMillis, prices, 0, Math.min(epochMillis.length, prices.length));
+    }
+
+    private PriceSeries(long[] epochMillis, double[] prices, int offset, int length) {
+        this.epochMillis = epochMillis;
+        this.prices = prices;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public long timeAt(int index) {
+        checkIndex(index);
+        return epochMillis[offset + index];
+    }
+
+    public double priceAt(int index) {
+        checkIndex(index);
+        return prices[offset + index];
+    }
+
+    public LocalDateTime dateTimeAt(int index) {
+        return toDateTime(timeAt(index));
+    }
+
+    public long firstTime() {
+        return timeAt(0);
+    }
+
+    public long lastTime() {
+        return timeAt(length - 1);
+    }
+
+    public double lastPrice() {
+        return priceAt(length - 1);
+    }
+
+    // Index of the first point at or after the given time, or size() if there is none
+    public int indexAtOrAfter(long millis) {
+        int lo = offset;
+        int hi = offset + length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (epochMillis[mid] < millis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - offset;
+    }
+
+    // Index of the last point at or before the given time, or -1 if the series starts later
+    public int indexAtOrBefore(long millis) {
+        int after = indexAtOrAfter(millis);
+        if (after < length && epochMillis[offset + after] == millis) {
+            return after;
+        }
+        return after - 1;
+    }
+
+    // Last known price at the given time (forward fill), NaN before the first point
+    public double priceAtTime(long millis) {
+        int index = indexAtOrBefore(millis);
+        return index < 0 ? Double.NaN : prices[offset + index];
+    }
+
+    public PriceSeries slice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("slice " + fromIndex + ".." + toIndex + " of " + length);
+        }
+        return new PriceSeries(epochMillis, prices, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    public PriceSeries sliceFrom(long fromMillis) {
+        return slice(indexAtOrAfter(fromMillis), length);
+    }
+
+    public PriceSeries scaled(double factor) {
+        if (factor == 1.0) return this;
+        double[] scaledPrices = new double[length];
+        for (int i = 0; i < length; i++) {
+            scaledPrices[i] = prices[offset + i] * factor;
+        }
+        long[] times = new long[length];
+        System.arraycopy(epochMillis, offset, times, 0, length);
+        return new PriceSeries(times, scaledPrices);
+    }
+
+    // Points of this series before other starts, then all of other, then anything this series
+    // has after other ends. Used to top up a held series with freshly fetched candles, so the
+    // newest stored candle is replaced when both have it.
+    public PriceSeries merge(PriceSeries other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        int keep = indexAtOrAfter(other.firstTime());
+        int after = indexAtOrAfter(other.lastTime() + 1);
+        int total = keep + other.length + (length - after);
+        long[] times = new long[total];
+        double[] values = new double[total];
+        System.arraycopy(epochMillis, offset, times, 0, keep);
+        System.arraycopy(prices, offset, values, 0, keep);
+        System.arraycopy(other.epochMillis, other.offset, times, keep, other.length);
+        System.arraycopy(other.prices, other.offset, values, keep, other.length);
+        System.arraycopy(epochMillis, offset + after, times, keep + other.length, length - after);
+        System.arraycopy(prices, offset + after, values, keep + other.length, length - after);
+        return new PriceSeries(times, values);
+    }
+
+    public void copyTimes(long[] dest, int destPos) {
+        System.arraycopy(epochMillis, offset, dest, destPos, length);
+    }
+
+    public void copyPrices(double[] dest, int destPos) {
+        System.arraycopy(prices, offset, dest, destPos, length);
+    }
+
+    public List<PricePoint> toPricePoints() {
+        List<PricePoint> points = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            points.add(new PricePoint(toDateTime(epochMillis[offset + i]), prices[offset + i]));
+        }
+        return points;
+    }
+
+    public static PriceSeries fromPricePoints(List<PricePoint> points) {
+        if (points == null || points.isEmpty()) return EMPTY;
+        long[] times = new long[points.size()];
+        double[] values = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            times[i] = toEpochMillis(points.get(i).getTimestamp());
+            values[i] = points.get(i).getPrice();
+        }
+        return new PriceSeries(times, values);
+    }
+
+    public static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " of " + length);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.portfoliotracker.model;
+
+import com.portfoliotracker.model.enums.TransactionType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Quantity held over time as a step function. Built in one sorted pass over the transactions:
+// times[i] is a transaction time and holdings[i] the running (prefix) sum of the signed
+// quantities up to and including it, so the holding at any moment is one binary search.
+public final class QuantitySchedule {
+    private static final QuantitySchedule NONE = new QuantitySchedule(new long[0], new double[0], 0);
+
+    private final long[] times;
+    private final double[] holdings;
+    private final double initial;
+
+    private QuantitySchedule(long[] times, double[] holdings, double initial) {
+        this.times = times;
+        this.holdings = holdings;
+        this.initial = initial;
+    }
+
+    // The same quantity at every point in time
+    public static QuantitySchedule constant(double quantity) {
+        return quantity == 0 ? NONE : new QuantitySchedule(new long[0], new double[0], quantity);
+    }
+
+    public static QuantitySchedule fromTransactions(List<Transaction> transactions) {
+        if (transactions == null || transactions.isEmpty()) return NONE;
+        List<Transaction> sorted = new ArrayList<>(transactions);
+        // Undated transactions count as held from the start
+        sorted.sort(Comparator.comparing(Transaction::getDate, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        long[] times = new long[sorted.size()];
+        double[] holdings = new double[sorted.size()];
+        double initial = 0;
+        double running = 0;
+        int n = 0;
+        for (Transaction t : sorted) {
+            double delta = signedQuantity(t);
+            if (delta == 0) continue;
+            running += delta;
+            if (t.getDate() == null) {
+                initial = running;
+                continue;
+            }
+            long time = PriceSeries.toEpochMillis(t.getDate());
+            // Transactions at the same instant collapse into one step
+            if (n > 0 && times[n - 1] == time) {
+                holdings[n - 1] = running;
+            } else {
+                times[n] = time;
+                holdings[n] = running;
+                n++;
+            }
+        }
+        if (n == 0 && initial == 0) return NONE;
+        return new QuantitySchedule(trim(times, n), trim(holdings, n), initial);
+    }
+
+    private static double signedQuantity(Transaction t) {
+        if (t.getType() == TransactionType.BUY || t.getType() == TransactionType.REWARD) {
+            return t.getQuantity();
+        } else if (t.getType() == TransactionType.SELL) {
+            return -t.getQuantity();
+        }
+        return 0;
+    }
+
+    public double quantityAt(long millis) {
+        int index = indexAtOrBefore(millis);
+        return index < 0 ? initial : holdings[index];
+    }
+
+    public double getCurrentQuantity() {
+        return times.length == 0 ? initial : holdings[holdings.length - 1];
+    }
+
+    // Index of the last step at or before the given time, -1 if the first step is later
+    public int indexAtOrBefore(long millis) {
+        int lo = 0;
+        int hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= millis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    public int stepCount() {
+        return times.length;
+    }
+
+    public long stepTime(int index) {
+        return times[index];
+    }
+
+    public double quantityAfterStep(int index) {
+        return holdings[index];
+    }
+
+    public boolean isEmpty() {
+        return times.length == 0 && initial == 0;
+    }
+
+    private static long[] trim(long[] array, int n) {
+        if (array.length == n) return array;
+        long[] copy = new long[n];
+        System.arraycopy(array, 0, copy, 0, n);
+        return copy;
+    }
+
+    private static double[] trim(double[] array, int n) {
+        if (array.length == n) return array;
+        double[] copy = new double[n];
+        System.arraycopy(array, 0, copy, 0, n);
+        return copy;
+    }
+}
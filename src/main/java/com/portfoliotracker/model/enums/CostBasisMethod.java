@@ -0,0 +1,8 @@
+package com.portfoliotracker.model.enums;
+
+public enum CostBasisMethod {
+    FIFO,
+    LIFO,
+    HIFO,
+    AVERAGE
+}
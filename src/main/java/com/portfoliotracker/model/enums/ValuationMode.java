@@ -0,0 +1,6 @@
+package com.portfoliotracker.model.enums;
+
+public enum ValuationMode {
+    CURRENT_HOLDINGS,
+    HISTORICAL_HOLDINGS
+}
@@ -1,19 +1,29 @@
 package com.portfoliotracker.service;
 
 import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
 import com.portfoliotracker.model.Portfolio;
-import com.portfoliotracker.model.PricePoint;
-import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.PortfolioSnapshot;
+import com.portfoliotracker.model.PriceSeries;
 import com.portfoliotracker.model.enums.AssetType;
-import com.portfoliotracker.model.enums.TransactionType;
+import com.portfoliotracker.model.enums.CostBasisMethod;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 public class AnalysisService {
     private static AnalysisService instance;
     private final MarketDataService marketDataService;
+    private final CostBasisEngine costBasisEngine = CostBasisEngine.getInstance();
+    private volatile CostBasisMethod costBasisMethod = CostBasisMethod.AVERAGE;
+    // Keyed by identity; a portfolio that is no longer referenced drops its snapshot
+    private final Map<Portfolio, PortfolioSnapshot> snapshots = Collections.synchronizedMap(new WeakHashMap<>());
 
     private AnalysisService() {
         this.marketDataService = MarketDataService.getInstance();
@@ -26,35 +36,52 @@ public class AnalysisService {
         return instance;
     }
 
-    public double calculateROI(Portfolio portfolio) {
-        if (portfolio == null) return 0;
+    // Resolves every price once and derives all metrics in a single pass over the assets.
+    // The result is reused until the portfolio changes, any cached price moves or one of its
+    // prices goes stale; recomputing then goes through getPrices, which refreshes them.
+    public PortfolioSnapshot computeSnapshot(Portfolio portfolio) {
+        long version = portfolio.getVersion();
+        // Read before resolving, so a refresh landing mid-computation forces a recompute
+        long epoch = marketDataService.getPriceEpoch();
+        CostBasisMethod method = costBasisMethod;
+        PortfolioSnapshot cached = snapshots.get(portfolio);
+        if (cached != null && cached.isCurrent(version, epoch, portfolio.getCurrency(), method)) {
+            return cached;
+        }
 
+        List<AssetKey> keys = keysOf(portfolio);
+        Map<AssetKey, Double> prices = marketDataService.getPrices(keys, portfolio.getCurrency());
+        long pricesExpireAt = marketDataService.getPricesExpireAt(keys, portfolio.getCurrency());
         double totalInvested = 0;
-        double currentValue = 0;
-
+        double realizedPnL = 0;
+        double unrealizedPnL = 0;
+        Map<String, Double> assetValues = new LinkedHashMap<>();
+        Map<AssetType, Double> typeValues = new EnumMap<>(AssetType.class);
         for (Asset asset : portfolio.getAssets()) {
+            double price = priceOf(prices, asset);
+            double value = asset.getTotalQuantity() * price;
+            CostBasisEngine.Report costBasis = costBasisEngine.getReport(asset, method);
             totalInvested += asset.getTotalInvested();
-            double price = marketDataService.getPrice(asset.getTicker(), asset.getType(), portfolio.getCurrency());
-            currentValue += asset.getTotalQuantity() * price;
+            realizedPnL += costBasis.getRealizedPnL();
+            unrealizedPnL += costBasis.getUnrealizedPnL(price);
+            assetValues.merge(asset.getTicker(), value, Double::sum);
+            typeValues.merge(asset.getType(), value, Double::sum);
         }
 
-        if (totalInvested == 0) return 0;
-        return ((currentValue - totalInvested) / totalInvested) * 100;
+        PortfolioSnapshot snapshot = new PortfolioSnapshot(version, epoch, pricesExpireAt, portfolio.getCurrency(),
+                method, totalInvested, realizedPnL, unrealizedPnL, prices, assetValues, typeValues);
+        snapshots.put(portfolio, snapshot);
+        return snapshot;
     }
 
-    public double calculatePnL(Portfolio portfolio) {
+    public double calculateROI(Portfolio portfolio) {
         if (portfolio == null) return 0;
+        return computeSnapshot(portfolio).getRoi();
+    }
 
-        double totalInvested = 0;
-        double currentValue = 0;
-
-        for (Asset asset : portfolio.getAssets()) {
-            totalInvested += asset.getTotalInvested();
-            double price = marketDataService.getPrice(asset.getTicker(), asset.getType(), portfolio.getCurrency());
-            currentValue += asset.getTotalQuantity() * price;
-        }
-
-        return currentValue - totalInvested;
+    public double calculatePnL(Portfolio portfolio) {
+        if (portfolio == null) return 0;
+        return computeSnapshot(portfolio).getPnL();
     }
 
     public double calculateRealizedPnL(Portfolio portfolio) {
@@ -62,77 +89,29 @@ public class AnalysisService {
 
         double realizedPnL = 0;
         for (Asset asset : portfolio.getAssets()) {
-            double avgBuyPrice = asset.getAverageBuyPrice();
-            for (Transaction t : asset.getTransactions()) {
-                if (t.getType() == TransactionType.SELL) {
-                    realizedPnL += (t.getPricePerUnit() - avgBuyPrice) * t.getQuantity() - t.getFees();
-                }
-            }
+            realizedPnL += costBasisEngine.getReport(asset, costBasisMethod).getRealizedPnL();
         }
         return realizedPnL;
     }
 
     public double calculateUnrealizedPnL(Portfolio portfolio) {
         if (portfolio == null) return 0;
-
-        double unrealizedPnL = 0;
-        for (Asset asset : portfolio.getAssets()) {
-            double avgBuyPrice = asset.getAverageBuyPrice();
-            double currentPrice = marketDataService.getPrice(asset.getTicker(), asset.getType(), portfolio.getCurrency());
-            unrealizedPnL += (currentPrice - avgBuyPrice) * asset.getTotalQuantity();
-        }
-        return unrealizedPnL;
+        return computeSnapshot(portfolio).getUnrealizedPnL();
     }
 
     public Map<AssetType, Double> getAllocation(Portfolio portfolio) {
-        Map<AssetType, Double> allocation = new HashMap<>();
-        allocation.put(AssetType.STOCK, 0.0);
-        allocation.put(AssetType.CRYPTO, 0.0);
-
-        if (portfolio == null) return allocation;
-
-        double totalValue = 0;
-        Map<AssetType, Double> typeValues = new HashMap<>();
-        typeValues.put(AssetType.STOCK, 0.0);
-        typeValues.put(AssetType.CRYPTO, 0.0);
-
-        for (Asset asset : portfolio.getAssets()) {
-            double price = marketDataService.getPrice(asset.getTicker(), asset.getType(), portfolio.getCurrency());
-            double value = asset.getTotalQuantity() * price;
-            totalValue += value;
-            typeValues.put(asset.getType(), typeValues.get(asset.getType()) + value);
-        }
-
-        if (totalValue > 0) {
-            allocation.put(AssetType.STOCK, (typeValues.get(AssetType.STOCK) / totalValue) * 100);
-            allocation.put(AssetType.CRYPTO, (typeValues.get(AssetType.CRYPTO) / totalValue) * 100);
+        if (portfolio == null) {
+            Map<AssetType, Double> allocation = new HashMap<>();
+            allocation.put(AssetType.STOCK, 0.0);
+            allocation.put(AssetType.CRYPTO, 0.0);
+            return allocation;
         }
-
-        return allocation;
+        return new HashMap<>(computeSnapshot(portfolio).getAllocation());
     }
 
     public Map<String, Double> getAssetAllocation(Portfolio portfolio) {
-        Map<String, Double> allocation = new HashMap<>();
-
-        if (portfolio == null) return allocation;
-
-        double totalValue = 0;
-        Map<String, Double> assetValues = new HashMap<>();
-
-        for (Asset asset : portfolio.getAssets()) {
-            double price = marketDataService.getPrice(asset.getTicker(), asset.getType(), portfolio.getCurrency());
-            double value = asset.getTotalQuantity() * price;
-            totalValue += value;
-            assetValues.put(asset.getTicker(), value);
-        }
-
-        if (totalValue > 0) {
-            for (Map.Entry<String, Double> entry : assetValues.entrySet()) {
-                allocation.put(entry.getKey(), (entry.getValue() / totalValue) * 100);
-            }
-        }
-
-        return allocation;
+        if (portfolio == null) return new HashMap<>();
+        return new HashMap<>(computeSnapshot(portfolio).getAssetAllocation());
     }
 
     public int getProfitablePeriods(Portfolio portfolio, int days) {
@@ -140,11 +119,11 @@ public class AnalysisService {
 
         int profitableDays = 0;
         Asset firstAsset = portfolio.getAssets().get(0);
-        List<PricePoint> history = marketDataService.getPriceHistory(
+        PriceSeries history = marketDataService.getPriceSeries(
                 firstAsset.getTicker(), firstAsset.getType(), portfolio.getCurrency(), days);
 
         for (int i = 1; i < history.size(); i++) {
-            if (history.get(i).getPrice() > history.get(i - 1).getPrice()) {
+            if (history.priceAt(i) > history.priceAt(i - 1)) {
                 profitableDays++;
             }
         }
@@ -156,11 +135,11 @@ public class AnalysisService {
 
         int deficitDays = 0;
         Asset firstAsset = portfolio.getAssets().get(0);
-        List<PricePoint> history = marketDataService.getPriceHistory(
+        PriceSeries history = marketDataService.getPriceSeries(
                 firstAsset.getTicker(), firstAsset.getType(), portfolio.getCurrency(), days);
 
         for (int i = 1; i < history.size(); i++) {
-            if (history.get(i).getPrice() < history.get(i - 1).getPrice()) {
+            if (history.priceAt(i) < history.priceAt(i - 1)) {
                 deficitDays++;
             }
         }
@@ -168,6 +147,27 @@ public class AnalysisService {
     }
 
     public boolean isProfitable(Portfolio portfolio) {
-        return calculatePnL(portfolio) > 0;
+        if (portfolio == null) return false;
+        return computeSnapshot(portfolio).isProfitable();
+    }
+
+    public CostBasisMethod getCostBasisMethod() {
+        return costBasisMethod;
+    }
+
+    public void setCostBasisMethod(CostBasisMethod method) {
+        this.costBasisMethod = method;
+    }
+
+    private static List<AssetKey> keysOf(Portfolio portfolio) {
+        List<AssetKey> keys = new ArrayList<>();
+        for (Asset asset : portfolio.getAssets()) {
+            keys.add(AssetKey.of(asset));
+        }
+        return keys;
+    }
+
+    private double priceOf(Map<AssetKey, Double> prices, Asset asset) {
+        return prices.getOrDefault(AssetKey.of(asset), 0.0);
     }
 }
@@ -0,0 +1,100 @@
+package com.portfoliotracker.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BackgroundExecutor {
+    private static BackgroundExecutor instance;
+
+    private static final int MAX_RUNNING = 32;
+
+    private final Semaphore permits = new Semaphore(MAX_RUNNING);
+    private final Map<String, Future<?>> latestBySlot = new ConcurrentHashMap<>();
+    private final AtomicLong threadCounter = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    private BackgroundExecutor() {
+    }
+
+    public static BackgroundExecutor getInstance() {
+        if (instance == null) {
+            instance = new BackgroundExecutor();
+        }
+        return instance;
+    }
+
+    public <T extends Runnable & Future<?>> T submit(String name, T task) {
+        queued.incrementAndGet();
+        Thread.ofVirtual()
+                .name(name + "-" + threadCounter.incrementAndGet())
+                .start(() -> runTask(task));
+        return task;
+    }
+
+    // Runs the task in the given slot, cancelling whatever was still running there,
+    // e.g. a chart load for a period the user already clicked away from
+    public <T extends Runnable & Future<?>> T submitLatest(String slot, T task) {
+        Future<?> previous = latestBySlot.put(slot, task);
+        if (previous != null && !previous.isDone() && previous.cancel(true)) {
+            cancelled.incrementAndGet();
+        }
+        submit(slot, task);
+        return task;
+    }
+
+    public void cancel(String slot) {
+        Future<?> previous = latestBySlot.remove(slot);
+        if (previous != null && !previous.isDone() && previous.cancel(true)) {
+            cancelled.incrementAndGet();
+        }
+    }
+
+    private <T extends Runnable & Future<?>> void runTask(T task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            queued.decrementAndGet();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        queued.decrementAndGet();
+        try {
+            if (task.isCancelled()) {
+                return;
+            }
+            running.incrementAndGet();
+            try {
+                task.run();
+                completed.incrementAndGet();
+            } finally {
+                running.decrementAndGet();
+            }
+        } finally {
+            permits.release();
+            latestBySlot.values().remove(task);
+        }
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+}
@@ -0,0 +1,385 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.TransactionType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Compact snapshot format. After a 4 byte header ("PTF" + version) come the portfolio fields, a
+// table of the tickers, asset names and notes (so a note repeated on every transaction is stored
+// once), then the assets with their transactions. Integers are varints, ids that are canonical
+// UUIDs take 16 bytes, and transaction dates are stored as the difference in seconds to the
+// previous transaction of the same asset. Doubles are written as raw bits so nothing is rounded.
+public class BinaryPortfolioCodec implements PortfolioCodec {
+    private static final byte[] MAGIC = {'P', 'T', 'F'};
+    private static final int VERSION = 1;
+
+    private static final int ID_STRING = 0;
+    private static final int ID_UUID = 1;
+
+    // Transaction flag bits; the low three bits hold type ordinal + 1
+    private static final int TYPE_MASK = 0x07;
+    private static final int HAS_DATE = 0x08;
+    private static final int HAS_FEES = 0x10;
+    private static final int HAS_NOTES = 0x20;
+
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+    private static final TransactionType[] TRANSACTION_TYPES = TransactionType.values();
+
+    @Override
+    public byte[] encode(Portfolio portfolio) {
+        return write(portfolio).toByteArray();
+    }
+
+    // Skips the copy encode(Portfolio) makes to trim the buffer
+    @Override
+    public void encode(Portfolio portfolio, OutputStream stream) throws IOException {
+        write(portfolio).writeTo(stream);
+    }
+
+    private Output write(Portfolio portfolio) {
+        // Strings referenced from assets and transactions, numbered from 1 (0 means null)
+        Map<String, Integer> table = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (Asset asset : portfolio.getAssets()) {
+            intern(asset.getTicker(), table, strings);
+            intern(asset.getName(), table, strings);
+            for (Transaction t : asset.getTransactions()) {
+                if (t.getNotes() != null && !t.getNotes().isEmpty()) {
+                    intern(t.getNotes(), table, strings);
+                }
+            }
+        }
+
+        Output out = new Output(256 + 48 * transactionCount(portfolio));
+        out.writeBytes(MAGIC);
+        out.writeByte(VERSION);
+        writeId(out, portfolio.getId());
+        out.writeString(portfolio.getName());
+        out.writeString(portfolio.getDescription());
+        out.writeString(portfolio.getCurrency());
+        writeDate(out, portfolio.getCreatedAt());
+
+        out.writeVarLong(strings.size());
+        for (String s : strings) {
+            out.writeString(s);
+        }
+
+        out.writeVarLong(portfolio.getAssets().size());
+        for (Asset asset : portfolio.getAssets()) {
+            writeId(out, asset.getId());
+            out.writeVarLong(ref(asset.getTicker(), table));
+            out.writeVarLong(ref(asset.getName(), table));
+            out.writeVarLong(asset.getType() != null ? asset.getType().ordinal() + 1 : 0);
+
+            List<Transaction> transactions = asset.getTransactions();
+            out.writeVarLong(transactions.size());
+            long previousSecond = 0;
+            for (Transaction t : transactions) {
+                LocalDateTime date = t.getDate();
+                // "" is the common case and costs nothing; null is kept as reference 0
+                boolean hasNotes = !"".equals(t.getNotes());
+                int flags = t.getType() != null ? t.getType().ordinal() + 1 : 0;
+                if (date != null) flags |= HAS_DATE;
+                if (t.getFees() != 0) flags |= HAS_FEES;
+                if (hasNotes) flags |= HAS_NOTES;
+
+                out.writeByte(flags);
+                writeId(out, t.getId());
+                if (date != null) {
+                    long second = date.toEpochSecond(ZoneOffset.UTC);
+                    out.writeVarLong(zigZag(second - previousSecond));
+                    out.writeVarLong(encodeNanos(date.getNano()));
+                    previousSecond = second;
+                }
+                out.writeDouble(t.getQuantity());
+                out.writeDouble(t.getPricePerUnit());
+                if ((flags & HAS_FEES) != 0) out.writeDouble(t.getFees());
+                if (hasNotes) out.writeVarLong(ref(t.getNotes(), table));
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public Portfolio decode(byte[] data) throws IOException {
+        Input in = new Input(data);
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) throw new IOException("Not a binary portfolio file");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported portfolio format version " + version);
+        }
+
+        String id = readId(in);
+        Portfolio portfolio = new Portfolio(id, in.readString(), in.readString(), in.readString());
+        portfolio.setCreatedAt(readDate(in));
+
+        String[] strings = new String[in.readCount() + 1];
+        for (int i = 1; i < strings.length; i++) {
+            strings[i] = in.readString();
+        }
+
+        int assetCount = in.readCount();
+        List<Asset> assets = new ArrayList<>(assetCount);
+        for (int a = 0; a < assetCount; a++) {
+            String assetId = readId(in);
+            String ticker = strings[in.readRef(strings.length)];
+            String name = strings[in.readRef(strings.length)];
+            int type = in.readRef(ASSET_TYPES.length + 1);
+            Asset asset = new Asset(assetId, ticker, name, type > 0 ? ASSET_TYPES[type - 1] : null);
+
+            int count = in.readCount();
+            List<Transaction> transactions = new ArrayList<>(count);
+            long previousSecond = 0;
+            for (int i = 0; i < count; i++) {
+                int flags = in.readByte();
+                int typeBits = flags & TYPE_MASK;
+                if (typeBits > TRANSACTION_TYPES.length) throw new IOException("Invalid transaction type");
+                String transactionId = readId(in);
+                LocalDateTime date = null;
+                if ((flags & HAS_DATE) != 0) {
+                    previousSecond += unZigZag(in.readVarLong());
+                    date = LocalDateTime.ofEpochSecond(previousSecond, decodeNanos(in.readVarLong()), ZoneOffset.UTC);
+                }
+                double quantity = in.readDouble();
+                double price = in.readDouble();
+                double fees = (flags & HAS_FEES) != 0 ? in.readDouble() : 0;
+                String notes = (flags & HAS_NOTES) != 0 ? strings[in.readRef(strings.length)] : "";
+                transactions.add(new Transaction(transactionId, typeBits > 0 ? TRANSACTION_TYPES[typeBits - 1] : null,
+                        quantity, price, date, fees, notes));
+            }
+            asset.setTransactions(transactions);
+            assets.add(asset);
+        }
+        portfolio.setAssets(assets);
+        return portfolio;
+    }
+
+    @Override
+    public String getExtension() {
+        return "ptb";
+    }
+
+    private static int transactionCount(Portfolio portfolio) {
+        int count = 0;
+        for (Asset asset : portfolio.getAssets()) {
+            count += asset.getTransactions().size();
+        }
+        return count;
+    }
+
+    private static void intern(String s, Map<String, Integer> table, List<String> strings) {
+        if (s != null && !table.containsKey(s)) {
+            strings.add(s);
+            table.put(s, strings.size());
+        }
+    }
+
+    private static int ref(String s, Map<String, Integer> table) {
+        return s != null ? table.get(s) : 0;
+    }
+
+    private static void writeId(Output out, String id) {
+        // Only ids that print back identically are packed, so every id round-trips exactly
+        if (id != null && id.length() == 36) {
+            try {
+                UUID uuid = UUID.fromString(id);
+                if (uuid.toString().equals(id)) {
+                    out.writeByte(ID_UUID);
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                // Not a UUID after all; stored as a string below
+            }
+        }
+        out.writeByte(ID_STRING);
+        out.writeString(id);
+    }
+
+    private static String readId(Input in) throws IOException {
+        int kind = in.readByte();
+        if (kind == ID_UUID) {
+            return new UUID(in.readLong(), in.readLong()).toString();
+        } else if (kind == ID_STRING) {
+            return in.readString();
+        }
+        throw new IOException("Invalid id marker " + kind);
+    }
+
+    private static void writeDate(Output out, LocalDateTime date) {
+        if (date == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        out.writeVarLong(zigZag(date.toEpochSecond(ZoneOffset.UTC)));
+        out.writeVarLong(encodeNanos(date.getNano()));
+    }
+
+    private static LocalDateTime readDate(Input in) throws IOException {
+        if (in.readByte() == 0) return null;
+        long second = unZigZag(in.readVarLong());
+        return LocalDateTime.ofEpochSecond(second, decodeNanos(in.readVarLong()), ZoneOffset.UTC);
+    }
+
+    // Whole microseconds (what LocalDateTime.now() usually gives) take fewer bytes than nanos
+    private static long encodeNanos(int nanos) {
+        return nanos % 1000 == 0 ? (long) (nanos / 1000) << 1 : ((long) nanos << 1) | 1;
+    }
+
+    private static int decodeNanos(long encoded) throws IOException {
+        long nanos = (encoded & 1) != 0 ? encoded >>> 1 : (encoded >>> 1) * 1000;
+        if (nanos > 999_999_999L) throw new IOException("Invalid nanosecond value");
+        return (int) nanos;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[Math.max(64, capacity)];
+        }
+
+        void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeDouble(double value) {
+            writeLong(Double.doubleToRawLongBits(value));
+        }
+
+        // Length + 1 so that null (0) and "" (1) stay distinct
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            writeBytes(bytes);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        void writeTo(OutputStream stream) throws IOException {
+            stream.write(buffer, 0, size);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) throw new IOException("Unexpected end of portfolio data");
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        // A count that must fit in what is left of the data, so corrupt input cannot ask for huge arrays
+        int readCount() throws IOException {
+            long count = readVarLong();
+            if (count < 0 || count > data.length - position) throw new IOException("Invalid count " + count);
+            return (int) count;
+        }
+
+        int readRef(int limit) throws IOException {
+            long ref = readVarLong();
+            if (ref < 0 || ref >= limit) throw new IOException("Invalid reference " + ref);
+            return (int) ref;
+        }
+
+        long readLong() throws IOException {
+            if (position + 8 > data.length) throw new IOException("Unexpected end of portfolio data");
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0) return null;
+            length--;
+            if (length > data.length - position) throw new IOException("Invalid string length " + length);
+            String s = new String(data, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return s;
+        }
+    }
+}
@@ -1,30 +1,55 @@
 package com.portfoliotracker.service;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.portfoliotracker.util.BoundedCache;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class CacheService {
     private static CacheService instance;
     private final Gson gson;
     private static final String CACHE_PATH = "data/cache";
-    private final Map<String, Map<LocalDate, Double>> memoryCache;
+    private static final long FLUSH_INTERVAL_MS = 2_000;
+    private static final int FLUSH_THRESHOLD = 32;
+    private static final int MAX_CACHED_TICKERS = 256;
+
+    private final BoundedCache<String, Map<LocalDate, Double>> memoryCache;
+    // Holds the maps themselves so a ticker evicted from memory before its flush still gets written
+    private final Map<String, Map<LocalDate, Double>> pendingWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
 
     private CacheService() {
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-        this.memoryCache = new HashMap<>();
+        this.gson = new Gson();
+        this.memoryCache = new BoundedCache<>(MAX_CACHED_TICKERS, 0);
         ensureDirectoryExists();
+        
+        // Writes are batched on a background thread so price lookups never wait on the disk
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cache-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "cache-flush-on-exit"));
     }
 
     public static CacheService getInstance() {
@@ -43,19 +68,19 @@ public class CacheService {
     }
 
     public void cachePrice(String ticker, LocalDate date, double price) {
-        memoryCache.computeIfAbsent(ticker, k -> new HashMap<>()).put(date, price);
-        saveCacheToFile(ticker);
+        Map<LocalDate, Double> tickerCache = tickerCache(ticker);
+        tickerCache.put(date, price);
+        pendingWrites.put(ticker, tickerCache);
+        if (pendingWrites.size() >= FLUSH_THRESHOLD && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushQueued.set(false);
+                flush();
+            });
+        }
     }
 
     public Optional<Double> getCachedPrice(String ticker, LocalDate date) {
-        if (!memoryCache.containsKey(ticker)) {
-            loadCacheFromFile(ticker);
-        }
-        Map<LocalDate, Double> tickerCache = memoryCache.get(ticker);
-        if (tickerCache != null && tickerCache.containsKey(date)) {
-            return Optional.of(tickerCache.get(date));
-        }
-        return Optional.empty();
+        return Optional.ofNullable(tickerCache(ticker).get(date));
     }
 
     public boolean isCached(String ticker, LocalDate date) {
@@ -63,45 +88,80 @@ public class CacheService {
     }
 
     public void clearCache() {
+        flush();
         memoryCache.clear();
     }
 
-    private void saveCacheToFile(String ticker) {
-        String filename = CACHE_PATH + "/" + ticker.toLowerCase() + "_cache.json";
-        Map<LocalDate, Double> tickerCache = memoryCache.get(ticker);
-        if (tickerCache != null) {
-            Map<String, Double> stringKeyMap = new HashMap<>();
-            for (Map.Entry<LocalDate, Double> entry : tickerCache.entrySet()) {
-                stringKeyMap.put(entry.getKey().toString(), entry.getValue());
-            }
-            String json = gson.toJson(stringKeyMap);
+    // Writes every ticker changed since the last flush
+    public synchronized void flush() {
+        Iterator<Map.Entry<String, Map<LocalDate, Double>>> it = pendingWrites.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Map<LocalDate, Double>> entry = it.next();
+            it.remove();
+            saveCacheToFile(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    public String getCacheStats() {
+        return memoryCache.toString();
+    }
+
+    private Map<LocalDate, Double> tickerCache(String ticker) {
+        // Loaded before the first write too, otherwise the flush would drop the dates already on disk
+        Map<LocalDate, Double> pending = pendingWrites.get(ticker);
+        if (pending != null) {
+            return pending;
+        }
+        return memoryCache.get(ticker, this::loadCacheFromFile);
+    }
+
+    private Path cacheFile(String ticker) {
+        return Paths.get(CACHE_PATH, ticker.toLowerCase() + "_cache.json");
+    }
+
+    private void saveCacheToFile(String ticker, Map<LocalDate, Double> tickerCache) {
+        Map<String, Double> stringKeyMap = new TreeMap<>();
+        for (Map.Entry<LocalDate, Double> entry : tickerCache.entrySet()) {
+            stringKeyMap.put(entry.getKey().toString(), entry.getValue());
+        }
+        Path target = cacheFile(ticker);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, gson.toJson(stringKeyMap), StandardCharsets.UTF_8);
             try {
-                Files.writeString(Paths.get(filename), json, StandardCharsets.UTF_8);
-            } catch (IOException e) {
-                e.printStackTrace();
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
             }
+        } catch (IOException e) {
+            // Retried on the next flush
+            pendingWrites.putIfAbsent(ticker, tickerCache);
+            e.printStackTrace();
         }
     }
 
-    private void loadCacheFromFile(String ticker) {
-        String filename = CACHE_PATH + "/" + ticker.toLowerCase() + "_cache.json";
-        Path path = Paths.get(filename);
+    private Map<LocalDate, Double> loadCacheFromFile(String ticker) {
+        Map<LocalDate, Double> tickerCache = new ConcurrentHashMap<>();
+        Path path = cacheFile(ticker);
         if (Files.exists(path)) {
             try {
                 String json = Files.readString(path, StandardCharsets.UTF_8);
                 Type mapType = new TypeToken<Map<String, Double>>(){}.getType();
                 Map<String, Double> stringKeyMap = gson.fromJson(json, mapType);
                 
-                Map<LocalDate, Double> tickerCache = new HashMap<>();
                 if (stringKeyMap != null) {
                     for (Map.Entry<String, Double> entry : stringKeyMap.entrySet()) {
                         tickerCache.put(LocalDate.parse(entry.getKey()), entry.getValue());
                     }
                 }
-                memoryCache.put(ticker, tickerCache);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        return tickerCache;
     }
 }
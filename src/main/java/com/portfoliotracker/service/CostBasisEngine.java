@@ -0,0 +1,388 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.CostBasisMethod;
+import com.portfoliotracker.model.enums.TransactionType;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
+
+// Tracks purchase lots per asset and matches every sell against them in date order. Buy fees
+// are part of a lot's cost and sell fees come off the proceeds. Open lots live in a deque
+// (FIFO/LIFO/AVERAGE) or a heap on unit cost (HIFO), so matching a sell only touches the lots
+// it consumes. One ledger per asset and method is kept; appending a transaction that is not
+// older than the last one applies just that transaction, anything else replays the asset.
+public class CostBasisEngine {
+    private static CostBasisEngine instance;
+
+    private static final double EPSILON = 1e-12;
+    private static final Comparator<Transaction> BY_DATE =
+            Comparator.comparing(Transaction::getDate, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    // Guarded by this; keyed by identity so a dropped asset takes its ledgers with it
+    private final Map<Asset, Ledger[]> ledgers = new WeakHashMap<>();
+
+    private CostBasisEngine() {
+    }
+
+    public static CostBasisEngine getInstance() {
+        if (instance == null) {
+            instance = new CostBasisEngine();
+        }
+        return instance;
+    }
+
+    public synchronized Report getReport(Asset asset, CostBasisMethod method) {
+        return ledger(asset, method).report;
+    }
+
+    // Lots still held, oldest purchase first
+    public synchronized List<OpenLot> getOpenLots(Asset asset, CostBasisMethod method) {
+        Ledger ledger = ledger(asset, method);
+        List<OpenLot> open = new ArrayList<>(ledger.lotCount());
+        double averageCost = ledger.averageCost();
+        for (Lot lot : ledger.lots()) {
+            double unitCost = method == CostBasisMethod.AVERAGE ? averageCost : lot.unitCost;
+            open.add(new OpenLot(lot.date, lot.quantity, unitCost));
+        }
+        open.sort(Comparator.comparing(OpenLot::getDate, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return open;
+    }
+
+    private Ledger ledger(Asset asset, CostBasisMethod method) {
+        Ledger[] byMethod = ledgers.computeIfAbsent(asset, a -> new Ledger[CostBasisMethod.values().length]);
+        Ledger ledger = byMethod[method.ordinal()];
+        long version = asset.getVersion();
+        if (ledger != null && ledger.version == version) {
+            return ledger;
+        }
+        List<Transaction> transactions = asset.getTransactions();
+        if (ledger == null || !ledger.canExtend(asset, transactions)) {
+            ledger = new Ledger(method);
+            ledger.replay(transactions);
+            byMethod[method.ordinal()] = ledger;
+        } else {
+            ledger.extend(transactions);
+        }
+        ledger.version = version;
+        ledger.rewriteVersion = asset.getRewriteVersion();
+        ledger.report = ledger.snapshot();
+        return ledger;
+    }
+
+    private static class Lot {
+        final LocalDateTime date;
+        final double unitCost;
+        double quantity;
+
+        Lot(LocalDateTime date, double quantity, double unitCost) {
+            this.date = date;
+            this.quantity = quantity;
+            this.unitCost = unitCost;
+        }
+    }
+
+    private static class Ledger {
+        final CostBasisMethod method;
+        final ArrayDeque<Lot> queue = new ArrayDeque<>();
+        final PriorityQueue<Lot> byCost;
+        long version = -1;
+        long rewriteVersion;
+        int processed;
+        LocalDateTime lastDate;
+        double openQuantity;
+        double openCost;
+        double realizedPnL;
+        Report report;
+
+        // Realized matches, append-only so earlier reports can keep sharing the arrays
+        int realizedCount;
+        LocalDateTime[] buyDates = new LocalDateTime[16];
+        LocalDateTime[] sellDates = new LocalDateTime[16];
+        double[] quantities = new double[16];
+        double[] costs = new double[16];
+        double[] proceeds = new double[16];
+
+        Ledger(CostBasisMethod method) {
+            this.method = method;
+            this.byCost = method == CostBasisMethod.HIFO
+                    ? new PriorityQueue<>(Comparator.comparingDouble((Lot lot) -> lot.unitCost).reversed())
+                    : null;
+        }
+
+        // Only appends that keep the date order can be applied on top of the current state
+        boolean canExtend(Asset asset, List<Transaction> transactions) {
+            if (asset.getRewriteVersion() != rewriteVersion || transactions.size() < processed) return false;
+            LocalDateTime last = lastDate;
+            for (int i = processed; i < transactions.size(); i++) {
+                LocalDateTime date = transactions.get(i).getDate();
+                if (last != null && (date == null || date.isBefore(last))) return false;
+                if (date != null) last = date;
+            }
+            return true;
+        }
+
+        void replay(List<Transaction> transactions) {
+            Transaction[] ordered = transactions.toArray(new Transaction[0]);
+            if (!isSorted(ordered)) {
+                Arrays.sort(ordered, BY_DATE);
+            }
+            for (Transaction t : ordered) {
+                apply(t);
+            }
+            processed = ordered.length;
+        }
+
+        void extend(List<Transaction> transactions) {
+            for (int i = processed; i < transactions.size(); i++) {
+                apply(transactions.get(i));
+            }
+            processed = transactions.size();
+        }
+
+        private static boolean isSorted(Transaction[] transactions) {
+            for (int i = 1; i < transactions.length; i++) {
+                if (BY_DATE.compare(transactions[i - 1], transactions[i]) > 0) return false;
+            }
+            return true;
+        }
+
+        private void apply(Transaction t) {
+            if (t.getDate() != null) lastDate = t.getDate();
+            double quantity = t.getQuantity();
+            if (quantity <= 0) return;
+            if (t.getType() == TransactionType.BUY) {
+                open(t.getDate(), quantity, quantity * t.getPricePerUnit() + t.getFees());
+            } else if (t.getType() == TransactionType.REWARD) {
+                // Received for free; only a fee paid on it counts as cost
+                open(t.getDate(), quantity, t.getFees());
+            } else if (t.getType() == TransactionType.SELL) {
+                close(t, quantity);
+            }
+        }
+
+        private void open(LocalDateTime date, double quantity, double cost) {
+            Lot lot = new Lot(date, quantity, cost / quantity);
+            if (byCost != null) {
+                byCost.add(lot);
+            } else {
+                queue.addLast(lot);
+            }
+            openQuantity += quantity;
+            openCost += cost;
+        }
+
+        private void close(Transaction sell, double quantity) {
+            double netProceeds = quantity * sell.getPricePerUnit() - sell.getFees();
+            double remaining = quantity;
+            while (remaining > EPSILON) {
+                Lot lot = nextLot();
+                if (lot == null) {
+                    // Sold more than was ever bought; the excess has no cost basis
+                    record(null, sell.getDate(), remaining, 0, netProceeds * remaining / quantity);
+                    break;
+                }
+                double taken = Math.min(lot.quantity, remaining);
+                double unitCost = method == CostBasisMethod.AVERAGE ? averageCost() : lot.unitCost;
+                double cost = taken * unitCost;
+                record(lot.date, sell.getDate(), taken, cost, netProceeds * taken / quantity);
+                lot.quantity -= taken;
+                remaining -= taken;
+                openQuantity -= taken;
+                openCost -= cost;
+                if (lot.quantity <= EPSILON) {
+                    removeLot();
+                }
+            }
+            if (lotCount() == 0) {
+                // Clear rounding left over from the running sums
+                openQuantity = 0;
+                openCost = 0;
+            }
+        }
+
+        private Lot nextLot() {
+            if (byCost != null) return byCost.peek();
+            return method == CostBasisMethod.LIFO ? queue.peekLast() : queue.peekFirst();
+        }
+
+        private void removeLot() {
+            if (byCost != null) {
+                byCost.poll();
+            } else if (method == CostBasisMethod.LIFO) {
+                queue.pollLast();
+            } else {
+                queue.pollFirst();
+            }
+        }
+
+        int lotCount() {
+            return byCost != null ? byCost.size() : queue.size();
+        }
+
+        Iterable<Lot> lots() {
+            return byCost != null ? byCost : queue;
+        }
+
+        double averageCost() {
+            return openQuantity > EPSILON ? openCost / openQuantity : 0;
+        }
+
+        private void record(LocalDateTime buyDate, LocalDateTime sellDate, double quantity, double cost, double proceedsShare) {
+            if (realizedCount == quantities.length) {
+                int capacity = realizedCount * 2;
+                // New arrays, so reports handed out earlier keep the ones they reference
+                buyDates = Arrays.copyOf(buyDates, capacity);
+                sellDates = Arrays.copyOf(sellDates, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                costs = Arrays.copyOf(costs, capacity);
+                proceeds = Arrays.copyOf(proceeds, capacity);
+            }
+            buyDates[realizedCount] = buyDate;
+            sellDates[realizedCount] = sellDate;
+            quantities[realizedCount] = quantity;
+            costs[realizedCount] = cost;
+            proceeds[realizedCount] = proceedsShare;
+            realizedCount++;
+            realizedPnL += proceedsShare - cost;
+        }
+
+        Report snapshot() {
+            return new Report(method, openQuantity, openCost, realizedPnL, realizedCount,
+                    buyDates, sellDates, quantities, costs, proceeds);
+        }
+    }
+
+    // Totals of one asset under one method, plus every realized match (one per lot a sell
+    // consumed). Immutable: later transactions produce a new report.
+    public static class Report {
+        private final CostBasisMethod method;
+        private final double openQuantity;
+        private final double openCost;
+        private final double realizedPnL;
+        private final int realizedCount;
+        private final LocalDateTime[] buyDates;
+        private final LocalDateTime[] sellDates;
+        private final double[] quantities;
+        private final double[] costs;
+        private final double[] proceeds;
+
+        Report(CostBasisMethod method, double openQuantity, double openCost, double realizedPnL, int realizedCount,
+               LocalDateTime[] buyDates, LocalDateTime[] sellDates, double[] quantities, double[] costs, double[] proceeds) {
+            this.method = method;
+            this.openQuantity = openQuantity;
+            this.openCost = openCost;
+            this.realizedPnL = realizedPnL;
+            this.realizedCount = realizedCount;
+            this.buyDates = buyDates;
+            this.sellDates = sellDates;
+            this.quantities = quantities;
+            this.costs = costs;
+            this.proceeds = proceeds;
+        }
+
+        public CostBasisMethod getMethod() {
+            return method;
+        }
+
+        public double getOpenQuantity() {
+            return openQuantity;
+        }
+
+        public double getOpenCost() {
+            return openCost;
+        }
+
+        public double getAverageCost() {
+            return openQuantity > EPSILON ? openCost / openQuantity : 0;
+        }
+
+        public double getRealizedPnL() {
+            return realizedPnL;
+        }
+
+        public double getUnrealizedPnL(double price) {
+            return openQuantity * price - openCost;
+        }
+
+        public int getRealizedCount() {
+            return realizedCount;
+        }
+
+        // Null when the sell had no matching purchase
+        public LocalDateTime getRealizedBuyDate(int index) {
+            checkIndex(index);
+            return buyDates[index];
+        }
+
+        public LocalDateTime getRealizedSellDate(int index) {
+            checkIndex(index);
+            return sellDates[index];
+        }
+
+        public double getRealizedQuantity(int index) {
+            checkIndex(index);
+            return quantities[index];
+        }
+
+        public double getRealizedCost(int index) {
+            checkIndex(index);
+            return costs[index];
+        }
+
+        public double getRealizedProceeds(int index) {
+            checkIndex(index);
+            return proceeds[index];
+        }
+
+        public double getRealizedPnL(int index) {
+            return getRealizedProceeds(index) - getRealizedCost(index);
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= realizedCount) {
+                throw new IndexOutOfBoundsException("index " + index + " of " + realizedCount);
+            }
+        }
+    }
+
+    public static class OpenLot {
+        private final LocalDateTime date;
+        private final double quantity;
+        private final double unitCost;
+
+        OpenLot(LocalDateTime date, double quantity, double unitCost) {
+            this.date = date;
+            this.quantity = quantity;
+            this.unitCost = unitCost;
+        }
+
+        public LocalDateTime getDate() {
+            return date;
+        }
+
+        public double getQuantity() {
+            return quantity;
+        }
+
+        public double getUnitCost() {
+            return unitCost;
+        }
+
+        public double getCost() {
+            return quantity * unitCost;
+        }
+
+        public double getUnrealizedPnL(double price) {
+            return quantity * (price - unitCost);
+        }
+    }
+}
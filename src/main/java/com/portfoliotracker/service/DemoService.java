@@ -3,8 +3,10 @@ package com.portfoliotracker.service;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.portfoliotracker.model.Asset;
 import com.portfoliotracker.model.Event;
 import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.enums.AssetType;
 import com.portfoliotracker.util.LocalDateTimeAdapter;
 
 import java.io.InputStream;
@@ -14,6 +16,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -41,10 +44,11 @@ public class DemoService {
     public List<Portfolio> loadDemoData() {
         List<Portfolio> portfolios = loadDemoPortfolios();
         loadDemoEvents();
-        loadDemoCache();
+        loadDemoCache(portfolios);
         
+        PortfolioRepository repository = PortfolioRepository.getInstance();
         for (Portfolio portfolio : portfolios) {
-            persistenceService.savePortfolio(portfolio);
+            repository.save(portfolio);
         }
         
         return portfolios;
@@ -98,7 +102,7 @@ public class DemoService {
     }
 
     @SuppressWarnings("unchecked")
-    private void loadDemoCache() {
+    private void loadDemoCache(List<Portfolio> portfolios) {
         try {
             InputStream is = getClass().getResourceAsStream("/demo/demo-cache.json");
             if (is == null) {
@@ -116,12 +120,19 @@ public class DemoService {
                 LocalDate today = LocalDate.now();
                 
                 if (prices != null) {
+                    // The cache file lists tickers only; the demo assets tell whether each is a stock or a coin
+                    Map<String, AssetType> types = new HashMap<>();
+                    for (Portfolio portfolio : portfolios) {
+                        for (Asset asset : portfolio.getAssets()) {
+                            types.put(asset.getTicker().toUpperCase(), asset.getType());
+                        }
+                    }
                     for (Map.Entry<String, Map<String, Double>> entry : prices.entrySet()) {
-                        String ticker = entry.getKey();
-                        Map<String, Double> currencyPrices = entry.getValue();
-                        Double eurPrice = currencyPrices.get("EUR");
-                        if (eurPrice != null) {
-                            cacheService.cachePrice(ticker, today, eurPrice);
+                        AssetType type = types.get(entry.getKey().toUpperCase());
+                        if (type == null) continue;
+                        for (Map.Entry<String, Double> price : entry.getValue().entrySet()) {
+                            String key = MarketDataService.diskKey(entry.getKey(), type, price.getKey());
+                            cacheService.cachePrice(key, today, price.getValue());
                         }
                     }
                 }
@@ -133,7 +144,7 @@ public class DemoService {
     }
 
     public boolean isDemoLoaded() {
-        List<Portfolio> portfolios = persistenceService.loadAllPortfolios();
+        List<Portfolio> portfolios = PortfolioRepository.getInstance().getAll();
         return portfolios.stream().anyMatch(p -> p.getId().startsWith("demo-"));
     }
 }
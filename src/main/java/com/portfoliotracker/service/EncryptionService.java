@@ -1,10 +1,56 @@
 package com.portfoliotracker.service;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// AES-256-GCM over a key derived from the passphrase with PBKDF2. Data is encrypted in chunks of
+// 64 KiB that are each authenticated, so files are encrypted and decrypted as streams and any
+// change to the ciphertext is detected. Layout: "PTE" + version, PBKDF2 iterations, salt and a
+// random nonce prefix, then the chunks as [final flag][length][ciphertext + tag]. A chunk's nonce is
+// the prefix plus its index and the final flag is authenticated, so chunks cannot be reordered,
+// dropped or cut off at the end. Data without the header is rejected; only the migration of old
+// JSON snapshots reads it as the old XOR format, through decryptingLegacyStream.
 public class EncryptionService {
     private static EncryptionService instance;
     private String passphrase;
     private boolean enabled;
 
+    private static final byte[] MAGIC = {'P', 'T', 'E', 1};
+    private static final int ITERATIONS = 310_000;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_LENGTH = TAG_BITS / 8;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Largest iteration count accepted from a file, so a corrupt header cannot stall the app
+    private static final int MAX_ITERATIONS = 10_000_000;
+
+    private final SecureRandom random = new SecureRandom();
+    // Derivation takes a noticeable fraction of a second, so each key is derived once per session
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    private volatile byte[] salt;
+
     private EncryptionService() {
         this.enabled = false;
     }
@@ -17,27 +63,331 @@ public class EncryptionService {
     }
 
     public byte[] encrypt(byte[] data, String passphrase) {
-        return codeDecode(data, passphrase.getBytes());
+        checkPassphrase(passphrase);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 64 + data.length / CHUNK_SIZE * 32);
+        try {
+            EncryptingOutputStream stream = encryptingStream(out, passphrase);
+            stream.write(data);
+            stream.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException("Encryption failed", e);
+        }
+        return out.toByteArray();
     }
 
     public byte[] decrypt(byte[] data, String passphrase) {
-        return codeDecode(data, passphrase.getBytes());
+        checkPassphrase(passphrase);
+        try {
+            return decryptingStream(new ByteArrayInputStream(data), passphrase).readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot decrypt data: " + e.getMessage(), e);
+        }
+    }
+
+    // Everything written is encrypted to out; finish() must be called to write the last chunk
+    public EncryptingOutputStream encryptingStream(OutputStream out, String passphrase) throws IOException {
+        checkPassphrase(passphrase);
+        byte[] salt = getSalt();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        random.nextBytes(noncePrefix);
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeInt(ITERATIONS);
+        header.writeByte(salt.length);
+        header.write(salt);
+        header.write(noncePrefix);
+        return new EncryptingOutputStream(out, key(passphrase, salt, ITERATIONS), noncePrefix);
+    }
+
+    // Reads the header right away; anything without it is unauthenticated and refused
+    public InputStream decryptingStream(InputStream in, String passphrase) throws IOException {
+        checkPassphrase(passphrase);
+        if (!isCurrentFormat(in.readNBytes(MAGIC.length))) {
+            throw new IOException("Data is not in the current encryption format");
+        }
+        return openChunks(in, passphrase);
+    }
+
+    // Only for migrating snapshots written before AES-GCM: header-less data is decrypted as XOR,
+    // which cannot detect tampering, so nothing else may read through this
+    public InputStream decryptingLegacyStream(InputStream in, String passphrase) throws IOException {
+        checkPassphrase(passphrase);
+        InputStream source = in.markSupported() ? in : new BufferedInputStream(in);
+        source.mark(MAGIC.length);
+        if (!isCurrentFormat(source.readNBytes(MAGIC.length))) {
+            source.reset();
+            return new LegacyInputStream(source, passphrase.getBytes());
+        }
+        return openChunks(source, passphrase);
+    }
+
+    private InputStream openChunks(InputStream source, String passphrase) throws IOException {
+        DataInputStream header = new DataInputStream(source);
+        int iterations = header.readInt();
+        int saltLength = header.readUnsignedByte();
+        if (iterations <= 0 || iterations > MAX_ITERATIONS || saltLength == 0) {
+            throw new IOException("Invalid encryption header");
+        }
+        byte[] salt = new byte[saltLength];
+        header.readFully(salt);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        header.readFully(noncePrefix);
+        return new DecryptingInputStream(source, key(passphrase, salt, iterations), noncePrefix);
+    }
+
+    // False for data written by the old XOR scheme, which should be encrypted again
+    public boolean isCurrentFormat(byte[] start) {
+        return start.length >= MAGIC.length && Arrays.equals(start, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    // Salt used for new data; kept across sessions so the key is derived only once per run
+    public byte[] getSalt() {
+        byte[] current = salt;
+        if (current == null) {
+            synchronized (this) {
+                if (salt == null) {
+                    byte[] generated = new byte[SALT_LENGTH];
+                    random.nextBytes(generated);
+                    salt = generated;
+                }
+                current = salt;
+            }
+        }
+        return current.clone();
+    }
+
+    public void setSalt(byte[] salt) {
+        this.salt = salt != null && salt.length > 0 ? salt.clone() : null;
+    }
+
+    private SecretKey key(String passphrase, byte[] salt, int iterations) throws IOException {
+        String cacheKey = iterations + ":" + Base64.getEncoder().encodeToString(salt) + ":" + passphrase;
+        try {
+            return keys.computeIfAbsent(cacheKey, k -> deriveKey(passphrase, salt, iterations));
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
     }
 
-    private byte[] codeDecode(byte[] input, byte[] secret) {
-        byte[] output = new byte[input.length];
-        if (secret.length == 0) {
+    private static SecretKey deriveKey(String passphrase, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(passphrase.toCharArray(), salt, iterations, 256);
+        try {
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Key derivation failed", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static Cipher chunkCipher(int mode, SecretKey key, byte[] noncePrefix, int index, boolean last)
+            throws IOException {
+        byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_PREFIX_LENGTH + 4);
+        nonce[NONCE_PREFIX_LENGTH] = (byte) (index >>> 24);
+        nonce[NONCE_PREFIX_LENGTH + 1] = (byte) (index >>> 16);
+        nonce[NONCE_PREFIX_LENGTH + 2] = (byte) (index >>> 8);
+        nonce[NONCE_PREFIX_LENGTH + 3] = (byte) index;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cipher setup failed", e);
+        }
+    }
+
+    private static void checkPassphrase(String passphrase) {
+        if (passphrase == null || passphrase.isEmpty()) {
             throw new IllegalArgumentException("Empty security key");
         }
-        int spos = 0;
-        for (int pos = 0; pos < input.length; pos++) {
-            output[pos] = (byte) (input[pos] ^ secret[spos]);
-            spos++;
-            if (spos >= secret.length) {
-                spos = 0;
+    }
+
+    // Like DeflaterOutputStream: finish() completes the data and leaves the underlying stream open,
+    // close() finishes and closes it
+    public static class EncryptingOutputStream extends FilterOutputStream {
+        private final SecretKey key;
+        private final byte[] noncePrefix;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int buffered;
+        private int index;
+        private boolean finished;
+
+        private EncryptingOutputStream(OutputStream out, SecretKey key, byte[] noncePrefix) {
+            super(out);
+            this.key = key;
+            this.noncePrefix = noncePrefix;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) throw new IOException("Encrypted stream already finished");
+            while (len > 0) {
+                // A full chunk is only sealed once more data arrives, since the last one is marked final
+                if (buffered == CHUNK_SIZE) {
+                    writeChunk(false);
+                }
+                int n = Math.min(len, CHUNK_SIZE - buffered);
+                System.arraycopy(b, off, chunk, buffered, n);
+                buffered += n;
+                off += n;
+                len -= n;
             }
         }
-        return output;
+
+        public void finish() throws IOException {
+            if (finished) return;
+            writeChunk(true);
+            finished = true;
+            out.flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            out.close();
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            byte[] sealed;
+            try {
+                sealed = chunkCipher(Cipher.ENCRYPT_MODE, key, noncePrefix, index++, last).doFinal(chunk, 0, buffered);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Encryption failed", e);
+            }
+            out.write(last ? 1 : 0);
+            out.write(sealed.length >>> 24);
+            out.write(sealed.length >>> 16);
+            out.write(sealed.length >>> 8);
+            out.write(sealed.length);
+            out.write(sealed);
+            buffered = 0;
+        }
+    }
+
+    private static class DecryptingInputStream extends FilterInputStream {
+        private final DataInputStream source;
+        private final SecretKey key;
+        private final byte[] noncePrefix;
+        private final byte[] sealed = new byte[CHUNK_SIZE + TAG_LENGTH];
+        private byte[] chunk = new byte[0];
+        private int position;
+        private int index;
+        private boolean finished;
+
+        private DecryptingInputStream(InputStream in, SecretKey key, byte[] noncePrefix) {
+            super(in);
+            this.source = new DataInputStream(in);
+            this.key = key;
+            this.noncePrefix = noncePrefix;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (position == chunk.length) {
+                if (finished) return -1;
+                readChunk();
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return readNBytes((int) Math.min(n, Integer.MAX_VALUE)).length;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - position;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void readChunk() throws IOException {
+            boolean last;
+            int length;
+            try {
+                last = source.readUnsignedByte() == 1;
+                length = source.readInt();
+            } catch (EOFException e) {
+                throw new IOException("Encrypted data is truncated");
+            }
+            if (length < TAG_LENGTH || length > sealed.length) {
+                throw new IOException("Invalid encrypted chunk");
+            }
+            source.readFully(sealed, 0, length);
+            try {
+                chunk = chunkCipher(Cipher.DECRYPT_MODE, key, noncePrefix, index++, last).doFinal(sealed, 0, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Wrong passphrase or corrupted data");
+            }
+            position = 0;
+            if (last) {
+                finished = true;
+                if (source.read() != -1) throw new IOException("Unexpected data after the encrypted content");
+            }
+        }
+    }
+
+    // The original repeating-key XOR, only read for migration
+    private static class LegacyInputStream extends FilterInputStream {
+        private final byte[] secret;
+        private long position;
+
+        private LegacyInputStream(InputStream in, byte[] secret) {
+            super(in);
+            this.secret = secret;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b == -1) return -1;
+            return (b ^ secret[(int) (position++ % secret.length)]) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            for (int i = 0; i < n; i++) {
+                b[off + i] ^= secret[(int) (position++ % secret.length)];
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return readNBytes((int) Math.min(n, Integer.MAX_VALUE)).length;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 
     public boolean isEncryptionEnabled() {
@@ -55,5 +405,7 @@ public class EncryptionService {
     public void setPassphrase(String passphrase) {
         this.passphrase = passphrase;
         this.enabled = passphrase != null && !passphrase.isEmpty();
+        // Keys of a previous passphrase are not needed any more
+        keys.clear();
     }
 }
@@ -0,0 +1,64 @@
+package com.portfoliotracker.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.util.LocalDateTimeAdapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+// The original pretty-printed Gson format; still read for migration and used for exports
+public class JsonPortfolioCodec implements PortfolioCodec {
+    private final Gson gson;
+
+    public JsonPortfolioCodec() {
+        this.gson = new GsonBuilder()
+                .setPrettyPrinting()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+    }
+
+    @Override
+    public byte[] encode(Portfolio portfolio) {
+        return gson.toJson(portfolio).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Portfolio decode(byte[] data) throws IOException {
+        try {
+            return gson.fromJson(new String(data, StandardCharsets.UTF_8), Portfolio.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid portfolio JSON", e);
+        }
+    }
+
+    // Large portfolios are written and parsed without the whole JSON text in memory
+    @Override
+    public void encode(Portfolio portfolio, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        gson.toJson(portfolio, Portfolio.class, writer);
+        writer.flush();
+    }
+
+    @Override
+    public Portfolio decode(InputStream in) throws IOException {
+        try {
+            return gson.fromJson(new InputStreamReader(in, StandardCharsets.UTF_8), Portfolio.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid portfolio JSON", e);
+        }
+    }
+
+    @Override
+    public String getExtension() {
+        return "json";
+    }
+}
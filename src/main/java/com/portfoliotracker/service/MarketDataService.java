@@ -2,16 +2,30 @@ package com.portfoliotracker.service;
 
 import com.portfoliotracker.api.CoinGeckoClient;
 import com.portfoliotracker.api.ExchangeRateClient;
+import com.portfoliotracker.api.HttpTransport;
 import com.portfoliotracker.api.YahooFinanceClient;
+import com.portfoliotracker.model.AssetKey;
 import com.portfoliotracker.model.PricePoint;
+import com.portfoliotracker.model.PriceQuote;
+import com.portfoliotracker.model.PriceSeries;
 import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.util.BoundedCache;
+import com.portfoliotracker.util.SingleFlight;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MarketDataService {
     private static MarketDataService instance;
@@ -19,14 +33,29 @@ public class MarketDataService {
     private final YahooFinanceClient yahooClient;
     private final ExchangeRateClient exchangeClient;
     private final CacheService cacheService;
+    private final PriceHistoryStore historyStore;
+    private final BackgroundExecutor backgroundExecutor = BackgroundExecutor.getInstance();
     
-    private final Map<String, CachedPrice> priceCache = new ConcurrentHashMap<>();
-    private final Map<String, CachedHistory> historyCache = new ConcurrentHashMap<>();
+    // No TTL here: entries past PRICE_CACHE_TTL are still served as stale until priceHardExpiry
+    private final BoundedCache<String, CachedPrice> priceCache = new BoundedCache<>(MAX_CACHED_PRICES, 0);
+    // Weighed by candle count; entries outlive their sync so a stale series can still be topped up
+    private final BoundedCache<String, CachedHistory> historyCache =
+            new BoundedCache<>(MAX_CACHED_CANDLES, HISTORY_RETENTION, cached -> cached.series.size() + 1);
+    private final SingleFlight<Double> priceFlight = new SingleFlight<>();
+    private final SingleFlight<PriceSeries> historyFlight = new SingleFlight<>();
+    // Moves whenever a cached price changes, so derived results can tell they are out of date
+    private final AtomicLong priceEpoch = new AtomicLong();
     
     private static final long PRICE_CACHE_TTL = 60_000;
+    private static final long DEFAULT_PRICE_HARD_EXPIRY = 900_000;
     private static final long HISTORY_CACHE_TTL = 300_000;
+    private static final long HISTORY_RETENTION = 3_600_000;
+    private static final int MAX_CACHED_PRICES = 2_000;
+    private static final int MAX_CACHED_CANDLES = 200_000;
+    private static final long DAY_MILLIS = 86_400_000L;
     
     private String referenceCurrency = "EUR";
+    private volatile long priceHardExpiry = DEFAULT_PRICE_HARD_EXPIRY;
     
     private static final Map<String, String> TICKER_TO_COINGECKO = new HashMap<>();
     
@@ -44,10 +73,12 @@ public class MarketDataService {
     }
 
     private MarketDataService() {
-        this.coinGeckoClient = new CoinGeckoClient();
-        this.yahooClient = new YahooFinanceClient();
-        this.exchangeClient = new ExchangeRateClient();
+        HttpTransport transport = HttpTransport.getInstance();
+        this.exchangeClient = new ExchangeRateClient(transport);
+        this.coinGeckoClient = new CoinGeckoClient(transport, exchangeClient);
+        this.yahooClient = new YahooFinanceClient(transport);
         this.cacheService = CacheService.getInstance();
+        this.historyStore = PriceHistoryStore.getInstance();
     }
 
     public static MarketDataService getInstance() {
@@ -58,23 +89,92 @@ public class MarketDataService {
     }
 
     public double getPrice(String ticker, AssetType type, String currency) {
-        String cacheKey = ticker.toUpperCase() + "_" + currency.toUpperCase();
+        return getPriceQuote(ticker, type, currency).getPrice();
+    }
+    
+    // Stale-while-revalidate: a price past its TTL but within the hard expiry is returned
+    // straight away and refreshed in the background. Only a missing or hard-expired price
+    // waits on the network, and a failed fetch falls back to the last known price.
+    public PriceQuote getPriceQuote(String ticker, AssetType type, String currency) {
+        String cacheKey = priceKey(ticker, type, currency);
         
-        CachedPrice cached = priceCache.get(cacheKey);
-        if (cached != null && !cached.isExpired()) {
-            return cached.price;
+        PriceQuote cached = getCachedQuote(ticker, type, currency);
+        if (cached != null && !cached.isStale()) {
+            return cached;
+        }
+        if (cached != null && cached.getAgeMillis() <= priceHardExpiry) {
+            refreshPrice(ticker, type, currency);
+            return cached;
         }
         
-        // Only use disk cache for USD prices since disk cache doesn't store currency
-        LocalDate today = LocalDate.now();
-        if (currency.equalsIgnoreCase("USD")) {
-            Optional<Double> diskCached = cacheService.getCachedPrice(ticker, today);
-            if (diskCached.isPresent()) {
-                priceCache.put(cacheKey, new CachedPrice(diskCached.get()));
-                return diskCached.get();
+        double price = priceFlight.execute(cacheKey, () -> {
+            // A flight that finished just before we claimed the key may already have cached it
+            PriceQuote raced = getCachedQuote(ticker, type, currency);
+            return raced != null && !raced.isStale() ? raced.getPrice() : fetchPrice(ticker, type, currency);
+        });
+        if (price > 0) {
+            return PriceQuote.fresh(price);
+        }
+        return cached != null ? cached : PriceQuote.unavailable();
+    }
+    
+    public CompletableFuture<Double> getPriceAsync(String ticker, AssetType type, String currency) {
+        String cacheKey = priceKey(ticker, type, currency);
+        
+        PriceQuote cached = getCachedQuote(ticker, type, currency);
+        if (cached != null && (!cached.isStale() || cached.getAgeMillis() <= priceHardExpiry)) {
+            if (cached.isStale()) {
+                refreshPrice(ticker, type, currency);
             }
+            return CompletableFuture.completedFuture(cached.getPrice());
         }
+        return priceFlight.executeAsync(cacheKey, () -> fetchPriceAsync(ticker, type, currency))
+                .thenApply(price -> price > 0 || cached == null ? price : cached.getPrice());
+    }
+    
+    private void refreshPrice(String ticker, AssetType type, String currency) {
+        String cacheKey = priceKey(ticker, type, currency);
+        // Joins a refresh already in flight instead of starting another
+        priceFlight.executeAsync(cacheKey, () -> fetchPriceAsync(ticker, type, currency));
+    }
+    
+    // A stock and a coin can share a ticker, so the type is part of every price key
+    private static String priceKey(String ticker, AssetType type, String currency) {
+        return ticker.toUpperCase() + "_" + type + "_" + currency.toUpperCase();
+    }
 
+    // Key of the daily price in the disk cache; also used by the demo data to seed it.
+    // USD prices keep the key they had before other currencies were cached.
+    static String diskKey(String ticker, AssetType type, String currency) {
+        String key = ticker.toUpperCase() + "_" + type;
+        return currency.equalsIgnoreCase("USD") ? key : key + "_" + currency.toUpperCase();
+    }
+
+    // Any cached price, however old; the caller decides whether it is still usable
+    private PriceQuote getCachedQuote(String ticker, AssetType type, String currency) {
+        String cacheKey = priceKey(ticker, type, currency);
+        CachedPrice cached = priceCache.get(cacheKey);
+        if (cached != null) {
+            return cached.toQuote();
+        }
+        
+        Optional<Double> diskCached = cacheService.getCachedPrice(diskKey(ticker, type, currency), LocalDate.now());
+        if (diskCached.isEmpty() && currency.equalsIgnoreCase("USD")) {
+            // Today's USD price from before the key had the type. It may be the other asset's
+            // with this ticker, but like any disk price it is only served until a refresh lands.
+            diskCached = cacheService.getCachedPrice(ticker.toUpperCase(), LocalDate.now());
+        }
+        if (diskCached.isPresent()) {
+            // Only the day is known, so serve it as stale and let a refresh replace it
+            CachedPrice fromDisk = new CachedPrice(diskCached.get(), System.currentTimeMillis() - PRICE_CACHE_TTL - 1);
+            priceCache.put(cacheKey, fromDisk);
+            priceEpoch.incrementAndGet();
+            return fromDisk.toQuote();
+        }
+        return null;
+    }
+    
+    private double fetchPrice(String ticker, AssetType type, String currency) {
         double price = 0;
         if (type == AssetType.CRYPTO) {
             String coinId = TICKER_TO_COINGECKO.getOrDefault(ticker.toUpperCase(), ticker.toLowerCase());
@@ -85,44 +185,279 @@ public class MarketDataService {
                 price = exchangeClient.convert(price, "USD", currency);
             }
         }
-
+        storePrice(ticker, type, currency, price);
+        return price;
+    }
+    
+    private CompletableFuture<Double> fetchPriceAsync(String ticker, AssetType type, String currency) {
+        CompletableFuture<Double> price;
+        if (type == AssetType.CRYPTO) {
+            price = coinGeckoClient.getCurrentPriceAsync(getCoinGeckoId(ticker), currency);
+        } else {
+            price = yahooClient.getCurrentPriceAsync(ticker).thenCompose(usdPrice -> {
+                if (usdPrice > 0 && !currency.equalsIgnoreCase("USD")) {
+                    return exchangeClient.convertAsync(usdPrice, "USD", currency);
+                }
+                return CompletableFuture.completedFuture(usdPrice);
+            });
+        }
+        return price.thenApply(p -> {
+            storePrice(ticker, type, currency, p);
+            return p;
+        });
+    }
+    
+    private void storePrice(String ticker, AssetType type, String currency, double price) {
         if (price > 0) {
-            // Only cache USD prices to disk
-            if (currency.equalsIgnoreCase("USD")) {
-                cacheService.cachePrice(ticker, today, price);
+            cacheService.cachePrice(diskKey(ticker, type, currency), LocalDate.now(), price);
+            boolean[] changed = {false};
+            priceCache.compute(priceKey(ticker, type, currency), (key, previous) -> {
+                changed[0] = previous == null || previous.price != price;
+                return new CachedPrice(price, System.currentTimeMillis());
+            });
+            if (changed[0]) {
+                priceEpoch.incrementAndGet();
             }
-            priceCache.put(cacheKey, new CachedPrice(price));
         }
-        return price;
     }
 
-    public List<PricePoint> getPriceHistory(String ticker, AssetType type, String currency, int days) {
-        String cacheKey = ticker.toUpperCase() + "_" + currency.toUpperCase() + "_" + days;
+    public Map<AssetKey, Double> getPrices(Collection<AssetKey> keys, String currency) {
+        Map<AssetKey, Double> prices = new HashMap<>();
+        Set<AssetKey> misses = new LinkedHashSet<>();
+        List<AssetKey> stale = new ArrayList<>();
         
-        CachedHistory cached = historyCache.get(cacheKey);
-        if (cached != null && !cached.isExpired()) {
-            return cached.history;
+        for (AssetKey key : keys) {
+            if (prices.containsKey(key) || misses.contains(key)) continue;
+            
+            PriceQuote cached = getCachedQuote(key.getTicker(), key.getType(), currency);
+            if (cached != null && cached.getAgeMillis() <= priceHardExpiry) {
+                prices.put(key, cached.getPrice());
+                if (cached.isStale()) {
+                    stale.add(key);
+                }
+            } else {
+                misses.add(key);
+            }
         }
         
-        List<PricePoint> history;
-        if (type == AssetType.CRYPTO) {
-            String coinId = TICKER_TO_COINGECKO.getOrDefault(ticker.toUpperCase(), ticker.toLowerCase());
-            history = coinGeckoClient.getPriceHistory(coinId, currency, days);
-        } else {
-            history = yahooClient.getPriceHistory(ticker, days);
-            if (history != null && !history.isEmpty() && !currency.equalsIgnoreCase("USD")) {
-                double rate = exchangeClient.getRate("USD", currency);
-                for (PricePoint point : history) {
-                    point.setPrice(point.getPrice() * rate);
+        prices.putAll(loadPrices(misses, currency));
+        if (!stale.isEmpty()) {
+            backgroundExecutor.submit("price-refresh", new FutureTask<Void>(() -> loadPrices(stale, currency), null));
+        }
+        return prices;
+    }
+    
+    private Map<AssetKey, Double> loadPrices(Collection<AssetKey> keys, String currency) {
+        Map<AssetKey, Double> prices = new HashMap<>();
+        Map<AssetKey, SingleFlight.Flight<Double>> owned = new LinkedHashMap<>();
+        Map<AssetKey, SingleFlight.Flight<Double>> joined = new LinkedHashMap<>();
+        List<String> cryptoMisses = new ArrayList<>();
+        List<String> stockMisses = new ArrayList<>();
+        
+        for (AssetKey key : keys) {
+            SingleFlight.Flight<Double> flight = priceFlight.claim(priceKey(key.getTicker(), key.getType(), currency));
+            if (!flight.isOwner()) {
+                joined.put(key, flight);
+                continue;
+            }
+            owned.put(key, flight);
+            if (key.getType() == AssetType.CRYPTO) {
+                cryptoMisses.add(key.getTicker());
+            } else {
+                stockMisses.add(key.getTicker());
+            }
+        }
+        
+        if (!owned.isEmpty()) {
+            Map<String, Double> cryptoPrices = new HashMap<>();
+            Map<String, Double> stockPrices = new HashMap<>();
+            try {
+                fetchPrices(cryptoMisses, stockMisses, currency, cryptoPrices, stockPrices);
+            } finally {
+                for (Map.Entry<AssetKey, SingleFlight.Flight<Double>> entry : owned.entrySet()) {
+                    AssetKey key = entry.getKey();
+                    Map<String, Double> fetched = key.getType() == AssetType.CRYPTO ? cryptoPrices : stockPrices;
+                    double price = fetched.getOrDefault(key.getTicker(), 0.0);
+                    storePrice(key.getTicker(), key.getType(), currency, price);
+                    priceFlight.complete(priceKey(key.getTicker(), key.getType(), currency), entry.getValue(), price);
+                    prices.put(key, lastKnownIfMissing(key, currency, price));
                 }
             }
         }
         
-        if (history != null && !history.isEmpty()) {
-            historyCache.put(cacheKey, new CachedHistory(history));
+        for (Map.Entry<AssetKey, SingleFlight.Flight<Double>> entry : joined.entrySet()) {
+            Double price;
+            try {
+                price = priceFlight.await(entry.getValue());
+            } catch (RuntimeException e) {
+                price = null;
+            }
+            prices.put(entry.getKey(), lastKnownIfMissing(entry.getKey(), currency, price != null ? price : 0.0));
+        }
+        return prices;
+    }
+    
+    // A failed fetch must not turn a known price into 0 and wipe the portfolio value
+    private double lastKnownIfMissing(AssetKey key, String currency, double price) {
+        if (price > 0) return price;
+        PriceQuote cached = getCachedQuote(key.getTicker(), key.getType(), currency);
+        return cached != null ? cached.getPrice() : 0.0;
+    }
+    
+    // Fills one map per asset kind, so a coin and a stock with the same ticker stay apart
+    private void fetchPrices(List<String> cryptoTickers, List<String> stockTickers, String currency,
+                             Map<String, Double> cryptoPrices, Map<String, Double> stockPrices) {
+        if (!cryptoTickers.isEmpty()) {
+            Map<String, String> coinIdToTicker = new HashMap<>();
+            for (String ticker : cryptoTickers) {
+                coinIdToTicker.put(getCoinGeckoId(ticker), ticker);
+            }
+            Map<String, Double> byCoinId = coinGeckoClient.getCurrentPricesUsd(coinIdToTicker.keySet());
+            for (Map.Entry<String, Double> entry : byCoinId.entrySet()) {
+                cryptoPrices.put(coinIdToTicker.get(entry.getKey()), entry.getValue());
+            }
+        }
+        if (!stockTickers.isEmpty()) {
+            stockPrices.putAll(yahooClient.getCurrentPrices(stockTickers));
         }
         
-        return history;
+        if (currency.equalsIgnoreCase("USD") || (cryptoPrices.isEmpty() && stockPrices.isEmpty())) {
+            return;
+        }
+        // One FX lookup for the whole batch
+        double rate = exchangeClient.getRate("USD", currency);
+        cryptoPrices.replaceAll((ticker, price) -> price * rate);
+        stockPrices.replaceAll((ticker, price) -> price * rate);
+    }
+    
+    public List<PricePoint> getPriceHistory(String ticker, AssetType type, String currency, int days) {
+        return getPriceSeries(ticker, type, currency, days).toPricePoints();
+    }
+    
+    public CompletableFuture<List<PricePoint>> getPriceHistoryAsync(String ticker, AssetType type, String currency, int days) {
+        return getPriceSeriesAsync(ticker, type, currency, days).thenApply(PriceSeries::toPricePoints);
+    }
+    
+    public PriceSeries getPriceSeries(String ticker, AssetType type, String currency, int days) {
+        try {
+            return getPriceSeriesAsync(ticker, type, currency, days).join();
+        } catch (CompletionException e) {
+            System.err.println("History error for " + ticker + ": " + e.getMessage());
+            return PriceSeries.EMPTY;
+        }
+    }
+    
+    // History is cached per ticker, asset type, currency and candle interval. Any window that
+    // the held series covers is served as a slice of it, and a stale series is topped up with
+    // only the candles after its last timestamp.
+    public CompletableFuture<PriceSeries> getPriceSeriesAsync(String ticker, AssetType type, String currency, int days) {
+        String interval = historyInterval(type, days);
+        String seriesKey = ticker.toUpperCase() + "_" + type + "_" + currency.toUpperCase() + "_" + interval;
+        long from = System.currentTimeMillis() - days * DAY_MILLIS;
+        
+        CachedHistory cached = loadSeries(seriesKey, ticker, type, currency, interval);
+        if (cached != null && cached.covers(from) && !cached.isExpired()) {
+            return CompletableFuture.completedFuture(cached.series.sliceFrom(from));
+        }
+        return historyFlight.executeAsync(seriesKey + "_" + days,
+                () -> syncSeries(seriesKey, ticker, type, currency, days, interval, from));
+    }
+    
+    private CachedHistory loadSeries(String seriesKey, String ticker, AssetType type, String currency, String interval) {
+        CachedHistory cached = historyCache.get(seriesKey);
+        if (cached != null) {
+            return cached;
+        }
+        PriceHistoryStore.Range range = historyStore.getRange(ticker, type, currency, interval);
+        if (range == null) {
+            return null;
+        }
+        PriceSeries stored = historyStore.read(ticker, type, currency, interval, range.getCoveredFrom());
+        if (stored.isEmpty()) {
+            return null;
+        }
+        CachedHistory loaded = new CachedHistory(stored, range.getCoveredFrom(), range.getSyncedAt());
+        CachedHistory raced = historyCache.putIfAbsent(seriesKey, loaded);
+        return raced != null ? raced : loaded;
+    }
+    
+    private CompletableFuture<PriceSeries> syncSeries(String seriesKey, String ticker, AssetType type,
+                                                      String currency, int days, String interval, long from) {
+        CachedHistory cached = loadSeries(seriesKey, ticker, type, currency, interval);
+        if (cached != null && cached.covers(from) && canTopUp(type, interval, cached.series.lastTime())) {
+            return fetchHistorySince(ticker, type, currency, interval, cached.series.lastTime()).thenApply(fresh -> {
+                CachedHistory merged = historyCache.compute(seriesKey, (k, current) ->
+                        merge(current != null ? current : cached, fresh, cached.coveredFrom));
+                historyStore.append(ticker, type, currency, interval, fresh, merged.coveredFrom);
+                return merged.series.sliceFrom(from);
+            });
+        }
+        
+        return fetchPriceSeriesAsync(ticker, type, currency, days).thenApply(fresh -> {
+            if (fresh.isEmpty()) {
+                return fresh;
+            }
+            // The APIs cap long windows at a year, so only claim what actually came back
+            long coveredFrom = days > 365 ? fresh.firstTime() : from;
+            CachedHistory merged = historyCache.compute(seriesKey, (k, current) ->
+                    merge(joins(current, fresh, interval) ? current : null, fresh, coveredFrom));
+            historyStore.replace(ticker, type, currency, interval, merged.series, merged.coveredFrom);
+            return merged.series.sliceFrom(from);
+        });
+    }
+    
+    // Binance returns a bounded number of candles per request, so after a long gap the top-up
+    // would stop short of now; the full window is fetched again instead
+    private static boolean canTopUp(AssetType type, String interval, long lastTime) {
+        return type != AssetType.CRYPTO
+                || System.currentTimeMillis() - lastTime < CoinGeckoClient.maxSinceMillis(interval);
+    }
+    
+    // Whether a freshly fetched window overlaps or continues the held series; if not, the
+    // old series is dropped rather than kept with a hole in the middle
+    private static boolean joins(CachedHistory current, PriceSeries fresh, String interval) {
+        if (current == null || current.series.isEmpty()) return false;
+        // A few candles of slack for weekends and market holidays in stock series
+        return current.series.lastTime() >= fresh.firstTime() - 4 * CoinGeckoClient.intervalMillis(interval);
+    }
+    
+    private CompletableFuture<PriceSeries> fetchHistorySince(String ticker, AssetType type, String currency,
+                                                             String interval, long startMillis) {
+        if (type == AssetType.CRYPTO) {
+            return coinGeckoClient.getPriceSeriesSinceAsync(getCoinGeckoId(ticker), currency, interval, startMillis);
+        }
+        return toCurrency(yahooClient.getPriceSeriesSinceAsync(ticker, interval, startMillis), currency);
+    }
+    
+    private CompletableFuture<PriceSeries> fetchPriceSeriesAsync(String ticker, AssetType type, String currency, int days) {
+        if (type == AssetType.CRYPTO) {
+            return coinGeckoClient.getPriceSeriesAsync(getCoinGeckoId(ticker), currency, days);
+        }
+        return toCurrency(yahooClient.getPriceSeriesAsync(ticker, days), currency);
+    }
+    
+    // Yahoo quotes in USD; the history and the FX rate are fetched side by side
+    private CompletableFuture<PriceSeries> toCurrency(CompletableFuture<PriceSeries> usdSeries, String currency) {
+        if (currency.equalsIgnoreCase("USD")) {
+            return usdSeries;
+        }
+        return usdSeries.thenCombine(exchangeClient.getRateAsync("USD", currency), PriceSeries::scaled);
+    }
+    
+    private static CachedHistory merge(CachedHistory current, PriceSeries fresh, long coveredFrom) {
+        if (current == null || current.series.isEmpty()) {
+            return new CachedHistory(fresh, coveredFrom, System.currentTimeMillis());
+        }
+        return new CachedHistory(current.series.merge(fresh), Math.min(current.coveredFrom, coveredFrom),
+                System.currentTimeMillis());
+    }
+    
+    private static String historyInterval(AssetType type, int days) {
+        return type == AssetType.CRYPTO ? CoinGeckoClient.historyInterval(days) : YahooFinanceClient.historyInterval(days);
+    }
+
+    public long getDeduplicatedRequestCount() {
+        return priceFlight.getDeduplicatedCount() + historyFlight.getDeduplicatedCount();
     }
 
     public double convertCurrency(double amount, String from, String to) {
@@ -133,39 +468,77 @@ public class MarketDataService {
         return TICKER_TO_COINGECKO.getOrDefault(ticker.toUpperCase(), ticker.toLowerCase());
     }
     
+    public String getCacheStats() {
+        return "prices[" + priceCache + "] history[" + historyCache + "]";
+    }
+    
     public void clearCache() {
         priceCache.clear();
         historyCache.clear();
+        priceEpoch.incrementAndGet();
+    }
+    
+    public long getPriceEpoch() {
+        return priceEpoch.get();
+    }
+    
+    // When the oldest cached price of these assets goes stale. Prices that are stale already
+    // have a refresh in flight, so they are checked again one TTL from now.
+    public long getPricesExpireAt(Collection<AssetKey> keys, String currency) {
+        long now = System.currentTimeMillis();
+        long expireAt = now + PRICE_CACHE_TTL;
+        for (AssetKey key : keys) {
+            PriceQuote quote = getCachedQuote(key.getTicker(), key.getType(), currency);
+            if (quote != null && !quote.isStale()) {
+                expireAt = Math.min(expireAt, now - quote.getAgeMillis() + PRICE_CACHE_TTL);
+            }
+        }
+        return expireAt;
     }
     
     private static class CachedPrice {
         final double price;
-        final long timestamp;
+        final long fetchedAt;
         
-        CachedPrice(double price) {
+        CachedPrice(double price, long fetchedAt) {
             this.price = price;
-            this.timestamp = System.currentTimeMillis();
+            this.fetchedAt = fetchedAt;
         }
         
-        boolean isExpired() {
-            return System.currentTimeMillis() - timestamp > PRICE_CACHE_TTL;
+        PriceQuote toQuote() {
+            long age = System.currentTimeMillis() - fetchedAt;
+            return new PriceQuote(price, age > PRICE_CACHE_TTL, age);
         }
     }
     
     private static class CachedHistory {
-        final List<PricePoint> history;
-        final long timestamp;
+        final PriceSeries series;
+        final long coveredFrom;
+        final long syncedAt;
         
-        CachedHistory(List<PricePoint> history) {
-            this.history = history;
-            this.timestamp = System.currentTimeMillis();
+        CachedHistory(PriceSeries series, long coveredFrom, long syncedAt) {
+            this.series = series;
+            this.coveredFrom = coveredFrom;
+            this.syncedAt = syncedAt;
         }
         
         boolean isExpired() {
-            return System.currentTimeMillis() - timestamp > HISTORY_CACHE_TTL;
+            return System.currentTimeMillis() - syncedAt > HISTORY_CACHE_TTL;
+        }
+        
+        boolean covers(long fromMillis) {
+            return !series.isEmpty() && coveredFrom <= fromMillis;
         }
     }
     
+    public long getPriceHardExpiry() {
+        return priceHardExpiry;
+    }
+    
+    public void setPriceHardExpiry(long millis) {
+        this.priceHardExpiry = millis;
+    }
+    
     public String getReferenceCurrency() {
         return referenceCurrency;
     }
@@ -173,5 +546,6 @@ public class MarketDataService {
     public void setReferenceCurrency(String currency) {
         this.referenceCurrency = currency;
         priceCache.clear();
+        priceEpoch.incrementAndGet();
     }
 }
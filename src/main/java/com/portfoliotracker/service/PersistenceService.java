@@ -5,31 +5,66 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.portfoliotracker.model.Event;
 import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioHeader;
+import com.portfoliotracker.util.DurableFileWriter;
 import com.portfoliotracker.util.LocalDateTimeAdapter;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class PersistenceService {
     private static PersistenceService instance;
     private final Gson gson;
+    private final PortfolioCodec codec = new BinaryPortfolioCodec();
+    private final PortfolioCodec jsonCodec = new JsonPortfolioCodec();
+    private final DurableFileWriter snapshotWriter = new DurableFileWriter(BACKUP_COUNT);
+    private final DurableFileWriter fileWriter = new DurableFileWriter(0);
     private static final String DATA_PATH = "data";
-    private static final String PORTFOLIOS_PATH = DATA_PATH + "/portfolios";
-    private static final String EVENTS_PATH = DATA_PATH + "/events";
+    // Previous versions kept of every portfolio snapshot, as <file>.bak1 (newest) to .bakN
+    private static final int BACKUP_COUNT = 3;
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private final Path portfoliosPath;
+    private final Path eventsPath;
+    // Outside the portfolios directory so writing it does not wake the file watcher
+    private final Path indexFile;
+    private final Path encryptedIndexFile;
+    // Not secret; shared by all encrypted files so the key is derived once per session
+    private final Path saltFile;
 
     private PersistenceService() {
+        this(Paths.get(DATA_PATH));
+    }
+
+    // Tests point this at a temporary directory
+    PersistenceService(Path dataPath) {
+        this.portfoliosPath = dataPath.resolve("portfolios");
+        this.eventsPath = dataPath.resolve("events");
+        this.indexFile = dataPath.resolve("portfolio-index.json");
+        this.encryptedIndexFile = dataPath.resolve("portfolio-index.json.enc");
+        this.saltFile = dataPath.resolve("encryption.salt");
         this.gson = new GsonBuilder()
                 .setPrettyPrinting()
                 .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
                 .create();
         ensureDirectoriesExist();
+        loadSalt();
     }
 
     public static PersistenceService getInstance() {
@@ -41,97 +76,417 @@ public class PersistenceService {
 
     private void ensureDirectoriesExist() {
         try {
-            Files.createDirectories(Paths.get(PORTFOLIOS_PATH));
-            Files.createDirectories(Paths.get(EVENTS_PATH));
+            Files.createDirectories(portfoliosPath);
+            Files.createDirectories(eventsPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void loadSalt() {
+        EncryptionService encryption = EncryptionService.getInstance();
+        byte[] salt = Files.exists(saltFile) ? readBytes(saltFile) : null;
+        if (salt != null && salt.length > 0) {
+            encryption.setSalt(salt);
+        } else {
+            writeBytes(saltFile, encryption.getSalt());
+        }
+    }
+
+    // Writes a full snapshot in the binary format, which makes the portfolio's journal
+    // redundant. Returns the file written, or null when the write failed.
+    public Path savePortfolio(Portfolio portfolio) {
+        return savePortfolios(List.of(portfolio)).get(portfolio);
+    }
+
+    // Writes several snapshots as one batch: each file is replaced atomically and the directory
+    // is synced once for all of them. Portfolios missing from the result were not written.
+    public Map<Portfolio, Path> savePortfolios(Collection<Portfolio> portfolios) {
+        Map<Portfolio, Path> written = new LinkedHashMap<>();
+        Map<Path, Portfolio> staged = new LinkedHashMap<>();
+        try (DurableFileWriter.Batch batch = snapshotWriter.batch()) {
+            for (Portfolio portfolio : portfolios) {
+                try {
+                    Path target = snapshotTarget(portfolio.getId(), codec);
+                    batch.write(target, out -> encodeSnapshot(portfolio, codec, out));
+                    staged.put(target, portfolio);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Failed to write portfolio " + portfolio.getId() + ": " + e);
+                }
+            }
+            try {
+                batch.commit();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Path target : batch.getCommitted()) {
+                Portfolio portfolio = staged.get(target);
+                written.put(portfolio, target);
+                deleteJournal(portfolio.getId());
+            }
+        }
+        return written;
+    }
+
+    // Plain JSON copy for use outside the app; never encrypted
+    public boolean exportPortfolio(Portfolio portfolio, Path target) {
+        try {
+            fileWriter.write(target, out -> jsonCodec.encode(portfolio, out));
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
-    public void savePortfolio(Portfolio portfolio) {
-        String filename = PORTFOLIOS_PATH + "/" + portfolio.getId() + ".json";
-        String json = gson.toJson(portfolio);
-        
+    // Encrypts while encoding, so no encrypted copy of the snapshot is built in memory
+    private void encodeSnapshot(Portfolio portfolio, PortfolioCodec format, OutputStream out) throws IOException {
         EncryptionService encryption = EncryptionService.getInstance();
         if (encryption.isEncryptionEnabled()) {
-            byte[] encrypted = encryption.encrypt(json.getBytes(StandardCharsets.UTF_8), encryption.getPassphrase());
-            writeBytes(filename + ".enc", encrypted);
+            EncryptionService.EncryptingOutputStream encrypted = encryption.encryptingStream(out, encryption.getPassphrase());
+            format.encode(portfolio, encrypted);
+            encrypted.finish();
         } else {
-            writeString(filename, json);
+            format.encode(portfolio, out);
+        }
+    }
+
+    private Path snapshotTarget(String id, PortfolioCodec format) {
+        String suffix = EncryptionService.getInstance().isEncryptionEnabled() ? ".enc" : "";
+        return portfoliosPath.resolve(id + "." + format.getExtension() + suffix);
+    }
+
+    // Appends encoded journal records in one write; false when nothing could be written
+    public boolean appendJournal(String id, List<String> lines) {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        try {
+            Path journal = getJournalFile(id);
+            dropTornTail(journal);
+            DurableFileWriter.append(journal, content.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public long getJournalSize(String id) {
+        try {
+            Path journal = getJournalFile(id);
+            return Files.exists(journal) ? Files.size(journal) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // A crashed append can leave a last line without its newline; the next record would be glued
+    // onto it and lost with it. Only the writer thread appends, so nothing else is mid-line here.
+    private static void dropTornTail(Path journal) throws IOException {
+        if (!Files.exists(journal)) return;
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long intact = size;
+            // Walk back to the last newline; usually the very last byte
+            while (intact > 0) {
+                long from = Math.max(0, intact - buffer.capacity());
+                buffer.clear().limit((int) (intact - from));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, from + buffer.position()) < 0) break;
+                }
+                int i = buffer.position() - 1;
+                while (i >= 0 && buffer.get(i) != '\n') i--;
+                if (i >= 0) {
+                    intact = from + i + 1;
+                    break;
+                }
+                intact = from;
+            }
+            if (intact < size) {
+                channel.truncate(intact);
+                channel.force(false);
+                System.err.println("[PERSISTENCE] Dropped a torn record of " + (size - intact) + " bytes from " + journal.getFileName());
+            }
+        }
+    }
+
+    private Path getJournalFile(String id) {
+        return portfoliosPath.resolve(id + JOURNAL_SUFFIX);
+    }
+
+    private void deleteJournal(String id) {
+        try {
+            Files.deleteIfExists(getJournalFile(id));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Snapshot plus whatever was journaled since it was written
+    private Portfolio withJournal(Portfolio portfolio) {
+        if (portfolio == null) return null;
+        Path journal = getJournalFile(portfolio.getId());
+        if (Files.exists(journal)) {
+            try {
+                byte[] content = Files.readAllBytes(journal);
+                long intact = PortfolioJournal.getInstance().replay(portfolio, content);
+                // Left on disk: the writer drops a torn tail before its next append
+                if (intact < content.length) {
+                    System.err.println("[PERSISTENCE] Ignoring " + (content.length - intact)
+                            + " bytes of an incomplete record at the end of the journal of " + portfolio.getId());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
+        return portfolio;
     }
 
     public Portfolio loadPortfolio(String id) {
-        String filename = PORTFOLIOS_PATH + "/" + id + ".json";
-        String encFilename = filename + ".enc";
-        
-        EncryptionService encryption = EncryptionService.getInstance();
-        
-        if (Files.exists(Paths.get(encFilename)) && encryption.isEncryptionEnabled()) {
-            byte[] encrypted = readBytes(encFilename);
-            if (encrypted != null) {
-                byte[] decrypted = encryption.decrypt(encrypted, encryption.getPassphrase());
-                String json = new String(decrypted, StandardCharsets.UTF_8);
-                return gson.fromJson(json, Portfolio.class);
+        Portfolio portfolio = withJournal(readSnapshot(id, codec));
+        if (portfolio != null) {
+            return portfolio;
+        }
+        // Written before the binary format existed, possibly with the old XOR scheme: load it once
+        // and store it in the new format
+        Path legacy = snapshotFile(id, jsonCodec);
+        portfolio = withJournal(readSnapshot(id, jsonCodec));
+        if (portfolio != null && savePortfolio(portfolio) != null) {
+            removeLegacyBackups(legacy);
+            try {
+                Files.deleteIfExists(legacy);
+                System.out.println("[PERSISTENCE] Migrated portfolio " + id + " to the binary format");
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-        } else if (Files.exists(Paths.get(filename))) {
-            String json = readString(filename);
-            if (json != null) {
-                return gson.fromJson(json, Portfolio.class);
+        }
+        return portfolio;
+    }
+
+    // Written with the old XOR scheme, which is readable for migration but should not stay on disk
+    private boolean isLegacyEncrypted(Path file) {
+        if (!Files.exists(file)) return false;
+        try (InputStream in = Files.newInputStream(file)) {
+            return !EncryptionService.getInstance().isCurrentFormat(in.readNBytes(4));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void removeLegacyBackups(Path path) {
+        if (!path.getFileName().toString().endsWith(".enc")) return;
+        for (int generation = 1; generation <= BACKUP_COUNT; generation++) {
+            Path backup = DurableFileWriter.backupFile(path, generation);
+            try {
+                if (isLegacyEncrypted(backup)) {
+                    Files.delete(backup);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
-        return null;
+    }
+
+    // Falls back to the newest readable backup when the snapshot itself cannot be decoded
+    private Portfolio readSnapshot(String id, PortfolioCodec format) {
+        Path path = snapshotFile(id, format);
+        if (path == null) return null;
+        try {
+            return decodeSnapshot(path, format);
+        } catch (IOException | RuntimeException e) {
+            for (int generation = 1; generation <= BACKUP_COUNT; generation++) {
+                Path backup = DurableFileWriter.backupFile(path, generation);
+                if (!Files.exists(backup)) continue;
+                try {
+                    Portfolio restored = decodeSnapshot(backup, format);
+                    System.err.println("[PERSISTENCE] " + path.getFileName() + " is unreadable (" + e.getMessage()
+                            + "), using backup " + backup.getFileName());
+                    return restored;
+                } catch (IOException | RuntimeException ignored) {
+                    // Try the next older one
+                }
+            }
+            throw new UncheckedIOException("Corrupted portfolio file " + path,
+                    e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    private Portfolio decodeSnapshot(Path path, PortfolioCodec format) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            if (path.getFileName().toString().endsWith(".enc")) {
+                EncryptionService encryption = EncryptionService.getInstance();
+                // Old JSON snapshots are the only files that may still use the XOR scheme
+                return format.decode(format == jsonCodec
+                        ? encryption.decryptingLegacyStream(in, encryption.getPassphrase())
+                        : encryption.decryptingStream(in, encryption.getPassphrase()));
+            }
+            return format.decode(in);
+        }
+    }
+
+    // Encrypted files are only read while encryption is on; without the passphrase the plain file is used
+    private Path snapshotFile(String id, PortfolioCodec format) {
+        Path plain = portfoliosPath.resolve(id + "." + format.getExtension());
+        Path encrypted = portfoliosPath.resolve(id + "." + format.getExtension() + ".enc");
+        if (Files.exists(encrypted) && EncryptionService.getInstance().isEncryptionEnabled()) {
+            return encrypted;
+        }
+        return Files.exists(plain) ? plain : null;
     }
 
     public List<Portfolio> loadAllPortfolios() {
         List<Portfolio> portfolios = new ArrayList<>();
-        File dir = new File(PORTFOLIOS_PATH);
-        File[] files = dir.listFiles();
-        
+        for (String id : listPortfolioIds()) {
+            try {
+                Portfolio p = loadPortfolio(id);
+                if (p != null) {
+                    portfolios.add(p);
+                }
+            } catch (Exception e) {
+                // Skip corrupted files silently
+                System.err.println("Skipping corrupted file: " + id);
+            }
+        }
+        return portfolios;
+    }
+
+    public List<String> listPortfolioIds() {
+        Set<String> ids = new LinkedHashSet<>();
+        File[] files = portfoliosPath.toFile().listFiles();
         if (files != null) {
             for (File file : files) {
-                String name = file.getName();
-                try {
-                    if (name.endsWith(".json") && !name.endsWith(".enc")) {
-                        String id = name.replace(".json", "");
-                        Portfolio p = loadPortfolio(id);
-                        if (p != null) {
-                            portfolios.add(p);
-                        }
-                    } else if (name.endsWith(".json.enc")) {
-                        String id = name.replace(".json.enc", "");
-                        Portfolio p = loadPortfolio(id);
-                        if (p != null) {
-                            portfolios.add(p);
-                        }
-                    }
-                } catch (Exception e) {
-                    // Skip corrupted files silently
-                    System.err.println("Skipping corrupted file: " + name);
+                String id = portfolioIdOf(file.getName());
+                if (id != null) {
+                    ids.add(id);
                 }
             }
         }
-        return portfolios;
+        return new ArrayList<>(ids);
+    }
+
+    // Id of the portfolio stored in the given file name, null for any other file
+    public String portfolioIdOf(String fileName) {
+        for (PortfolioCodec format : new PortfolioCodec[]{codec, jsonCodec}) {
+            for (String suffix : new String[]{"." + format.getExtension() + ".enc", "." + format.getExtension()}) {
+                if (fileName.endsWith(suffix)) {
+                    return fileName.substring(0, fileName.length() - suffix.length());
+                }
+            }
+        }
+        return null;
+    }
+
+    // Id of the portfolio whose journal this is, null for any other file
+    public String journalIdOf(String fileName) {
+        return fileName.endsWith(JOURNAL_SUFFIX) ? fileName.substring(0, fileName.length() - JOURNAL_SUFFIX.length()) : null;
+    }
+
+    // The file loadPortfolio would read for this id, or null when there is none
+    public Path getPortfolioFile(String id) {
+        Path path = snapshotFile(id, codec);
+        return path != null ? path : snapshotFile(id, jsonCodec);
+    }
+
+    // Changes whenever the snapshot or the journal of the portfolio changes; null without a file
+    public String getFileStamp(String id) {
+        Path path = getPortfolioFile(id);
+        if (path == null) return null;
+        try {
+            return path.getFileName() + ":" + Files.getLastModifiedTime(path).toMillis() + ":"
+                    + Files.size(path) + ":" + getJournalSize(id);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public LocalDateTime getLastModified(String id) {
+        Path path = getPortfolioFile(id);
+        try {
+            long modified = path != null ? Files.getLastModifiedTime(path).toMillis() : 0;
+            Path journal = getJournalFile(id);
+            if (Files.exists(journal)) {
+                modified = Math.max(modified, Files.getLastModifiedTime(journal).toMillis());
+            }
+            return modified > 0 ? LocalDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneId.systemDefault()) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Headers of all portfolios as last written; empty when there is no readable index
+    public List<PortfolioHeader> loadIndex() {
+        EncryptionService encryption = EncryptionService.getInstance();
+        Path file = encryption.isEncryptionEnabled() ? encryptedIndexFile : indexFile;
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        byte[] data = readBytes(file);
+        if (data == null) {
+            return new ArrayList<>();
+        }
+        try {
+            if (encryption.isEncryptionEnabled()) {
+                data = encryption.decrypt(data, encryption.getPassphrase());
+            }
+            Type listType = new TypeToken<ArrayList<PortfolioHeader>>(){}.getType();
+            List<PortfolioHeader> headers = gson.fromJson(new String(data, StandardCharsets.UTF_8), listType);
+            return headers != null ? headers : new ArrayList<>();
+        } catch (RuntimeException e) {
+            // Rebuilt from the portfolio files, e.g. after a passphrase change
+            System.err.println("Ignoring unreadable portfolio index: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    // Portfolio names are in here, so it is encrypted like the portfolios themselves
+    public void saveIndex(List<PortfolioHeader> headers) {
+        byte[] data = gson.toJson(headers).getBytes(StandardCharsets.UTF_8);
+        EncryptionService encryption = EncryptionService.getInstance();
+        if (encryption.isEncryptionEnabled()) {
+            writeBytes(encryptedIndexFile, encryption.encrypt(data, encryption.getPassphrase()));
+        } else {
+            writeBytes(indexFile, data);
+        }
+    }
+
+    public Path getPortfoliosDirectory() {
+        return portfoliosPath;
     }
 
     public void deletePortfolio(String id) {
         try {
-            Files.deleteIfExists(Paths.get(PORTFOLIOS_PATH + "/" + id + ".json"));
-            Files.deleteIfExists(Paths.get(PORTFOLIOS_PATH + "/" + id + ".json.enc"));
+            for (PortfolioCodec format : new PortfolioCodec[]{codec, jsonCodec}) {
+                for (String suffix : new String[]{"", ".enc"}) {
+                    Path path = portfoliosPath.resolve(id + "." + format.getExtension() + suffix);
+                    Files.deleteIfExists(path);
+                    for (int generation = 1; generation <= BACKUP_COUNT; generation++) {
+                        Files.deleteIfExists(DurableFileWriter.backupFile(path, generation));
+                    }
+                }
+            }
+            Files.deleteIfExists(getJournalFile(id));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     public void saveEvents(List<Event> events) {
-        String filename = EVENTS_PATH + "/events.json";
-        String json = gson.toJson(events);
-        writeString(filename, json);
+        try {
+            fileWriter.write(eventsPath.resolve("events.json"), out -> {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                gson.toJson(events, writer);
+                writer.flush();
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public List<Event> loadEvents() {
-        String filename = EVENTS_PATH + "/events.json";
-        String json = readString(filename);
+        String json = readString(eventsPath.resolve("events.json"));
         if (json != null) {
             Type listType = new TypeToken<ArrayList<Event>>(){}.getType();
             return gson.fromJson(json, listType);
@@ -139,16 +494,7 @@ public class PersistenceService {
         return new ArrayList<>();
     }
 
-    private void writeString(String filename, String content) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(content);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private String readString(String filename) {
-        Path path = Paths.get(filename);
+    private String readString(Path path) {
         if (!Files.exists(path)) {
             return null;
         }
@@ -160,17 +506,20 @@ public class PersistenceService {
         }
     }
 
-    private void writeBytes(String filename, byte[] data) {
-        try (FileOutputStream fos = new FileOutputStream(filename)) {
-            fos.write(data);
+    // Atomic replace: a crash leaves either the old or the new file
+    private boolean writeBytes(Path path, byte[] data) {
+        try {
+            fileWriter.write(path, data);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
-    private byte[] readBytes(String filename) {
+    private byte[] readBytes(Path path) {
         try {
-            return Files.readAllBytes(Paths.get(filename));
+            return Files.readAllBytes(path);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -0,0 +1,139 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Values many portfolios at once. Tickers are first collected across all portfolios and priced
+// in one batch per currency, so a coin held in forty portfolios is fetched once; the snapshots
+// are then computed in parallel on virtual threads and only read the warmed price cache.
+public class PortfolioBatchValuator {
+    private static PortfolioBatchValuator instance;
+
+    private final MarketDataService marketDataService;
+    private final AnalysisService analysisService;
+
+    private PortfolioBatchValuator() {
+        this.marketDataService = MarketDataService.getInstance();
+        this.analysisService = AnalysisService.getInstance();
+    }
+
+    public static PortfolioBatchValuator getInstance() {
+        if (instance == null) {
+            instance = new PortfolioBatchValuator();
+        }
+        return instance;
+    }
+
+    // Totals are converted into reportCurrency; each snapshot stays in its portfolio's currency
+    public Result valueAll(Collection<Portfolio> portfolios, String reportCurrency) throws InterruptedException {
+        Map<String, Set<AssetKey>> keysByCurrency = keysByCurrency(portfolios);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Callable<Object>> priceBatches = new ArrayList<>();
+            for (Map.Entry<String, Set<AssetKey>> entry : keysByCurrency.entrySet()) {
+                priceBatches.add(() -> marketDataService.getPrices(entry.getValue(), entry.getKey()));
+            }
+            executor.invokeAll(priceBatches);
+
+            Map<Portfolio, Future<PortfolioSnapshot>> pending = new LinkedHashMap<>();
+            for (Portfolio portfolio : portfolios) {
+                pending.put(portfolio, executor.submit(() -> analysisService.computeSnapshot(portfolio)));
+            }
+
+            Map<String, PortfolioSnapshot> snapshots = new LinkedHashMap<>();
+            Map<String, Double> rates = new HashMap<>();
+            double totalValue = 0;
+            double totalInvested = 0;
+            for (Map.Entry<Portfolio, Future<PortfolioSnapshot>> entry : pending.entrySet()) {
+                Portfolio portfolio = entry.getKey();
+                PortfolioSnapshot snapshot;
+                try {
+                    snapshot = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    System.err.println("Failed to value portfolio " + portfolio.getName() + ": " + e.getCause());
+                    continue;
+                }
+                snapshots.put(portfolio.getId(), snapshot);
+                double rate = rates.computeIfAbsent(portfolio.getCurrency().toUpperCase(),
+                        c -> marketDataService.convertCurrency(1.0, c, reportCurrency));
+                totalValue += snapshot.getTotalValue() * rate;
+                totalInvested += snapshot.getTotalInvested() * rate;
+            }
+            return new Result(snapshots, reportCurrency, totalValue, totalInvested);
+        }
+    }
+
+    // Every asset once per portfolio currency, whatever number of portfolios hold it
+    static Map<String, Set<AssetKey>> keysByCurrency(Collection<Portfolio> portfolios) {
+        Map<String, Set<AssetKey>> keysByCurrency = new LinkedHashMap<>();
+        for (Portfolio portfolio : portfolios) {
+            Set<AssetKey> keys = keysByCurrency.computeIfAbsent(
+                    portfolio.getCurrency().toUpperCase(), c -> new LinkedHashSet<>());
+            for (Asset asset : portfolio.getAssets()) {
+                keys.add(AssetKey.of(asset));
+            }
+        }
+        return keysByCurrency;
+    }
+
+    public static class Result {
+        private final Map<String, PortfolioSnapshot> snapshots;
+        private final String currency;
+        private final double totalValue;
+        private final double totalInvested;
+
+        Result(Map<String, PortfolioSnapshot> snapshots, String currency, double totalValue, double totalInvested) {
+            this.snapshots = Collections.unmodifiableMap(snapshots);
+            this.currency = currency;
+            this.totalValue = totalValue;
+            this.totalInvested = totalInvested;
+        }
+
+        // Keyed by portfolio id, in the order the portfolios were given
+        public Map<String, PortfolioSnapshot> getSnapshots() {
+            return snapshots;
+        }
+
+        public PortfolioSnapshot getSnapshot(String portfolioId) {
+            return snapshots.get(portfolioId);
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public double getTotalValue() {
+            return totalValue;
+        }
+
+        public double getTotalInvested() {
+            return totalInvested;
+        }
+
+        public double getTotalPnL() {
+            return totalValue - totalInvested;
+        }
+
+        public double getTotalRoi() {
+            if (totalInvested == 0) return 0;
+            return (getTotalPnL() / totalInvested) * 100;
+        }
+    }
+}
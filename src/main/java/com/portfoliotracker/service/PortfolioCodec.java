@@ -0,0 +1,27 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Portfolio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Turns a whole portfolio into bytes and back. Encryption is applied on top by PersistenceService.
+public interface PortfolioCodec {
+    byte[] encode(Portfolio portfolio) throws IOException;
+
+    Portfolio decode(byte[] data) throws IOException;
+
+    // Stream variants so a snapshot can go through encryption to and from the file without extra
+    // copies. The stream is left open.
+    default void encode(Portfolio portfolio, OutputStream out) throws IOException {
+        out.write(encode(portfolio));
+    }
+
+    default Portfolio decode(InputStream in) throws IOException {
+        return decode(in.readAllBytes());
+    }
+
+    // File extension for snapshots in this format, without the dot
+    String getExtension();
+}
@@ -0,0 +1,204 @@
+package com.portfoliotracker.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.util.LocalDateTimeAdapter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Line format of the per-portfolio change log that sits next to the snapshot file. Each line is
+// one compact JSON record, or the same record encrypted and base64 encoded when encryption is on.
+// Records are idempotent (adds are skipped when the id already exists), so replaying a log over
+// a snapshot that already contains some of its records gives the same result; that keeps a crash
+// between writing a new snapshot and deleting the old log harmless.
+public class PortfolioJournal {
+    private static PortfolioJournal instance;
+
+    private final Gson gson;
+
+    private PortfolioJournal() {
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+    }
+
+    public static PortfolioJournal getInstance() {
+        if (instance == null) {
+            instance = new PortfolioJournal();
+        }
+        return instance;
+    }
+
+    public String encode(Record record) {
+        String json = gson.toJson(record);
+        EncryptionService encryption = EncryptionService.getInstance();
+        if (encryption.isEncryptionEnabled()) {
+            byte[] encrypted = encryption.encrypt(json.getBytes(StandardCharsets.UTF_8), encryption.getPassphrase());
+            return Base64.getEncoder().encodeToString(encrypted);
+        }
+        return json;
+    }
+
+    public Record decode(String line) {
+        if (line.startsWith("{")) {
+            return gson.fromJson(line, Record.class);
+        }
+        EncryptionService encryption = EncryptionService.getInstance();
+        byte[] decrypted = encryption.decrypt(Base64.getDecoder().decode(line), encryption.getPassphrase());
+        return gson.fromJson(new String(decrypted, StandardCharsets.UTF_8), Record.class);
+    }
+
+    // Applies the log to a freshly loaded snapshot. Returns the offset after the last complete
+    // line; a line without its newline is the torn end of a crashed append and is not applied,
+    // even if it happens to parse. A complete line that cannot be read is skipped, the rest still
+    // applies.
+    public long replay(Portfolio portfolio, byte[] journal) {
+        // Transaction ids per asset, built on first use so duplicate checks stay O(1)
+        Map<String, Set<String>> transactionIds = new HashMap<>();
+        int start = 0;
+        while (start < journal.length) {
+            int end = start;
+            while (end < journal.length && journal[end] != '\n') end++;
+            if (end == journal.length) break;
+            String line = new String(journal, start, end - start, StandardCharsets.UTF_8);
+            if (!line.isBlank()) {
+                Record record;
+                try {
+                    record = decode(line);
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping unreadable journal record for " + portfolio.getId() + ": " + e.getMessage());
+                    record = null;
+                }
+                if (record != null && record.type != null) {
+                    apply(portfolio, record, transactionIds);
+                }
+            }
+            start = end + 1;
+        }
+        return start;
+    }
+
+    private void apply(Portfolio portfolio, Record record, Map<String, Set<String>> transactionIds) {
+        switch (record.type) {
+            case ADD_ASSET:
+                if (record.asset != null && portfolio.getAssetById(record.asset.getId()) == null) {
+                    portfolio.addAsset(record.asset);
+                }
+                break;
+            case REMOVE_ASSET:
+                portfolio.removeAsset(record.assetId);
+                transactionIds.remove(record.assetId);
+                break;
+            case ADD_TRANSACTION: {
+                Asset asset = portfolio.getAssetById(record.assetId);
+                if (asset == null || record.transaction == null) break;
+                Set<String> ids = transactionIds.computeIfAbsent(asset.getId(), id -> idsOf(asset));
+                if (ids.add(record.transaction.getId())) {
+                    asset.addTransaction(record.transaction);
+                }
+                break;
+            }
+            case REMOVE_TRANSACTION: {
+                Asset asset = portfolio.getAssetById(record.assetId);
+                if (asset == null) break;
+                asset.removeTransaction(record.transactionId);
+                Set<String> ids = transactionIds.get(asset.getId());
+                if (ids != null) {
+                    ids.remove(record.transactionId);
+                }
+                break;
+            }
+            case UPDATE_DETAILS:
+                if (record.name != null) portfolio.setName(record.name);
+                if (record.description != null) portfolio.setDescription(record.description);
+                if (record.currency != null && !record.currency.equals(portfolio.getCurrency())) {
+                    portfolio.setCurrency(record.currency);
+                }
+                break;
+        }
+    }
+
+    private static Set<String> idsOf(Asset asset) {
+        Set<String> ids = new HashSet<>();
+        for (Transaction t : asset.getTransactions()) {
+            ids.add(t.getId());
+        }
+        return ids;
+    }
+
+    public enum RecordType {
+        ADD_ASSET, REMOVE_ASSET, ADD_TRANSACTION, REMOVE_TRANSACTION, UPDATE_DETAILS
+    }
+
+    // One mutation; only the fields its type needs are set
+    public static class Record {
+        private RecordType type;
+        private String assetId;
+        private Asset asset;
+        private String transactionId;
+        private Transaction transaction;
+        private String name;
+        private String description;
+        private String currency;
+
+        private Record() {
+        }
+
+        private Record(RecordType type) {
+            this.type = type;
+        }
+
+        public static Record addAsset(Asset asset) {
+            Record record = new Record(RecordType.ADD_ASSET);
+            record.asset = asset;
+            return record;
+        }
+
+        public static Record removeAsset(String assetId) {
+            Record record = new Record(RecordType.REMOVE_ASSET);
+            record.assetId = assetId;
+            return record;
+        }
+
+        public static Record addTransaction(String assetId, Transaction transaction) {
+            Record record = new Record(RecordType.ADD_TRANSACTION);
+            record.assetId = assetId;
+            record.transaction = transaction;
+            return record;
+        }
+
+        public static Record removeTransaction(String assetId, String transactionId) {
+            Record record = new Record(RecordType.REMOVE_TRANSACTION);
+            record.assetId = assetId;
+            record.transactionId = transactionId;
+            return record;
+        }
+
+        // Null fields are left unchanged
+        public static Record updateDetails(String name, String description, String currency) {
+            Record record = new Record(RecordType.UPDATE_DETAILS);
+            record.name = name;
+            record.description = description;
+            record.currency = currency;
+            return record;
+        }
+
+        public RecordType getType() {
+            return type;
+        }
+
+        // Whether applying it can change which assets the portfolio holds
+        public boolean changesAssets() {
+            return type == RecordType.ADD_ASSET || type == RecordType.REMOVE_ASSET;
+        }
+    }
+}
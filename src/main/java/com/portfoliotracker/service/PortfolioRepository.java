@@ -0,0 +1,656 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioHeader;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// All portfolios, served from memory. At startup only the header index is read, which is
+// enough for the portfolio list; the full portfolios are then loaded in parallel on a small pool,
+// and a get() for one that is not there yet loads it on the spot. Nothing is written on the
+// caller's thread: a single writer thread picks up changes shortly afterwards, so a burst of
+// edits costs one write per portfolio. Single mutations are appended to the portfolio's journal;
+// a full save, or a journal grown past half the snapshot, rewrites the snapshot instead. Files
+// changed by something else (another instance, a sync tool) are picked up through a WatchService
+// unless there are unsaved edits. A portfolio that cannot be written stays queued and is
+// retried with a growing delay until it goes through.
+public class PortfolioRepository {
+    private static PortfolioRepository instance;
+
+    private static final long FLUSH_DELAY_MS = 300;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+    private static final long WATCH_SETTLE_MS = 100;
+    private static final long COMPACT_MIN_BYTES = 256 * 1024;
+
+    private final PersistenceService persistenceService;
+    private final ScheduledExecutorService writer;
+    private final ExecutorService loader;
+
+    // Guarded by this. headers holds every portfolio; portfolios only the ones loaded so far.
+    private final Map<String, PortfolioHeader> headers = new LinkedHashMap<>();
+    private final Map<String, Portfolio> portfolios = new HashMap<>();
+    private final Map<String, FutureTask<Portfolio>> loading = new HashMap<>();
+    private final Map<String, List<Asset>> assetsByTicker = new HashMap<>();
+    private final Map<String, List<Asset>> indexedAssets = new HashMap<>();
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private final Map<String, List<String>> pendingRecords = new LinkedHashMap<>();
+    private boolean loaded;
+    private boolean flushScheduled;
+    private boolean indexChanged;
+
+    // File stamp (snapshot and journal) after this process last wrote a portfolio, to tell our
+    // own writes from external ones
+    private final Map<String, String> writtenAt = new ConcurrentHashMap<>();
+    // Only touched on the writer thread
+    private final Map<String, long[]> journalSizes = new HashMap<>();
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+    // Portfolios whose last write failed, and how many flushes in a row left one behind;
+    // only touched on the writer thread
+    private final Set<String> failing = new HashSet<>();
+    private int failedFlushes;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> failureListeners = new CopyOnWriteArrayList<>();
+    private WatchService watcher;
+
+    private PortfolioRepository() {
+        this(PersistenceService.getInstance());
+    }
+
+    // Tests use their own, over a temporary directory
+    PortfolioRepository(PersistenceService persistenceService) {
+        this.persistenceService = persistenceService;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "portfolio-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Decoding is CPU bound, so no more threads than cores
+        AtomicInteger loaderThreads = new AtomicInteger();
+        this.loader = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "portfolio-loader-" + loaderThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static PortfolioRepository getInstance() {
+        if (instance == null) {
+            instance = new PortfolioRepository();
+        }
+        return instance;
+    }
+
+    // Cheap: never waits for a portfolio to be loaded
+    public synchronized List<PortfolioHeader> getHeaders() {
+        ensureLoaded();
+        return new ArrayList<>(headers.values());
+    }
+
+    public Portfolio get(String id) {
+        FutureTask<Portfolio> task;
+        synchronized (this) {
+            ensureLoaded();
+            Portfolio portfolio = portfolios.get(id);
+            if (portfolio != null || !headers.containsKey(id)) {
+                return portfolio;
+            }
+            task = loading.computeIfAbsent(id, this::newLoadTask);
+        }
+        // Loads it right here unless the prefetch already started on it
+        task.run();
+        return await(task);
+    }
+
+    public List<Portfolio> getAll() {
+        List<FutureTask<Portfolio>> tasks = new ArrayList<>();
+        synchronized (this) {
+            ensureLoaded();
+            for (String id : headers.keySet()) {
+                if (!portfolios.containsKey(id)) {
+                    tasks.add(loading.computeIfAbsent(id, this::newLoadTask));
+                }
+            }
+        }
+        // The pool is already working through these; help with whatever it has not reached
+        for (FutureTask<Portfolio> task : tasks) {
+            task.run();
+        }
+        for (FutureTask<Portfolio> task : tasks) {
+            await(task);
+        }
+        synchronized (this) {
+            List<Portfolio> all = new ArrayList<>(headers.size());
+            for (String id : headers.keySet()) {
+                Portfolio portfolio = portfolios.get(id);
+                if (portfolio != null) {
+                    all.add(portfolio);
+                }
+            }
+            return all;
+        }
+    }
+
+    // Assets with this ticker across all portfolios, as of each portfolio's last save
+    public List<Asset> getAssetsByTicker(String ticker) {
+        getAll();
+        synchronized (this) {
+            List<Asset> assets = assetsByTicker.get(ticker.toUpperCase());
+            return assets != null ? new ArrayList<>(assets) : Collections.emptyList();
+        }
+    }
+
+    // Rewrites the whole portfolio; for changes that are not expressed as journal records
+    public synchronized void save(Portfolio portfolio) {
+        ensureLoaded();
+        portfolios.put(portfolio.getId(), portfolio);
+        index(portfolio);
+        touch(portfolio);
+        dirty.add(portfolio.getId());
+        // The snapshot will contain these anyway
+        pendingRecords.remove(portfolio.getId());
+        scheduleFlush();
+    }
+
+    // Persists a mutation that has already been applied to the portfolio in memory. The record is
+    // encoded right away, so later edits on the caller's thread cannot race with the writer.
+    public synchronized void append(Portfolio portfolio, PortfolioJournal.Record record) {
+        ensureLoaded();
+        if (portfolios.get(portfolio.getId()) != portfolio) {
+            save(portfolio);
+            return;
+        }
+        if (record.changesAssets()) {
+            index(portfolio);
+        }
+        touch(portfolio);
+        if (!dirty.contains(portfolio.getId())) {
+            pendingRecords.computeIfAbsent(portfolio.getId(), id -> new ArrayList<>())
+                    .add(PortfolioJournal.getInstance().encode(record));
+        }
+        scheduleFlush();
+    }
+
+    public synchronized void delete(String id) {
+        ensureLoaded();
+        headers.remove(id);
+        portfolios.remove(id);
+        unindex(id);
+        dirty.remove(id);
+        pendingRecords.remove(id);
+        indexChanged = true;
+        scheduleFlush();
+        // Queued behind any write already in progress so it cannot bring the file back
+        writer.execute(() -> {
+            persistenceService.deletePortfolio(id);
+            writtenAt.remove(id);
+            journalSizes.remove(id);
+            failing.remove(id);
+        });
+    }
+
+    // Writes everything still pending and waits for it, e.g. before the application exits
+    public void flush() {
+        try {
+            writer.submit(this::flushDirty).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    // Writes what is pending and stops the threads; the singleton lives as long as the app
+    void close() {
+        flush();
+        // Nothing is left to write, so delayed flushes can be dropped
+        writer.shutdownNow();
+        loader.shutdownNow();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        WatchService current;
+        synchronized (this) {
+            current = watcher;
+            watcher = null;
+        }
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Called with the portfolio id after a file changed on disk was reloaded or removed,
+    // on the watcher thread
+    public void addChangeListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    // Called with the portfolio id when it could not be written, once until a write succeeds
+    // again; on the writer thread
+    public void addSaveFailureListener(Consumer<String> listener) {
+        failureListeners.add(listener);
+    }
+
+    public void removeSaveFailureListener(Consumer<String> listener) {
+        failureListeners.remove(listener);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+
+        // Headers whose files have not changed since the index was written are used as they are;
+        // the rest (new files, edits made while the app was closed, a missing index) are loaded now
+        Map<String, PortfolioHeader> indexed = new HashMap<>();
+        for (PortfolioHeader header : persistenceService.loadIndex()) {
+            indexed.put(header.getId(), header);
+        }
+        List<String> ids = persistenceService.listPortfolioIds();
+        List<FutureTask<Portfolio>> stale = new ArrayList<>();
+        for (String id : ids) {
+            PortfolioHeader header = indexed.get(id);
+            String stamp = persistenceService.getFileStamp(id);
+            if (header != null && stamp != null && stamp.equals(header.getFileStamp())) {
+                headers.put(id, header);
+            } else {
+                FutureTask<Portfolio> task = new FutureTask<>(() -> persistenceService.loadPortfolio(id));
+                loader.execute(task);
+                stale.add(task);
+            }
+        }
+        for (FutureTask<Portfolio> task : stale) {
+            Portfolio portfolio = await(task);
+            if (portfolio != null) {
+                portfolios.put(portfolio.getId(), portfolio);
+                index(portfolio);
+                headers.put(portfolio.getId(), PortfolioHeader.of(portfolio, persistenceService.getLastModified(portfolio.getId()))
+                        .withFileStamp(persistenceService.getFileStamp(portfolio.getId())));
+            }
+        }
+        if (!stale.isEmpty() || indexed.size() != headers.size()) {
+            indexChanged = true;
+            scheduleFlush();
+        }
+
+        for (String id : headers.keySet()) {
+            if (!portfolios.containsKey(id)) {
+                FutureTask<Portfolio> task = newLoadTask(id);
+                loading.put(id, task);
+                loader.execute(task);
+            }
+        }
+        startWatcher();
+    }
+
+    private FutureTask<Portfolio> newLoadTask(String id) {
+        return new FutureTask<>(() -> {
+            Portfolio portfolio = null;
+            try {
+                portfolio = persistenceService.loadPortfolio(id);
+            } catch (RuntimeException e) {
+                System.err.println("Skipping corrupted file: " + id);
+            }
+            synchronized (this) {
+                loading.remove(id);
+                Portfolio current = portfolios.get(id);
+                // Saved, reloaded or deleted while this was reading the file
+                if (current != null || !headers.containsKey(id)) {
+                    return current;
+                }
+                if (portfolio != null) {
+                    portfolios.put(id, portfolio);
+                    index(portfolio);
+                }
+                return portfolio;
+            }
+        });
+    }
+
+    private static Portfolio await(FutureTask<Portfolio> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return null;
+        }
+    }
+
+    // Called with the lock held; the file stamp is filled in once the writer has written it
+    private void touch(Portfolio portfolio) {
+        headers.put(portfolio.getId(), PortfolioHeader.of(portfolio, LocalDateTime.now()));
+        indexChanged = true;
+    }
+
+    private void index(Portfolio portfolio) {
+        unindex(portfolio.getId());
+        List<Asset> assets = new ArrayList<>(portfolio.getAssets());
+        for (Asset asset : assets) {
+            assetsByTicker.computeIfAbsent(asset.getTicker().toUpperCase(), t -> new ArrayList<>()).add(asset);
+        }
+        indexedAssets.put(portfolio.getId(), assets);
+    }
+
+    private void unindex(String id) {
+        List<Asset> assets = indexedAssets.remove(id);
+        if (assets == null) return;
+        for (Asset asset : assets) {
+            String ticker = asset.getTicker().toUpperCase();
+            List<Asset> withTicker = assetsByTicker.get(ticker);
+            if (withTicker != null) {
+                withTicker.removeIf(a -> a == asset);
+                if (withTicker.isEmpty()) {
+                    assetsByTicker.remove(ticker);
+                }
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void scheduleFlush() {
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::flushDirty, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushDirty() {
+        List<Portfolio> snapshots = new ArrayList<>();
+        Map<Portfolio, List<String>> appends = new LinkedHashMap<>();
+        boolean writeIndex;
+        synchronized (this) {
+            flushScheduled = false;
+            for (String id : dirty) {
+                Portfolio portfolio = portfolios.get(id);
+                if (portfolio != null) {
+                    snapshots.add(portfolio);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : pendingRecords.entrySet()) {
+                Portfolio portfolio = portfolios.get(entry.getKey());
+                if (portfolio != null) {
+                    appends.put(portfolio, entry.getValue());
+                }
+            }
+            dirty.clear();
+            pendingRecords.clear();
+            writeIndex = indexChanged;
+            indexChanged = false;
+        }
+        write(snapshots);
+        for (Map.Entry<Portfolio, List<String>> entry : appends.entrySet()) {
+            appendRecords(entry.getKey(), entry.getValue());
+        }
+        if (writeIndex) {
+            writeIndex(snapshots, appends.keySet());
+        }
+        synchronized (this) {
+            if (failing.isEmpty()) {
+                failedFlushes = 0;
+            } else {
+                // 0.6s, 1.2s, 2.4s, ... up to half a minute between attempts
+                failedFlushes++;
+                scheduleFlush(Math.min(FLUSH_DELAY_MS << Math.min(failedFlushes, 10), MAX_RETRY_DELAY_MS));
+            }
+        }
+    }
+
+    // Stamps the headers of what was just written so the next startup can trust them
+    private void writeIndex(List<Portfolio> snapshots, Collection<Portfolio> appended) {
+        List<Portfolio> written = new ArrayList<>(snapshots);
+        written.addAll(appended);
+        List<PortfolioHeader> index;
+        synchronized (this) {
+            for (Portfolio portfolio : written) {
+                PortfolioHeader header = headers.get(portfolio.getId());
+                // A failed one keeps its unstamped header, so the next startup reads the file
+                if (header != null && !failing.contains(portfolio.getId())) {
+                    headers.put(portfolio.getId(), header.withFileStamp(persistenceService.getFileStamp(portfolio.getId())));
+                }
+            }
+            index = new ArrayList<>(headers.values());
+        }
+        persistenceService.saveIndex(index);
+    }
+
+    private void appendRecords(Portfolio portfolio, List<String> records) {
+        String id = portfolio.getId();
+        // Like a snapshot write: the watcher must not load the journal while a line is half written
+        writing.add(id);
+        boolean appended;
+        try {
+            appended = persistenceService.appendJournal(id, records);
+            if (appended) {
+                // Before the id leaves writing, or the watcher would take the append for someone else's
+                writtenAt.put(id, stampOf(id));
+            }
+        } finally {
+            writing.remove(id);
+        }
+        if (!appended) {
+            write(List.of(portfolio));
+            return;
+        }
+        // {journal bytes, snapshot bytes}; read from disk the first time this portfolio is appended to
+        long[] sizes = journalSizes.computeIfAbsent(id, key -> new long[]{0, snapshotSize(key)});
+        sizes[0] = persistenceService.getJournalSize(id);
+        // Compact once replaying the journal would cost a sizeable fraction of reading the snapshot
+        if (sizes[0] > Math.max(COMPACT_MIN_BYTES, sizes[1] / 2)) {
+            write(List.of(portfolio));
+        }
+    }
+
+    private long snapshotSize(String id) {
+        try {
+            Path path = persistenceService.getPortfolioFile(id);
+            return path != null ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // All files of one flush go to disk as a single batch, sharing the directory sync
+    private void write(List<Portfolio> snapshots) {
+        if (snapshots.isEmpty()) return;
+        Map<Portfolio, Long> versions = new HashMap<>();
+        for (Portfolio portfolio : snapshots) {
+            versions.put(portfolio, portfolio.getVersion());
+            writing.add(portfolio.getId());
+        }
+        try {
+            Map<Portfolio, Path> written = persistenceService.savePortfolios(snapshots);
+            for (Portfolio portfolio : snapshots) {
+                String id = portfolio.getId();
+                Path path = written.get(portfolio);
+                if (path != null) {
+                    failing.remove(id);
+                    writtenAt.put(id, stampOf(id));
+                    try {
+                        journalSizes.put(id, new long[]{0, Files.size(path)});
+                    } catch (IOException e) {
+                        journalSizes.remove(id);
+                    }
+                } else {
+                    writtenAt.remove(id);
+                    requeue(portfolio, portfolio.getVersion() != versions.get(portfolio));
+                }
+            }
+        } finally {
+            for (Portfolio portfolio : snapshots) {
+                writing.remove(portfolio.getId());
+            }
+        }
+    }
+
+    // Puts a portfolio that could not be written back in the queue; flushDirty schedules the retry.
+    // Edits it gets in the meantime go into the same snapshot.
+    private void requeue(Portfolio portfolio, boolean editedWhileWriting) {
+        String id = portfolio.getId();
+        synchronized (this) {
+            // Replaced or deleted since; whatever took its place is queued on its own
+            if (portfolios.get(id) != portfolio) return;
+            dirty.add(id);
+            pendingRecords.remove(id);
+            if (editedWhileWriting) {
+                scheduleFlush();
+            }
+        }
+        if (editedWhileWriting) {
+            // Usually the portfolio being edited while it was serialized; nothing worth reporting
+            System.err.println("Portfolio " + id + " changed while being saved, retrying");
+            return;
+        }
+        System.err.println("Failed to save portfolio " + id + ", retrying");
+        if (failing.add(id)) {
+            for (Consumer<String> listener : failureListeners) {
+                listener.accept(id);
+            }
+        }
+    }
+
+    // Called with the lock held; the service is kept so close() can stop the thread
+    private void startWatcher() {
+        Path directory = persistenceService.getPortfoliosDirectory();
+        WatchService started;
+        try {
+            started = directory.getFileSystem().newWatchService();
+            directory.register(started, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("Not watching " + directory + " for changes: " + e.getMessage());
+            return;
+        }
+        watcher = started;
+        Thread thread = new Thread(() -> watch(started), "portfolio-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch(WatchService watcher) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+                // One save often arrives as several events; let them settle into a single reload
+                Thread.sleep(WATCH_SETTLE_MS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Set<String> changed = new LinkedHashSet<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost; check every portfolio we know of or can see
+                    changed.addAll(persistenceService.listPortfolioIds());
+                    synchronized (this) {
+                        changed.addAll(headers.keySet());
+                    }
+                    continue;
+                }
+                String fileName = ((Path) event.context()).getFileName().toString();
+                String id = persistenceService.portfolioIdOf(fileName);
+                if (id == null) {
+                    // Another instance appending edits only touches the journal
+                    id = persistenceService.journalIdOf(fileName);
+                }
+                if (id != null) {
+                    changed.add(id);
+                }
+            }
+            if (!key.reset()) {
+                System.err.println("Stopped watching portfolio directory");
+                return;
+            }
+            for (String id : changed) {
+                try {
+                    reload(id);
+                } catch (RuntimeException e) {
+                    // Often a file caught halfway through being written; its next event retries
+                    System.err.println("Could not reload portfolio " + id + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void reload(String id) {
+        if (writing.contains(id) || isOwnWrite(id)) return;
+        Path path = persistenceService.getPortfolioFile(id);
+
+        Portfolio fresh = path != null ? persistenceService.loadPortfolio(id) : null;
+        synchronized (this) {
+            // Unsaved local edits win; they are written over the file on the next flush
+            if (dirty.contains(id) || pendingRecords.containsKey(id)) return;
+            if (fresh == null) {
+                if (headers.remove(id) == null) return;
+                portfolios.remove(id);
+                unindex(id);
+            } else {
+                portfolios.put(id, fresh);
+                index(fresh);
+                headers.put(id, PortfolioHeader.of(fresh, persistenceService.getLastModified(id))
+                        .withFileStamp(persistenceService.getFileStamp(id)));
+            }
+            indexChanged = true;
+            scheduleFlush();
+        }
+        for (Consumer<String> listener : listeners) {
+            listener.accept(id);
+        }
+    }
+
+    // Covers the journal too, so a portfolio only appended to this session is not reloaded
+    // (and swapped for a new instance under the UI) when an overflow rechecks everything
+    private boolean isOwnWrite(String id) {
+        String written = writtenAt.get(id);
+        return written != null && written.equals(persistenceService.getFileStamp(id));
+    }
+
+    // Empty when there is no file, which never matches a stamp
+    private String stampOf(String id) {
+        String stamp = persistenceService.getFileStamp(id);
+        return stamp != null ? stamp : "";
+    }
+}
@@ -3,7 +3,9 @@ package com.portfoliotracker.service;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvException;
 import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
 import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioHeader;
 import com.portfoliotracker.model.Transaction;
 import com.portfoliotracker.model.enums.AssetType;
 import com.portfoliotracker.model.enums.TransactionType;
@@ -13,15 +15,17 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class PortfolioService {
     private static PortfolioService instance;
-    private final PersistenceService persistenceService;
+    private final PortfolioRepository repository;
     private final MarketDataService marketDataService;
 
     private PortfolioService() {
-        this.persistenceService = PersistenceService.getInstance();
+        this.repository = PortfolioRepository.getInstance();
         this.marketDataService = MarketDataService.getInstance();
     }
 
@@ -34,41 +38,52 @@ public class PortfolioService {
 
     public Portfolio createPortfolio(String name, String description, String currency) {
         Portfolio portfolio = new Portfolio(name, description, currency);
-        persistenceService.savePortfolio(portfolio);
+        repository.save(portfolio);
         return portfolio;
     }
 
     public Portfolio getPortfolio(String id) {
-        return persistenceService.loadPortfolio(id);
+        return repository.get(id);
     }
 
     public List<Portfolio> getAllPortfolios() {
-        return persistenceService.loadAllPortfolios();
+        return repository.getAll();
+    }
+
+    // Names and counts only; use this where the full portfolios are not needed
+    public List<PortfolioHeader> getPortfolioHeaders() {
+        return repository.getHeaders();
+    }
+
+    public List<Asset> getAssetsByTicker(String ticker) {
+        return repository.getAssetsByTicker(ticker);
     }
 
     public void updatePortfolio(Portfolio portfolio) {
-        persistenceService.savePortfolio(portfolio);
+        repository.save(portfolio);
     }
 
     public void deletePortfolio(String id) {
-        persistenceService.deletePortfolio(id);
+        repository.delete(id);
     }
 
     public Portfolio clonePortfolio(String id) {
         Portfolio original = getPortfolio(id);
         if (original != null) {
             Portfolio cloned = original.clone();
-            persistenceService.savePortfolio(cloned);
+            repository.save(cloned);
             return cloned;
         }
         return null;
     }
 
+    // Single edits go through these so only a small journal record is written, not the portfolio
+
     public void addAssetToPortfolio(String portfolioId, Asset asset) {
         Portfolio portfolio = getPortfolio(portfolioId);
         if (portfolio != null) {
             portfolio.addAsset(asset);
-            updatePortfolio(portfolio);
+            repository.append(portfolio, PortfolioJournal.Record.addAsset(asset));
         }
     }
 
@@ -76,7 +91,7 @@ public class PortfolioService {
         Portfolio portfolio = getPortfolio(portfolioId);
         if (portfolio != null) {
             portfolio.removeAsset(assetId);
-            updatePortfolio(portfolio);
+            repository.append(portfolio, PortfolioJournal.Record.removeAsset(assetId));
         }
     }
 
@@ -86,29 +101,60 @@ public class PortfolioService {
             Asset asset = portfolio.getAssetById(assetId);
             if (asset != null) {
                 asset.addTransaction(transaction);
-                updatePortfolio(portfolio);
+                repository.append(portfolio, PortfolioJournal.Record.addTransaction(assetId, transaction));
             }
         }
     }
 
-    public double calculatePortfolioValue(String portfolioId, String currency) {
+    public void removeTransaction(String portfolioId, String assetId, String transactionId) {
         Portfolio portfolio = getPortfolio(portfolioId);
-        if (portfolio == null) return 0;
+        if (portfolio != null) {
+            Asset asset = portfolio.getAssetById(assetId);
+            if (asset != null) {
+                asset.removeTransaction(transactionId);
+                repository.append(portfolio, PortfolioJournal.Record.removeTransaction(assetId, transactionId));
+            }
+        }
+    }
 
-        double totalValue = 0;
-        for (Asset asset : portfolio.getAssets()) {
-            double price = marketDataService.getPrice(asset.getTicker(), asset.getType(), currency);
-            totalValue += asset.getTotalQuantity() * price;
+    public void renamePortfolio(String portfolioId, String name, String description) {
+        Portfolio portfolio = getPortfolio(portfolioId);
+        if (portfolio != null) {
+            portfolio.setName(name);
+            portfolio.setDescription(description);
+            repository.append(portfolio, PortfolioJournal.Record.updateDetails(name, description, null));
         }
-        return totalValue;
+    }
+
+    public void changeCurrency(String portfolioId, String currency) {
+        Portfolio portfolio = getPortfolio(portfolioId);
+        if (portfolio != null) {
+            portfolio.setCurrency(currency);
+            repository.append(portfolio, PortfolioJournal.Record.updateDetails(null, null, currency));
+        }
+    }
+
+    public double calculatePortfolioValue(String portfolioId, String currency) {
+        Portfolio portfolio = getPortfolio(portfolioId);
+        if (portfolio == null) return 0;
+        return valueAt(portfolio, currency);
     }
 
     public double calculatePortfolioValue(Portfolio portfolio) {
         if (portfolio == null) return 0;
+        return valueAt(portfolio, portfolio.getCurrency());
+    }
+
+    private double valueAt(Portfolio portfolio, String currency) {
+        List<AssetKey> keys = new ArrayList<>();
+        for (Asset asset : portfolio.getAssets()) {
+            keys.add(AssetKey.of(asset));
+        }
+        Map<AssetKey, Double> prices = marketDataService.getPrices(keys, currency);
 
         double totalValue = 0;
         for (Asset asset : portfolio.getAssets()) {
-            double price = marketDataService.getPrice(asset.getTicker(), asset.getType(), portfolio.getCurrency());
+            double price = prices.getOrDefault(AssetKey.of(asset), 0.0);
             totalValue += asset.getTotalQuantity() * price;
         }
         return totalValue;
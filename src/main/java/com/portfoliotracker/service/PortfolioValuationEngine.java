@@ -0,0 +1,214 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
+import com.portfoliotracker.model.PriceSeries;
+import com.portfoliotracker.model.QuantitySchedule;
+import com.portfoliotracker.model.enums.ValuationMode;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+// Adds up the value of many price series that do not share timestamps (daily stock bars
+// without weekends next to 4h crypto candles). Series are merged on time with a min-heap
+// over their cursors, and every asset contributes its last known price (forward fill).
+// Quantities are step functions of time (QuantitySchedule); their steps sit in the same heap,
+// so a buy between two candles counts from the next point on. The output starts at the
+// latest first timestamp so every point prices the whole portfolio.
+public class PortfolioValuationEngine {
+    private static PortfolioValuationEngine instance;
+
+    // Scratch buffers, grown as needed and kept between calls. Heap entries below count are
+    // price cursors, entries from count up are quantity-step cursors of the same asset.
+    private PriceSeries[] series = new PriceSeries[16];
+    private QuantitySchedule[] schedules = new QuantitySchedule[16];
+    private double[] quantities = new double[16];
+    private int[] cursors = new int[32];
+    private long[] headTimes = new long[32];
+    private double[] lastPrices = new double[16];
+    private int[] heap = new int[32];
+    private long[] outTimes = new long[1024];
+    private double[] outValues = new double[1024];
+
+    private PortfolioValuationEngine() {
+    }
+
+    public static PortfolioValuationEngine getInstance() {
+        if (instance == null) {
+            instance = new PortfolioValuationEngine();
+        }
+        return instance;
+    }
+
+    public PriceSeries valueHistory(Map<String, PriceSeries> assetHistory, Map<String, Double> quantitiesByTicker) {
+        PriceSeries[] inputs = new PriceSeries[assetHistory.size()];
+        QuantitySchedule[] qty = new QuantitySchedule[assetHistory.size()];
+        int n = 0;
+        for (Map.Entry<String, PriceSeries> entry : assetHistory.entrySet()) {
+            inputs[n] = entry.getValue();
+            qty[n] = QuantitySchedule.constant(quantitiesByTicker.getOrDefault(entry.getKey(), 0.0));
+            n++;
+        }
+        return valueHistory(inputs, qty);
+    }
+
+    // Values the assets with the quantity they hold today, or with what they held at each
+    // point in time. Assets without a history in the map are left out. Keyed by AssetKey because
+    // a stock and a coin in the same portfolio can share a ticker.
+    public PriceSeries valueHistory(Collection<Asset> assets, Map<AssetKey, PriceSeries> historyByAsset, ValuationMode mode) {
+        PriceSeries[] inputs = new PriceSeries[assets.size()];
+        QuantitySchedule[] qty = new QuantitySchedule[assets.size()];
+        int n = 0;
+        for (Asset asset : assets) {
+            inputs[n] = historyByAsset.get(AssetKey.of(asset));
+            qty[n] = mode == ValuationMode.HISTORICAL_HOLDINGS
+                    ? asset.getQuantitySchedule()
+                    : QuantitySchedule.constant(asset.getTotalQuantity());
+            n++;
+        }
+        return valueHistory(inputs, qty);
+    }
+
+    public PriceSeries valueHistory(PriceSeries[] inputs, double[] inputQuantities) {
+        QuantitySchedule[] qty = new QuantitySchedule[inputQuantities.length];
+        for (int i = 0; i < qty.length; i++) {
+            qty[i] = QuantitySchedule.constant(inputQuantities[i]);
+        }
+        return valueHistory(inputs, qty);
+    }
+
+    // Synchronized because the scratch buffers are shared; a call is a few milliseconds even
+    // for hundreds of assets, so callers never wait long
+    public synchronized PriceSeries valueHistory(PriceSeries[] inputs, QuantitySchedule[] inputQuantities) {
+        int count = collect(inputs, inputQuantities);
+        if (count == 0) return PriceSeries.EMPTY;
+
+        long start = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            start = Math.max(start, series[i].firstTime());
+        }
+
+        // Price every asset as of the start, then merge only what comes after it
+        double total = 0;
+        int remaining = 0;
+        int heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            PriceSeries s = series[i];
+            int index = s.indexAtOrBefore(start);
+            lastPrices[i] = s.priceAt(index);
+            quantities[i] = schedules[i].quantityAt(start);
+            total += lastPrices[i] * quantities[i];
+            cursors[i] = index + 1;
+            remaining += s.size() - cursors[i];
+            if (cursors[i] < s.size()) {
+                headTimes[i] = s.timeAt(cursors[i]);
+                heap[heapSize++] = i;
+            }
+            int step = schedules[i].indexAtOrBefore(start) + 1;
+            if (step < schedules[i].stepCount()) {
+                cursors[count + i] = step;
+                headTimes[count + i] = schedules[i].stepTime(step);
+                heap[heapSize++] = count + i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i, heapSize);
+        }
+
+        ensureOutput(remaining + 1);
+        int size = 0;
+        outTimes[size] = start;
+        outValues[size++] = total;
+
+        while (heapSize > 0) {
+            long time = headTimes[heap[0]];
+            boolean priced = false;
+            // Apply everything that happens at this time before emitting
+            while (heapSize > 0 && headTimes[heap[0]] == time) {
+                int entry = heap[0];
+                boolean more;
+                if (entry < count) {
+                    PriceSeries s = series[entry];
+                    double price = s.priceAt(cursors[entry]);
+                    total += (price - lastPrices[entry]) * quantities[entry];
+                    lastPrices[entry] = price;
+                    more = ++cursors[entry] < s.size();
+                    if (more) headTimes[entry] = s.timeAt(cursors[entry]);
+                    priced = true;
+                } else {
+                    int i = entry - count;
+                    QuantitySchedule schedule = schedules[i];
+                    double quantity = schedule.quantityAfterStep(cursors[entry]);
+                    total += (quantity - quantities[i]) * lastPrices[i];
+                    quantities[i] = quantity;
+                    more = ++cursors[entry] < schedule.stepCount();
+                    if (more) headTimes[entry] = schedule.stepTime(cursors[entry]);
+                }
+                if (!more) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(0, heapSize);
+            }
+            // Quantity steps alone do not add a point; they show up at the next price
+            if (priced) {
+                outTimes[size] = time;
+                outValues[size++] = total;
+            }
+        }
+
+        // Drop the references so the scratch arrays do not keep callers' data alive
+        Arrays.fill(series, 0, count, null);
+        Arrays.fill(schedules, 0, count, null);
+        return new PriceSeries(Arrays.copyOf(outTimes, size), Arrays.copyOf(outValues, size));
+    }
+
+    // Copies the usable inputs into the scratch arrays and returns how many there are
+    private int collect(PriceSeries[] inputs, QuantitySchedule[] inputQuantities) {
+        ensureCapacity(inputs.length);
+        int count = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i] == null || inputs[i].isEmpty()
+                    || inputQuantities[i] == null || inputQuantities[i].isEmpty()) continue;
+            series[count] = inputs[i];
+            schedules[count] = inputQuantities[i];
+            count++;
+        }
+        return count;
+    }
+
+    private void siftDown(int pos, int heapSize) {
+        int item = heap[pos];
+        long key = headTimes[item];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && headTimes[heap[child + 1]] < headTimes[heap[child]]) {
+                child++;
+            }
+            if (headTimes[heap[child]] >= key) break;
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = item;
+    }
+
+    private void ensureCapacity(int n) {
+        if (series.length >= n) return;
+        int capacity = Math.max(n, series.length * 2);
+        series = new PriceSeries[capacity];
+        schedules = new QuantitySchedule[capacity];
+        quantities = new double[capacity];
+        cursors = new int[capacity * 2];
+        headTimes = new long[capacity * 2];
+        lastPrices = new double[capacity];
+        heap = new int[capacity * 2];
+    }
+
+    private void ensureOutput(int n) {
+        if (outTimes.length >= n) return;
+        int capacity = Math.max(n, outTimes.length * 2);
+        outTimes = new long[capacity];
+        outValues = new double[capacity];
+    }
+}
@@ -0,0 +1,360 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.PriceSeries;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.util.DurableFileWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Append-only columnar store for price history. Each ticker/type/currency/interval partition is
+// three files: <key>.ts (epoch millis, 8 bytes each), <key>.px (prices, 8 bytes each) and
+// <key>.meta (covered-from and last-sync timestamps). Columns are read through memory maps.
+// A full rewrite goes to new column files (<key>.<generation>.ts/.px) that the meta file then
+// points to, because a mapped file cannot be deleted or truncated on Windows. Columns of older
+// generations are deleted once unmapped, at the latest on the next start.
+public class PriceHistoryStore {
+    private static PriceHistoryStore instance;
+    private static final String STORE_PATH = "data/timeseries";
+    private static final Pattern COLUMN_FILE = Pattern.compile("(.+?)(?:\\.(\\d+))?\\.(ts|px)");
+    private static final DurableFileWriter META_WRITER = new DurableFileWriter(0);
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    private PriceHistoryStore() {
+        try {
+            Files.createDirectories(Paths.get(STORE_PATH));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        deleteOldGenerations();
+        deleteUntypedPartitions();
+    }
+
+    // Nothing is mapped yet at startup, so column files left over from a replace can go now
+    private void deleteOldGenerations() {
+        try (Stream<Path> files = Files.list(Paths.get(STORE_PATH))) {
+            files.forEach(file -> {
+                Matcher matcher = COLUMN_FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) return;
+                long[] meta = Partition.readMeta(Paths.get(STORE_PATH, matcher.group(1) + ".meta"));
+                // Without a meta file the generation in use is unknown, so keep everything
+                if (meta == null) return;
+                long generation = matcher.group(2) != null ? Long.parseLong(matcher.group(2)) : 0;
+                if (generation != meta[2]) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        System.err.println("Cannot delete old time-series file " + file + ": " + e.getMessage());
+                    }
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Time-series cleanup failed: " + e.getMessage());
+        }
+    }
+
+    // Partitions written before the key had the asset type may hold either asset of a shared
+    // ticker; they are only a cache, so they are dropped and fetched again under the new key
+    private void deleteUntypedPartitions() {
+        try (Stream<Path> files = Files.list(Paths.get(STORE_PATH))) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                Matcher matcher = COLUMN_FILE.matcher(name);
+                String key;
+                if (matcher.matches()) {
+                    key = matcher.group(1);
+                } else if (name.endsWith(".meta")) {
+                    key = name.substring(0, name.length() - ".meta".length());
+                } else {
+                    return;
+                }
+                if (isTyped(key)) return;
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Cannot delete old time-series file " + file + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Time-series cleanup failed: " + e.getMessage());
+        }
+    }
+
+    // <ticker>_<type>_<currency>_<interval>; the ticker itself may contain underscores
+    private static boolean isTyped(String key) {
+        String[] parts = key.split("_");
+        if (parts.length < 4) return false;
+        for (AssetType type : AssetType.values()) {
+            if (type.name().equals(parts[parts.length - 3])) return true;
+        }
+        return false;
+    }
+
+    public static PriceHistoryStore getInstance() {
+        if (instance == null) {
+            instance = new PriceHistoryStore();
+        }
+        return instance;
+    }
+
+    public Range getRange(String ticker, AssetType type, String currency, String interval) {
+        Partition partition = partition(ticker, type, currency, interval);
+        synchronized (partition) {
+            long[] meta = partition.readMeta();
+            if (meta == null || partition.size() == 0) {
+                return null;
+            }
+            return new Range(meta[0], meta[1]);
+        }
+    }
+
+    public PriceSeries read(String ticker, AssetType type, String currency, String interval, long fromMillis) {
+        Partition partition = partition(ticker, type, currency, interval);
+        synchronized (partition) {
+            try {
+                partition.map();
+                LongBuffer times = partition.times;
+                DoubleBuffer prices = partition.prices;
+                int count = Math.min(times.limit(), prices.limit());
+                int start = lowerBound(times, count, fromMillis);
+                // Bulk copies straight out of the mapped columns
+                long[] epochMillis = new long[count - start];
+                double[] values = new double[count - start];
+                times.get(start, epochMillis);
+                prices.get(start, values);
+                return new PriceSeries(epochMillis, values);
+            } catch (IOException e) {
+                System.err.println("Time-series read error for " + partition.key + ": " + e.getMessage());
+            }
+        }
+        return PriceSeries.EMPTY;
+    }
+
+    public void append(String ticker, AssetType type, String currency, String interval, PriceSeries history, long coveredFrom) {
+        if (history == null || history.isEmpty()) return;
+        Partition partition = partition(ticker, type, currency, interval);
+        synchronized (partition) {
+            try {
+                partition.append(history);
+                long[] meta = partition.readMeta();
+                long from = meta != null ? Math.min(meta[0], coveredFrom) : coveredFrom;
+                partition.writeMeta(from, System.currentTimeMillis());
+            } catch (IOException e) {
+                System.err.println("Time-series write error for " + partition.key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Rewrites the whole partition, for when a longer fetch extended the series backwards
+    public void replace(String ticker, AssetType type, String currency, String interval, PriceSeries history, long coveredFrom) {
+        if (history == null || history.isEmpty()) return;
+        Partition partition = partition(ticker, type, currency, interval);
+        synchronized (partition) {
+            try {
+                partition.replace(history, coveredFrom);
+            } catch (IOException e) {
+                System.err.println("Time-series write error for " + partition.key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // A stock and a coin can share a ticker, so the type is part of the key
+    private Partition partition(String ticker, AssetType type, String currency, String interval) {
+        String key = (ticker + "_" + type + "_" + currency + "_" + interval).toUpperCase().replaceAll("[^A-Z0-9_.-]", "_");
+        return partitions.computeIfAbsent(key, Partition::new);
+    }
+
+    private static int lowerBound(LongBuffer times, int count, long value) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times.get(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static class Partition {
+        final String key;
+        final Path metaPath;
+        long generation;
+        Path timesPath;
+        Path pricesPath;
+        LongBuffer times;
+        DoubleBuffer prices;
+
+        Partition(String key) {
+            this.key = key;
+            this.metaPath = Paths.get(STORE_PATH, key + ".meta");
+            long[] meta = readMeta();
+            useGeneration(meta != null ? meta[2] : 0);
+        }
+
+        // Generation 0 keeps the original file names
+        private void useGeneration(long generation) {
+            this.generation = generation;
+            String base = generation == 0 ? key : key + "." + generation;
+            this.timesPath = Paths.get(STORE_PATH, base + ".ts");
+            this.pricesPath = Paths.get(STORE_PATH, base + ".px");
+            times = null;
+            prices = null;
+        }
+
+        int size() {
+            try {
+                if (!Files.exists(timesPath) || !Files.exists(pricesPath)) return 0;
+                return (int) (Math.min(Files.size(timesPath), Files.size(pricesPath)) / Long.BYTES);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        void map() throws IOException {
+            if (times != null) return;
+            times = mapFile(timesPath).asLongBuffer();
+            prices = mapFile(pricesPath).asDoubleBuffer();
+        }
+
+        private static ByteBuffer mapFile(Path path) throws IOException {
+            if (!Files.exists(path)) {
+                return ByteBuffer.allocate(0);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long length = channel.size() - channel.size() % Long.BYTES;
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        }
+
+        void append(PriceSeries history) throws IOException {
+            appendTo(timesPath, pricesPath, history, false);
+            times = null;
+            prices = null;
+        }
+
+        // Writes the series into fresh column files and switches to them with the meta file, so
+        // the current files are never truncated or deleted while they may still be mapped
+        void replace(PriceSeries history, long coveredFrom) throws IOException {
+            Path oldTimes = timesPath;
+            Path oldPrices = pricesPath;
+            long next = generation + 1;
+            String base = key + "." + next;
+            Path newTimes = Paths.get(STORE_PATH, base + ".ts");
+            Path newPrices = Paths.get(STORE_PATH, base + ".px");
+            // Leftovers of a replace that crashed before its meta was written
+            Files.deleteIfExists(newTimes);
+            Files.deleteIfExists(newPrices);
+            appendTo(newTimes, newPrices, history, true);
+            writeMeta(coveredFrom, System.currentTimeMillis(), next);
+            useGeneration(next);
+            try {
+                Files.deleteIfExists(oldTimes);
+                Files.deleteIfExists(oldPrices);
+            } catch (IOException e) {
+                // Still mapped somewhere (Windows); removed on the next start
+            }
+        }
+
+        // Points at or before the last stored timestamp are skipped, except the last one
+        // itself, which is rewritten in place because the newest candle is still open.
+        private static void appendTo(Path timesPath, Path pricesPath, PriceSeries history, boolean force)
+                throws IOException {
+            try (FileChannel timeChannel = FileChannel.open(timesPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel priceChannel = FileChannel.open(pricesPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long rows = Math.min(timeChannel.size(), priceChannel.size()) / Long.BYTES;
+                long lastTime = Long.MIN_VALUE;
+                if (rows > 0) {
+                    ByteBuffer last = ByteBuffer.allocate(Long.BYTES);
+                    timeChannel.read(last, (rows - 1) * Long.BYTES);
+                    lastTime = last.flip().getLong();
+                }
+
+                ByteBuffer timeBuf = ByteBuffer.allocate(history.size() * Long.BYTES);
+                ByteBuffer priceBuf = ByteBuffer.allocate(history.size() * Long.BYTES);
+                for (int i = 0; i < history.size(); i++) {
+                    long t = history.timeAt(i);
+                    if (t == lastTime) {
+                        priceChannel.write(ByteBuffer.allocate(Long.BYTES).putDouble(0, history.priceAt(i)), (rows - 1) * Long.BYTES);
+                    } else if (t > lastTime) {
+                        timeBuf.putLong(t);
+                        priceBuf.putDouble(history.priceAt(i));
+                        lastTime = t;
+                    }
+                }
+                timeBuf.flip();
+                priceBuf.flip();
+                // Truncate to the shorter column first so a torn previous write cannot misalign rows
+                timeChannel.truncate(rows * Long.BYTES);
+                priceChannel.truncate(rows * Long.BYTES);
+                timeChannel.write(timeBuf, rows * Long.BYTES);
+                priceChannel.write(priceBuf, rows * Long.BYTES);
+                if (force) {
+                    timeChannel.force(false);
+                    priceChannel.force(false);
+                }
+            }
+        }
+
+        long[] readMeta() {
+            return readMeta(metaPath);
+        }
+
+        // {covered-from, last sync, generation}; files from before generations have 16 bytes
+        static long[] readMeta(Path metaPath) {
+            try {
+                if (!Files.exists(metaPath)) return null;
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(metaPath));
+                if (buffer.remaining() < 2 * Long.BYTES) return null;
+                long coveredFrom = buffer.getLong();
+                long syncedAt = buffer.getLong();
+                long generation = buffer.remaining() >= Long.BYTES ? buffer.getLong() : 0;
+                return new long[]{coveredFrom, syncedAt, generation};
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        void writeMeta(long coveredFrom, long syncedAt) throws IOException {
+            writeMeta(coveredFrom, syncedAt, generation);
+        }
+
+        private void writeMeta(long coveredFrom, long syncedAt, long generation) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(3 * Long.BYTES).putLong(coveredFrom).putLong(syncedAt).putLong(generation);
+            META_WRITER.write(metaPath, buffer.array());
+        }
+    }
+
+    public static class Range {
+        private final long coveredFrom;
+        private final long syncedAt;
+
+        Range(long coveredFrom, long syncedAt) {
+            this.coveredFrom = coveredFrom;
+            this.syncedAt = syncedAt;
+        }
+
+        public long getCoveredFrom() {
+            return coveredFrom;
+        }
+
+        public long getSyncedAt() {
+            return syncedAt;
+        }
+    }
+}
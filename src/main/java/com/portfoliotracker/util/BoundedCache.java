@@ -0,0 +1,251 @@
+package com.portfoliotracker.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+// Size-bounded LRU cache with per-entry TTL. Each entry has a weight (1 by default) and the
+// least recently used entries are evicted once the total weight goes over the limit.
+// A ttl of 0 means entries never expire.
+public class BoundedCache<K, V> {
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final ToLongFunction<V> weigher;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight;
+
+    private long refreshAfterMillis;
+    private Function<K, CompletableFuture<?>> refresher;
+    // Keys with a refresh in flight, each with a token so a late completion cannot clear a newer one
+    private final Map<K, Object> refreshing = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public BoundedCache(long maxWeight, long ttlMillis) {
+        this(maxWeight, ttlMillis, value -> 1);
+    }
+
+    public BoundedCache(long maxWeight, long ttlMillis, ToLongFunction<V> weigher) {
+        this(maxWeight, ttlMillis, weigher, System::currentTimeMillis);
+    }
+
+    // The clock is only replaced in tests
+    BoundedCache(long maxWeight, long ttlMillis, ToLongFunction<V> weigher, LongSupplier clock) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+        this.weigher = weigher;
+        this.clock = clock;
+    }
+
+    // Once a hit is older than refreshAfterMillis the refresher is called so the value can be
+    // reloaded before it expires. It is not called again for the key until the future it returns
+    // completes (null when nothing was started), the key is put or the entry goes away.
+    // The refresher must not block.
+    public BoundedCache<K, V> refreshAhead(long refreshAfterMillis, Function<K, CompletableFuture<?>> refresher) {
+        this.refreshAfterMillis = refreshAfterMillis;
+        this.refresher = refresher;
+        return this;
+    }
+
+    public V get(K key) {
+        Entry<V> entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                removeEntry(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (refresher != null && age(entry) > refreshAfterMillis) {
+            refresh(key);
+        }
+        return entry.value;
+    }
+
+    private void refresh(K key) {
+        Object token = new Object();
+        if (refreshing.putIfAbsent(key, token) != null) return;
+        CompletableFuture<?> done;
+        try {
+            done = refresher.apply(key);
+        } catch (RuntimeException e) {
+            refreshing.remove(key, token);
+            throw e;
+        }
+        if (done == null) {
+            refreshing.remove(key, token);
+        } else {
+            done.whenComplete((value, error) -> refreshing.remove(key, token));
+        }
+    }
+
+    // Loads outside the lock, so two callers may both load; the first value stored wins
+    public V get(K key, Function<K, V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        V loaded = loader.apply(key);
+        if (loaded == null) {
+            return null;
+        }
+        V existing = putIfAbsent(key, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    public void put(K key, V value) {
+        synchronized (this) {
+            removeEntry(key);
+            Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value), clock.getAsLong());
+            entries.put(key, entry);
+            totalWeight += entry.weight;
+            evictIfNeeded();
+        }
+        refreshing.remove(key);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        synchronized (this) {
+            Entry<V> current = entries.get(key);
+            if (current != null && !isExpired(current)) {
+                return current.value;
+            }
+            put(key, value);
+            return null;
+        }
+    }
+
+    // Like Map.compute, but the function also sees expired values (null when absent).
+    // Returning null removes the entry.
+    public synchronized V compute(K key, BiFunction<K, V, V> function) {
+        Entry<V> current = entries.get(key);
+        V value = function.apply(key, current != null ? current.value : null);
+        if (value == null) {
+            removeEntry(key);
+        } else {
+            put(key, value);
+        }
+        return value;
+    }
+
+    public synchronized void remove(K key) {
+        removeEntry(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+        refreshing.clear();
+    }
+
+    // Drops every expired entry; lookups only expire the key they touch
+    public synchronized int cleanUp() {
+        int removed = 0;
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, Entry<V>> next = it.next();
+            Entry<V> entry = next.getValue();
+            if (isExpired(entry)) {
+                it.remove();
+                totalWeight -= entry.weight;
+                refreshing.remove(next.getKey());
+                removed++;
+            }
+        }
+        expirations.addAndGet(removed);
+        return removed;
+    }
+
+    private void removeEntry(K key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+            refreshing.remove(key);
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (totalWeight <= maxWeight) return;
+        cleanUp();
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        // Always keep the newest entry, even if it alone is over the limit
+        while (totalWeight > maxWeight && entries.size() > 1 && it.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = it.next();
+            it.remove();
+            totalWeight -= eldest.getValue().weight;
+            refreshing.remove(eldest.getKey());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return ttlMillis > 0 && age(entry) > ttlMillis;
+    }
+
+    private long age(Entry<?> entry) {
+        return clock.getAsLong() - entry.writtenAt;
+    }
+
+    boolean isRefreshing(K key) {
+        return refreshing.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return totalWeight;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpiredCount() {
+        return expirations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", weight=" + getWeight() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", expired=" + getExpiredCount();
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long writtenAt;
+
+        Entry(V value, long weight, long writtenAt) {
+            this.value = value;
+            this.weight = weight;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.portfoliotracker.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Replaces files so that a crash leaves either the old or the new content, never a mix: the new
+// content goes to a temp file next to the target, is forced to disk, and is then moved over the
+// target atomically. Files written in one batch share the directory sync at the end. With
+// backups enabled, the replaced version is kept as <file>.bak1 (and older ones as .bak2, ...).
+public class DurableFileWriter {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final int backupCount;
+
+    public DurableFileWriter(int backupCount) {
+        this.backupCount = backupCount;
+    }
+
+    // Streams the content, so large files need not be built in memory first
+    public interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    public void write(Path target, Body body) throws IOException {
+        try (Batch batch = batch()) {
+            batch.write(target, body);
+            batch.commit();
+        }
+    }
+
+    public void write(Path target, byte[] data) throws IOException {
+        write(target, out -> out.write(data));
+    }
+
+    public Batch batch() {
+        return new Batch();
+    }
+
+    // Appends and forces the data, e.g. for a log; no temp file since existing bytes are not touched
+    public static void append(Path target, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    public static Path backupFile(Path target, int generation) {
+        return target.resolveSibling(target.getFileName() + ".bak" + generation);
+    }
+
+    // Several files staged together and made visible by one commit. Staging the same target
+    // twice keeps only the last content.
+    public class Batch implements AutoCloseable {
+        private final Map<Path, Path> staged = new LinkedHashMap<>();
+        private final List<Path> committed = new ArrayList<>();
+
+        public void write(Path target, Body body) throws IOException {
+            Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+            staged.remove(target);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                body.writeTo(out);
+                out.flush();
+                channel.force(false);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            staged.put(target, temp);
+        }
+
+        // Returns the files that were replaced. On failure the ones before it are already in
+        // place and listed by getCommitted().
+        public List<Path> commit() throws IOException {
+            Set<Path> directories = new LinkedHashSet<>();
+            try {
+                for (Map.Entry<Path, Path> entry : staged.entrySet()) {
+                    Path target = entry.getKey();
+                    if (backupCount > 0 && Files.exists(target)) {
+                        rotateBackups(target);
+                    }
+                    moveAtomically(entry.getValue(), target);
+                    committed.add(target);
+                    directories.add(target.toAbsolutePath().getParent());
+                }
+            } finally {
+                staged.keySet().removeAll(committed);
+                for (Path directory : directories) {
+                    syncDirectory(directory);
+                }
+            }
+            return getCommitted();
+        }
+
+        public List<Path> getCommitted() {
+            return new ArrayList<>(committed);
+        }
+
+        // Drops whatever was staged but not committed
+        @Override
+        public void close() {
+            for (Path temp : staged.values()) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // Overwritten by the next write of the same file anyway
+                }
+            }
+            staged.clear();
+        }
+    }
+
+    // The current file becomes .bak1 through a hard link, so the target itself never disappears
+    private void rotateBackups(Path target) throws IOException {
+        Files.deleteIfExists(backupFile(target, backupCount));
+        for (int generation = backupCount - 1; generation >= 1; generation--) {
+            Path backup = backupFile(target, generation);
+            if (Files.exists(backup)) {
+                Files.move(backup, backupFile(target, generation + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Path first = backupFile(target, 1);
+        try {
+            Files.createLink(first, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, first, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Makes the renames themselves durable. Not possible on every platform (Windows refuses to
+    // open a directory), where the rename is left to the file system.
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort, see above
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.portfoliotracker.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Collapses concurrent loads of the same key into one upstream call:
+// the first caller runs the loader, the others wait for its result.
+public class SingleFlight<T> {
+    private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    public T execute(String key, Supplier<T> loader) {
+        Flight<T> flight = claim(key);
+        if (!flight.isOwner()) {
+            return await(flight);
+        }
+        try {
+            T value = loader.get();
+            complete(key, flight, value);
+            return value;
+        } catch (Throwable e) {
+            // Errors too, or the key stays in flight and every later caller waits forever
+            fail(key, flight, e);
+            throw e;
+        }
+    }
+
+    public CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> loader) {
+        Flight<T> flight = claim(key);
+        if (flight.isOwner()) {
+            try {
+                loader.get().whenComplete((value, error) -> {
+                    if (error != null) {
+                        fail(key, flight, error);
+                    } else {
+                        complete(key, flight, value);
+                    }
+                });
+            } catch (Throwable e) {
+                fail(key, flight, e);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        }
+        // Hand out a copy so one caller cannot complete the shared future for the others
+        return flight.future.copy();
+    }
+
+    public Flight<T> claim(String key) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            deduplicated.incrementAndGet();
+            return new Flight<>(existing, false);
+        }
+        return new Flight<>(created, true);
+    }
+
+    public T await(Flight<T> flight) {
+        try {
+            return flight.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    public void complete(String key, Flight<T> flight, T value) {
+        flight.future.complete(value);
+        inFlight.remove(key, flight.future);
+    }
+
+    public void fail(String key, Flight<T> flight, Throwable error) {
+        flight.future.completeExceptionally(error);
+        inFlight.remove(key, flight.future);
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    public static class Flight<T> {
+        private final CompletableFuture<T> future;
+        private final boolean owner;
+
+        Flight(CompletableFuture<T> future, boolean owner) {
+            this.future = future;
+            this.owner = owner;
+        }
+
+        public CompletableFuture<T> getFuture() {
+            return future;
+        }
+
+        public boolean isOwner() {
+            return owner;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.portfoliotracker.api;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarketDataParsersTest {
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    @Test
+    void testReadKlines() throws IOException {
+        String json = "[[1700000000000,\"1.0\",\"2.0\",\"0.5\",\"1.5\",\"100\",1700000899999],"
+                + "[1700000900000,\"1.5\",\"2.5\",\"1.0\",\"2.25\",\"80\",1700001799999]]";
+        CandleBuffer candles = MarketDataParsers.readKlines(reader(json));
+
+        assertEquals(2, candles.size());
+        assertEquals(1700000900000L, candles.timeAt(1));
+        assertEquals(2.25, candles.priceAt(1), 0.0001);
+    }
+
+    @Test
+    void testReadTickerPricesKeepsOnlyWanted() throws IOException {
+        String json = "[{\"symbol\":\"BTCUSDT\",\"price\":\"50000.1\"},{\"symbol\":\"FOOBAR\",\"price\":\"1\"},"
+                + "{\"price\":\"3000\",\"symbol\":\"ETHUSDT\"}]";
+        Map<String, Double> prices = MarketDataParsers.readTickerPrices(reader(json), Set.of("BTCUSDT", "ETHUSDT"));
+
+        assertEquals(2, prices.size());
+        assertEquals(50000.1, prices.get("BTCUSDT"), 0.0001);
+        assertEquals(3000, prices.get("ETHUSDT"), 0.0001);
+    }
+
+    @Test
+    void testReadChartSkipsNullCloses() throws IOException {
+        String json = "{\"chart\":{\"result\":[{\"meta\":{\"symbol\":\"AAPL\",\"regularMarketPrice\":190.0},"
+                + "\"timestamp\":[1700000000,1700086400,1700172800],"
+                + "\"indicators\":{\"quote\":[{\"open\":[1,2,3],\"close\":[189.5,null,191.25]}],"
+                + "\"adjclose\":[{\"adjclose\":[1,2,3]}]}}],\"error\":null}}";
+        CandleBuffer candles = MarketDataParsers.readChart(reader(json));
+
+        assertEquals(2, candles.size());
+        assertEquals(1700000000000L, candles.timeAt(0));
+        assertEquals(191.25, candles.priceAt(1), 0.0001);
+    }
+
+    @Test
+    void testReadChartWithoutResult() throws IOException {
+        String json = "{\"chart\":{\"result\":null,\"error\":{\"code\":\"Not Found\"}}}";
+
+        assertEquals(0, MarketDataParsers.readChart(reader(json)).size());
+    }
+}
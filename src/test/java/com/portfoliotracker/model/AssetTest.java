@@ -1,10 +1,15 @@
 package com.portfoliotracker.model;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.portfoliotracker.model.enums.AssetType;
 import com.portfoliotracker.model.enums.TransactionType;
+import com.portfoliotracker.util.LocalDateTimeAdapter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.junit.jupiter.api.Assertions.*;
 
 class AssetTest {
@@ -55,4 +60,117 @@ class AssetTest {
         assertEquals(0, asset.getAverageBuyPrice());
         assertEquals(0, asset.getTotalInvested());
     }
+
+    @Test
+    void testQuantityScheduleFollowsTransactionDates() {
+        LocalDateTime jan = LocalDateTime.of(2024, 1, 1, 0, 0);
+        asset.addTransaction(new Transaction(TransactionType.SELL, 0.5, 55000, jan.plusDays(20), 0, ""));
+        asset.addTransaction(new Transaction(TransactionType.BUY, 2.0, 50000, jan, 0, ""));
+        asset.addTransaction(new Transaction(TransactionType.REWARD, 0.1, 0, jan.plusDays(10), 0, ""));
+
+        QuantitySchedule schedule = asset.getQuantitySchedule();
+        assertEquals(0, schedule.quantityAt(PriceSeries.toEpochMillis(jan.minusDays(1))), 0.001);
+        assertEquals(2.0, schedule.quantityAt(PriceSeries.toEpochMillis(jan.plusDays(5))), 0.001);
+        assertEquals(2.1, schedule.quantityAt(PriceSeries.toEpochMillis(jan.plusDays(10))), 0.001);
+        assertEquals(1.6, schedule.getCurrentQuantity(), 0.001);
+        assertSame(schedule, asset.getQuantitySchedule());
+    }
+
+    @Test
+    void testQuantityScheduleRebuiltAfterChange() {
+        Transaction buy = new Transaction(TransactionType.BUY, 1.0, 40000, LocalDateTime.now(), 0, "");
+        asset.addTransaction(buy);
+        assertEquals(1.0, asset.getQuantitySchedule().getCurrentQuantity(), 0.001);
+
+        asset.removeTransaction(buy.getId());
+        assertTrue(asset.getQuantitySchedule().isEmpty());
+    }
+
+    @Test
+    void testTotalsUpdatedOnRemove() {
+        Transaction first = new Transaction(TransactionType.BUY, 1.0, 40000, LocalDateTime.now(), 100, "");
+        asset.addTransaction(first);
+        asset.addTransaction(new Transaction(TransactionType.BUY, 1.0, 50000, LocalDateTime.now(), 0, ""));
+        assertEquals(45000, asset.getAverageBuyPrice(), 0.001);
+
+        asset.removeTransaction(first.getId());
+        assertEquals(1.0, asset.getTotalQuantity(), 0.001);
+        assertEquals(50000, asset.getAverageBuyPrice(), 0.001);
+        assertEquals(50000, asset.getTotalInvested(), 0.001);
+    }
+
+    @Test
+    void testTotalsInvalidatedByListMutation() {
+        asset.addTransaction(new Transaction(TransactionType.BUY, 2.0, 100, LocalDateTime.now(), 0, ""));
+        assertEquals(2.0, asset.getTotalQuantity(), 0.001);
+
+        asset.getTransactions().add(new Transaction(TransactionType.SELL, 0.5, 100, LocalDateTime.now(), 0, ""));
+        assertEquals(1.5, asset.getTotalQuantity(), 0.001);
+
+        asset.getTransactions().clear();
+        assertEquals(0, asset.getTotalQuantity(), 0.001);
+    }
+
+    @Test
+    void testTotalsBuiltAfterGsonLoad() {
+        String json = "{\"id\":\"a1\",\"ticker\":\"BTC\",\"type\":\"CRYPTO\",\"transactions\":["
+                + "{\"id\":\"t1\",\"type\":\"BUY\",\"quantity\":3.0,\"pricePerUnit\":10.0,\"fees\":1.0}]}";
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+                .create();
+        Asset loaded = gson.fromJson(json, Asset.class);
+
+        assertEquals(3.0, loaded.getTotalQuantity(), 0.001);
+        assertEquals(31.0, loaded.getTotalInvested(), 0.001);
+        loaded.addTransaction(new Transaction(TransactionType.SELL, 1.0, 12, LocalDateTime.now(), 0, ""));
+        assertEquals(2.0, loaded.getTotalQuantity(), 0.001);
+    }
+
+    @Test
+    void testPortfolioVersionMovesOnAnyChange() {
+        Portfolio portfolio = new Portfolio("Main", "", "EUR");
+        portfolio.addAsset(asset);
+        long afterAdd = portfolio.getVersion();
+
+        asset.addTransaction(new Transaction(TransactionType.BUY, 1.0, 100, LocalDateTime.now(), 0, ""));
+        long afterBuy = portfolio.getVersion();
+        assertTrue(afterBuy > afterAdd);
+
+        portfolio.removeAsset(asset.getId());
+        assertTrue(portfolio.getVersion() > afterBuy);
+    }
+
+    @Test
+    void testTotalsStayExactWhileReadOnAnotherThread() throws InterruptedException {
+        LocalDateTime date = LocalDateTime.now();
+        int count = 100_000;
+        AtomicReference<Throwable> readerError = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    asset.getTotalQuantity();
+                }
+            } catch (Throwable e) {
+                readerError.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            if (i % 500 == 0) {
+                // Drops the cached totals, so the reader keeps rebuilding them while buys come in
+                asset.setTransactions(new ArrayList<>(asset.getTransactions()));
+            }
+            asset.addTransaction(new Transaction(TransactionType.BUY, 1.0, 10, date, 0, ""));
+        }
+        reader.interrupt();
+        reader.join();
+
+        assertNull(readerError.get());
+        assertEquals(count, asset.getTotalQuantity(), 0.001);
+    }
+
+    @Test
+    void testTransactionsViewIsReused() {
+        assertSame(asset.getTransactions(), asset.getTransactions());
+    }
 }
@@ -0,0 +1,64 @@
+package com.portfoliotracker.model;
+
+import org.junit.jupiter.api.Test;
+import java.time.LocalDateTime;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceSeriesTest {
+
+    private static PriceSeries series(long... times) {
+        double[] prices = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            prices[i] = times[i] * 10.0;
+        }
+        return new PriceSeries(times, prices);
+    }
+
+    @Test
+    void testSliceFromSharesAndOffsets() {
+        PriceSeries full = series(100, 200, 300, 400);
+        PriceSeries slice = full.sliceFrom(250);
+
+        assertEquals(2, slice.size());
+        assertEquals(300, slice.firstTime());
+        assertEquals(4000, slice.lastPrice(), 0.001);
+        assertEquals(0, slice.sliceFrom(500).size());
+    }
+
+    @Test
+    void testPriceAtTimeForwardFills() {
+        PriceSeries s = series(100, 200, 300);
+
+        assertTrue(Double.isNaN(s.priceAtTime(50)));
+        assertEquals(1000, s.priceAtTime(100), 0.001);
+        assertEquals(2000, s.priceAtTime(299), 0.001);
+        assertEquals(3000, s.priceAtTime(1000), 0.001);
+    }
+
+    @Test
+    void testMergeReplacesOverlapAndAppends() {
+        PriceSeries held = series(100, 200, 300);
+        PriceSeries fresh = new PriceSeries(new long[]{300, 400}, new double[]{1.0, 2.0});
+        PriceSeries merged = held.merge(fresh);
+
+        assertEquals(4, merged.size());
+        assertEquals(2000, merged.priceAt(1), 0.001);
+        assertEquals(1.0, merged.priceAt(2), 0.001);
+        assertEquals(400, merged.lastTime());
+        assertEquals(3, held.size());
+    }
+
+    @Test
+    void testPricePointRoundTrip() {
+        LocalDateTime t = LocalDateTime.of(2024, 3, 1, 12, 0);
+        List<PricePoint> points = List.of(new PricePoint(t, 1.5), new PricePoint(t.plusHours(1), 2.5));
+        PriceSeries s = PriceSeries.fromPricePoints(points);
+
+        assertEquals(t, s.dateTimeAt(0));
+        List<PricePoint> back = s.toPricePoints();
+        assertEquals(2, back.size());
+        assertEquals(t.plusHours(1), back.get(1).getTimestamp());
+        assertEquals(2.5, back.get(1).getPrice(), 0.001);
+    }
+}
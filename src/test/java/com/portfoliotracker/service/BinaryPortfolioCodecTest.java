@@ -0,0 +1,91 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.TransactionType;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryPortfolioCodecTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 15, 9, 30);
+
+    private final BinaryPortfolioCodec codec = new BinaryPortfolioCodec();
+    private final JsonPortfolioCodec json = new JsonPortfolioCodec();
+
+    @Test
+    void testRoundTripKeepsEveryField() throws IOException {
+        Portfolio portfolio = new Portfolio("demo-1", "Main", null, "EUR");
+        Asset btc = new Asset("BTC", "Bitcoin", AssetType.CRYPTO);
+        btc.addTransaction(new Transaction(TransactionType.BUY, 0.5, 42000.12, START.withNano(123_456_789), 2.5, "first buy"));
+        btc.addTransaction(new Transaction("tx-custom", TransactionType.REWARD, 0.01, 0, null, 0, null));
+        // Earlier than the previous dated one, so the date delta is negative
+        btc.addTransaction(new Transaction(TransactionType.SELL, 0.2, 50000, START.minusDays(3).withNano(5_000), 0, "first buy"));
+        portfolio.addAsset(btc);
+        portfolio.addAsset(new Asset("asset-2", "AAPL", "Apple", AssetType.STOCK));
+
+        Portfolio decoded = codec.decode(codec.encode(portfolio));
+
+        assertEquals("demo-1", decoded.getId());
+        assertEquals("Main", decoded.getName());
+        assertNull(decoded.getDescription());
+        assertEquals(portfolio.getCreatedAt(), decoded.getCreatedAt());
+        assertEquals(2, decoded.getAssets().size());
+        assertEquals("asset-2", decoded.getAssets().get(1).getId());
+        assertEquals(AssetType.STOCK, decoded.getAssets().get(1).getType());
+
+        Asset asset = decoded.getAssets().get(0);
+        assertEquals(btc.getId(), asset.getId());
+        assertEquals("BTC", asset.getTicker());
+        List<Transaction> expected = btc.getTransactions();
+        List<Transaction> actual = asset.getTransactions();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Transaction e = expected.get(i);
+            Transaction a = actual.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getQuantity(), a.getQuantity());
+            assertEquals(e.getPricePerUnit(), a.getPricePerUnit());
+            assertEquals(e.getDate(), a.getDate());
+            assertEquals(e.getFees(), a.getFees());
+            assertEquals(e.getNotes(), a.getNotes());
+        }
+        assertEquals(btc.getTotalQuantity(), asset.getTotalQuantity(), 1e-12);
+    }
+
+    @Test
+    void testMuchSmallerThanJson() throws IOException {
+        Portfolio portfolio = new Portfolio("Big", "", "USD");
+        for (int a = 0; a < 20; a++) {
+            Asset asset = new Asset("T" + a, "Ticker " + a, AssetType.CRYPTO);
+            for (int i = 0; i < 500; i++) {
+                asset.addTransaction(new Transaction(i % 5 == 4 ? TransactionType.SELL : TransactionType.BUY,
+                        0.25, 100 + i, START.plusHours(i), 0, "DCA"));
+            }
+            portfolio.addAsset(asset);
+        }
+
+        byte[] binary = codec.encode(portfolio);
+        byte[] text = json.encode(portfolio);
+
+        assertTrue(binary.length * 5 < text.length, binary.length + " vs " + text.length);
+        assertEquals(10_000, codec.decode(binary).getAssets().stream().mapToInt(a -> a.getTransactions().size()).sum());
+    }
+
+    @Test
+    void testRejectsForeignAndTruncatedData() throws IOException {
+        byte[] data = codec.encode(new Portfolio("Main", "", "EUR"));
+
+        assertThrows(IOException.class, () -> codec.decode("{\"id\":\"x\"}".getBytes()));
+        assertThrows(IOException.class, () -> codec.decode(Arrays.copyOf(data, data.length - 3)));
+        byte[] future = data.clone();
+        future[3] = 99;
+        assertThrows(IOException.class, () -> codec.decode(future));
+    }
+}
@@ -0,0 +1,111 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.CostBasisMethod;
+import com.portfoliotracker.model.enums.TransactionType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.LocalDateTime;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CostBasisEngineTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 10, 0);
+
+    private final CostBasisEngine engine = CostBasisEngine.getInstance();
+    private Asset asset;
+
+    @BeforeEach
+    void setUp() {
+        asset = new Asset("BTC", "Bitcoin", AssetType.CRYPTO);
+        // Added out of date order on purpose
+        asset.addTransaction(new Transaction(TransactionType.BUY, 1.0, 300, START.plusDays(1), 0, ""));
+        asset.addTransaction(new Transaction(TransactionType.BUY, 1.0, 100, START, 10, ""));
+        asset.addTransaction(new Transaction(TransactionType.BUY, 1.0, 200, START.plusDays(2), 0, ""));
+        asset.addTransaction(new Transaction(TransactionType.SELL, 1.5, 400, START.plusDays(3), 6, ""));
+    }
+
+    @Test
+    void testMethodsPickDifferentLots() {
+        // Net proceeds 1.5 * 400 - 6 = 594
+        assertEquals(594 - (110 + 0.5 * 300), engine.getReport(asset, CostBasisMethod.FIFO).getRealizedPnL(), 1e-9);
+        assertEquals(594 - (200 + 0.5 * 300), engine.getReport(asset, CostBasisMethod.LIFO).getRealizedPnL(), 1e-9);
+        assertEquals(594 - (300 + 0.5 * 200), engine.getReport(asset, CostBasisMethod.HIFO).getRealizedPnL(), 1e-9);
+        assertEquals(594 - 1.5 * (610.0 / 3), engine.getReport(asset, CostBasisMethod.AVERAGE).getRealizedPnL(), 1e-9);
+    }
+
+    @Test
+    void testOpenLotsAndUnrealized() {
+        CostBasisEngine.Report fifo = engine.getReport(asset, CostBasisMethod.FIFO);
+        assertEquals(1.5, fifo.getOpenQuantity(), 1e-9);
+        assertEquals(0.5 * 300 + 200, fifo.getOpenCost(), 1e-9);
+        assertEquals(1.5 * 500 - 350, fifo.getUnrealizedPnL(500), 1e-9);
+
+        List<CostBasisEngine.OpenLot> lots = engine.getOpenLots(asset, CostBasisMethod.FIFO);
+        assertEquals(2, lots.size());
+        assertEquals(START.plusDays(1), lots.get(0).getDate());
+        assertEquals(0.5, lots.get(0).getQuantity(), 1e-9);
+        assertEquals(100, lots.get(1).getUnrealizedPnL(300), 1e-9);
+
+        assertEquals(2, fifo.getRealizedCount());
+        assertEquals(START, fifo.getRealizedBuyDate(0));
+        assertEquals(400 - 4 - 110, fifo.getRealizedPnL(0), 1e-9);
+    }
+
+    @Test
+    void testAppendMatchesFullReplay() {
+        CostBasisEngine.Report before = engine.getReport(asset, CostBasisMethod.FIFO);
+        asset.addTransaction(new Transaction(TransactionType.SELL, 1.0, 500, START.plusDays(4), 0, ""));
+        CostBasisEngine.Report appended = engine.getReport(asset, CostBasisMethod.FIFO);
+
+        Asset copy = new Asset("BTC", "Bitcoin", AssetType.CRYPTO);
+        copy.setTransactions(new java.util.ArrayList<>(asset.getTransactions()));
+        CostBasisEngine.Report replayed = engine.getReport(copy, CostBasisMethod.FIFO);
+
+        assertEquals(replayed.getRealizedPnL(), appended.getRealizedPnL(), 1e-9);
+        assertEquals(replayed.getOpenQuantity(), appended.getOpenQuantity(), 1e-9);
+        assertEquals(2, before.getRealizedCount());
+        assertEquals(4, appended.getRealizedCount());
+    }
+
+    @Test
+    void testBackdatedAndRemovedTransactionsReplay() {
+        engine.getReport(asset, CostBasisMethod.FIFO);
+        Transaction early = new Transaction(TransactionType.BUY, 1.0, 50, START.minusDays(1), 0, "");
+        asset.addTransaction(early);
+        // The backdated lot is now the first one sold
+        assertEquals(594 - (50 + 0.5 * 110), engine.getReport(asset, CostBasisMethod.FIFO).getRealizedPnL(), 1e-9);
+
+        asset.removeTransaction(early.getId());
+        assertEquals(594 - (110 + 0.5 * 300), engine.getReport(asset, CostBasisMethod.FIFO).getRealizedPnL(), 1e-9);
+    }
+
+    @Test
+    void testSellingMoreThanHeld() {
+        Asset short_ = new Asset("ETH", "Ethereum", AssetType.CRYPTO);
+        short_.addTransaction(new Transaction(TransactionType.REWARD, 1.0, 0, START, 0, ""));
+        short_.addTransaction(new Transaction(TransactionType.SELL, 2.0, 100, START.plusDays(1), 0, ""));
+
+        CostBasisEngine.Report report = engine.getReport(short_, CostBasisMethod.FIFO);
+        assertEquals(200, report.getRealizedPnL(), 1e-9);
+        assertEquals(0, report.getOpenQuantity(), 1e-9);
+        assertNull(report.getRealizedBuyDate(1));
+    }
+
+    @Test
+    void testLargeHistory() {
+        Asset dca = new Asset("BTC", "Bitcoin", AssetType.CRYPTO);
+        List<Transaction> transactions = new java.util.ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            TransactionType type = i % 4 == 3 ? TransactionType.SELL : TransactionType.BUY;
+            transactions.add(new Transaction("t" + i, type, 1.0, 100 + (i % 97), START.plusMinutes(i), 0, ""));
+        }
+        dca.setTransactions(transactions);
+
+        for (CostBasisMethod method : CostBasisMethod.values()) {
+            assertEquals(500_000, engine.getReport(dca, method).getOpenQuantity(), 1e-6);
+        }
+    }
+}
@@ -2,6 +2,13 @@ package com.portfoliotracker.service;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 import static org.junit.jupiter.api.Assertions.*;
 
 class EncryptionServiceTest {
@@ -63,4 +70,59 @@ class EncryptionServiceTest {
             encryptionService.encrypt("data".getBytes(), "");
         });
     }
+
+    @Test
+    void testEncryption_isRandomizedAndAuthenticated() {
+        byte[] data = "Test data".getBytes(StandardCharsets.UTF_8);
+        byte[] first = encryptionService.encrypt(data, "key");
+        byte[] second = encryptionService.encrypt(data, "key");
+        assertFalse(Arrays.equals(first, second));
+
+        byte[] tampered = first.clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertThrows(IllegalArgumentException.class, () -> encryptionService.decrypt(tampered, "key"));
+        assertThrows(IllegalArgumentException.class, () -> encryptionService.decrypt(first, "other key"));
+    }
+
+    @Test
+    void testStreaming_acrossChunksAndDetectsTruncation() throws IOException {
+        byte[] data = new byte[200_000];
+        new Random(42).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncryptionService.EncryptingOutputStream stream = encryptionService.encryptingStream(out, "secretKey123");
+        for (int offset = 0; offset < data.length; offset += 7_000) {
+            stream.write(data, offset, Math.min(7_000, data.length - offset));
+        }
+        stream.finish();
+        byte[] encrypted = out.toByteArray();
+
+        try (InputStream in = encryptionService.decryptingStream(new ByteArrayInputStream(encrypted), "secretKey123")) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        // Cut after the second chunk (header 33 bytes, chunks 5 + 64 KiB + 16), so every chunk left
+        // is intact and only the missing final one gives it away
+        byte[] truncated = Arrays.copyOf(encrypted, 33 + 2 * (5 + 65_536 + 16));
+        assertThrows(IllegalArgumentException.class, () -> encryptionService.decrypt(truncated, "secretKey123"));
+    }
+
+    @Test
+    void testLegacyXorData_isOnlyReadForMigration() throws IOException {
+        byte[] plain = "{\"name\":\"Old portfolio\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] secret = "oldPass".getBytes(StandardCharsets.UTF_8);
+        byte[] legacy = new byte[plain.length];
+        for (int i = 0; i < plain.length; i++) {
+            legacy[i] = (byte) (plain[i] ^ secret[i % secret.length]);
+        }
+
+        assertFalse(encryptionService.isCurrentFormat(legacy));
+        assertThrows(IllegalArgumentException.class, () -> encryptionService.decrypt(legacy, "oldPass"));
+        try (InputStream in = encryptionService.decryptingLegacyStream(new ByteArrayInputStream(legacy), "oldPass")) {
+            assertArrayEquals(plain, in.readAllBytes());
+        }
+        byte[] current = encryptionService.encrypt(plain, "oldPass");
+        assertTrue(encryptionService.isCurrentFormat(current));
+        try (InputStream in = encryptionService.decryptingLegacyStream(new ByteArrayInputStream(current), "oldPass")) {
+            assertArrayEquals(plain, in.readAllBytes());
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.enums.AssetType;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortfolioBatchValuatorTest {
+
+    @Test
+    void testKeysArePricedOncePerCurrency() {
+        Portfolio first = portfolio("p-1", "eur", new Asset("BTC", "Bitcoin", AssetType.CRYPTO),
+                new Asset("AAPL", "Apple", AssetType.STOCK));
+        Portfolio second = portfolio("p-2", "EUR", new Asset("btc", "Bitcoin", AssetType.CRYPTO));
+        Portfolio third = portfolio("p-3", "USD", new Asset("BTC", "Bitcoin", AssetType.CRYPTO),
+                new Asset("BTC", "Some stock", AssetType.STOCK));
+
+        Map<String, Set<AssetKey>> keys = PortfolioBatchValuator.keysByCurrency(List.of(first, second, third));
+
+        assertEquals(List.of("EUR", "USD"), List.copyOf(keys.keySet()));
+        assertEquals(Set.of(new AssetKey("BTC", AssetType.CRYPTO), new AssetKey("AAPL", AssetType.STOCK)), keys.get("EUR"));
+        // Same ticker, different asset: priced separately
+        assertEquals(Set.of(new AssetKey("BTC", AssetType.CRYPTO), new AssetKey("BTC", AssetType.STOCK)), keys.get("USD"));
+    }
+
+    @Test
+    void testResultTotals() {
+        PortfolioBatchValuator.Result result = new PortfolioBatchValuator.Result(Map.of(), "EUR", 150, 100);
+        assertEquals(50, result.getTotalPnL(), 1e-9);
+        assertEquals(50, result.getTotalRoi(), 1e-9);
+        assertEquals(0, new PortfolioBatchValuator.Result(Map.of(), "EUR", 10, 0).getTotalRoi(), 1e-9);
+    }
+
+    private static Portfolio portfolio(String id, String currency, Asset... assets) {
+        Portfolio portfolio = new Portfolio(id, id, "", currency);
+        for (Asset asset : assets) {
+            portfolio.addAsset(asset);
+        }
+        return portfolio;
+    }
+}
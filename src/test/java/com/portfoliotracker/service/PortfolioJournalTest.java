@@ -0,0 +1,127 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.TransactionType;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortfolioJournalTest {
+    private static final LocalDateTime DATE = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    private final PortfolioJournal journal = PortfolioJournal.getInstance();
+
+    @Test
+    void testReplayRebuildsMutations() {
+        Asset btc = new Asset("asset-1", "BTC", "Bitcoin", AssetType.CRYPTO);
+        Transaction buy = new Transaction("tx-1", TransactionType.BUY, 1.0, 100, DATE, 0, "");
+        Transaction sell = new Transaction("tx-2", TransactionType.SELL, 0.5, 150, DATE.plusDays(1), 0, "");
+        Asset eth = new Asset("asset-2", "ETH", "Ethereum", AssetType.CRYPTO);
+
+        List<String> lines = new ArrayList<>();
+        lines.add(journal.encode(PortfolioJournal.Record.addAsset(btc)));
+        lines.add(journal.encode(PortfolioJournal.Record.addTransaction("asset-1", buy)));
+        lines.add(journal.encode(PortfolioJournal.Record.addTransaction("asset-1", sell)));
+        lines.add(journal.encode(PortfolioJournal.Record.removeTransaction("asset-1", "tx-1")));
+        lines.add(journal.encode(PortfolioJournal.Record.addAsset(eth)));
+        lines.add(journal.encode(PortfolioJournal.Record.removeAsset("asset-2")));
+        lines.add(journal.encode(PortfolioJournal.Record.updateDetails("Renamed", null, "USD")));
+
+        Portfolio portfolio = new Portfolio("p-1", "Main", "desc", "EUR");
+        byte[] content = journalOf(lines);
+        assertEquals(content.length, journal.replay(portfolio, content));
+
+        assertEquals("Renamed", portfolio.getName());
+        assertEquals("desc", portfolio.getDescription());
+        assertEquals("USD", portfolio.getCurrency());
+        assertEquals(1, portfolio.getAssets().size());
+        Asset replayed = portfolio.getAssetById("asset-1");
+        assertEquals(1, replayed.getTransactions().size());
+        assertEquals("tx-2", replayed.getTransactions().get(0).getId());
+        assertEquals(DATE.plusDays(1), replayed.getTransactions().get(0).getDate());
+    }
+
+    @Test
+    void testReplayOverSnapshotThatAlreadyHasRecords() {
+        Portfolio portfolio = new Portfolio("p-2", "Main", "", "EUR");
+        Asset btc = new Asset("asset-1", "BTC", "Bitcoin", AssetType.CRYPTO);
+        Transaction buy = new Transaction("tx-1", TransactionType.BUY, 1.0, 100, DATE, 0, "");
+        btc.addTransaction(buy);
+        portfolio.addAsset(btc);
+
+        // Journal written before a compaction that did not get to delete it
+        List<String> lines = List.of(
+                journal.encode(PortfolioJournal.Record.addAsset(new Asset("asset-1", "BTC", "Bitcoin", AssetType.CRYPTO))),
+                journal.encode(PortfolioJournal.Record.addTransaction("asset-1", buy)),
+                journal.encode(PortfolioJournal.Record.addTransaction("asset-1",
+                        new Transaction("tx-2", TransactionType.BUY, 2.0, 90, DATE.plusDays(2), 0, ""))));
+        journal.replay(portfolio, journalOf(lines));
+
+        assertEquals(1, portfolio.getAssets().size());
+        assertEquals(2, portfolio.getAssetById("asset-1").getTransactions().size());
+        assertEquals(3.0, portfolio.getAssetById("asset-1").getTotalQuantity(), 1e-9);
+    }
+
+    @Test
+    void testTornLastLineIsIgnored() {
+        Portfolio portfolio = new Portfolio("p-3", "Main", "", "EUR");
+        String complete = journal.encode(PortfolioJournal.Record.updateDetails("Kept", null, null));
+        String torn = journal.encode(PortfolioJournal.Record.updateDetails("Lost", null, null));
+
+        byte[] content = (complete + "\n" + torn.substring(0, torn.length() / 2)).getBytes(StandardCharsets.UTF_8);
+
+        long intact = journal.replay(portfolio, content);
+
+        assertEquals(complete.length() + 1, intact);
+        assertEquals("Kept", portfolio.getName());
+    }
+
+    @Test
+    void testUnreadableMiddleLineIsSkipped() {
+        Portfolio portfolio = new Portfolio("p-5", "Main", "", "EUR");
+        List<String> lines = List.of(
+                journal.encode(PortfolioJournal.Record.updateDetails("Before", null, null)),
+                "{\"type\": \"ADD_ASSET\", \"asset\": ",
+                journal.encode(PortfolioJournal.Record.updateDetails(null, null, "USD")),
+                journal.encode(PortfolioJournal.Record.updateDetails(null, "After", null)));
+        byte[] content = journalOf(lines);
+
+        // The whole journal counts as intact, so nothing after the bad line gets cut
+        assertEquals(content.length, journal.replay(portfolio, content));
+        assertEquals("Before", portfolio.getName());
+        assertEquals("USD", portfolio.getCurrency());
+        assertEquals("After", portfolio.getDescription());
+    }
+
+    @Test
+    void testAppendAfterTornLineIsReplayed() {
+        String complete = journal.encode(PortfolioJournal.Record.updateDetails("Kept", null, null)) + "\n";
+        String torn = journal.encode(PortfolioJournal.Record.updateDetails("Lost", null, null));
+        byte[] crashed = (complete + torn.substring(0, torn.length() / 2)).getBytes(StandardCharsets.UTF_8);
+        long intact = journal.replay(new Portfolio("p-4", "Main", "", "EUR"), crashed);
+
+        // What loading does before the next append: cut at the intact length, then append
+        String appended = new String(crashed, 0, (int) intact, StandardCharsets.UTF_8)
+                + journal.encode(PortfolioJournal.Record.updateDetails(null, null, "USD")) + "\n";
+        Portfolio reloaded = new Portfolio("p-4", "Main", "", "EUR");
+        byte[] content = appended.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(content.length, journal.replay(reloaded, content));
+        assertEquals("Kept", reloaded.getName());
+        assertEquals("USD", reloaded.getCurrency());
+    }
+
+    private static byte[] journalOf(List<String> lines) {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
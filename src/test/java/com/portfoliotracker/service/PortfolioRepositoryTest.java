@@ -0,0 +1,192 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.Portfolio;
+import com.portfoliotracker.model.PortfolioHeader;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortfolioRepositoryTest {
+    private static final LocalDateTime DATE = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    @TempDir
+    Path dir;
+
+    private final List<PortfolioRepository> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        // Other tests may have left a passphrase set
+        EncryptionService.getInstance().setPassphrase("");
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (PortfolioRepository repository : opened) {
+            repository.close();
+        }
+    }
+
+    @Test
+    void testAppendIsJournaledAndReplayedOnLoad() {
+        PortfolioRepository repository = open();
+        Portfolio portfolio = new Portfolio("p-1", "Main", "", "EUR");
+        repository.save(portfolio);
+        repository.flush();
+
+        Asset btc = new Asset("a-1", "BTC", "Bitcoin", AssetType.CRYPTO);
+        portfolio.addAsset(btc);
+        repository.append(portfolio, PortfolioJournal.Record.addAsset(btc));
+        Transaction buy = new Transaction("t-1", TransactionType.BUY, 1.5, 100, DATE, 0, "");
+        btc.addTransaction(buy);
+        repository.append(portfolio, PortfolioJournal.Record.addTransaction("a-1", buy));
+        repository.flush();
+
+        PersistenceService persistence = persistence();
+        assertTrue(persistence.getJournalSize("p-1") > 0);
+        Portfolio loaded = persistence.loadPortfolio("p-1");
+        assertEquals(1.5, loaded.getAssetById("a-1").getTotalQuantity(), 1e-9);
+    }
+
+    @Test
+    void testSaveSupersedesRecordsQueuedBeforeAndAfterIt() {
+        PortfolioRepository repository = open();
+        Portfolio portfolio = new Portfolio("p-1", "Main", "", "EUR");
+        repository.save(portfolio);
+        repository.flush();
+
+        portfolio.setName("Renamed");
+        repository.append(portfolio, PortfolioJournal.Record.updateDetails("Renamed", null, null));
+        portfolio.setCurrency("USD");
+        repository.save(portfolio);
+        // Queued behind the full save, so it goes into the snapshot rather than the journal
+        portfolio.setDescription("Desc");
+        repository.append(portfolio, PortfolioJournal.Record.updateDetails(null, "Desc", null));
+        repository.flush();
+
+        PersistenceService persistence = persistence();
+        assertEquals(0, persistence.getJournalSize("p-1"));
+        Portfolio loaded = persistence.loadPortfolio("p-1");
+        assertEquals("Renamed", loaded.getName());
+        assertEquals("USD", loaded.getCurrency());
+        assertEquals("Desc", loaded.getDescription());
+    }
+
+    @Test
+    void testDeleteWinsOverQueuedWrites() {
+        PortfolioRepository repository = open();
+        Portfolio saved = new Portfolio("p-1", "Main", "", "EUR");
+        repository.save(saved);
+        repository.flush();
+        saved.setName("Renamed");
+        repository.append(saved, PortfolioJournal.Record.updateDetails("Renamed", null, null));
+        Portfolio unsaved = new Portfolio("p-2", "Other", "", "EUR");
+        repository.save(unsaved);
+
+        repository.delete("p-1");
+        repository.delete("p-2");
+        repository.flush();
+
+        PersistenceService persistence = persistence();
+        assertNull(persistence.getPortfolioFile("p-1"));
+        assertNull(persistence.getPortfolioFile("p-2"));
+        assertEquals(0, persistence.getJournalSize("p-1"));
+        assertTrue(repository.getHeaders().isEmpty());
+        assertTrue(persistence.loadIndex().isEmpty());
+    }
+
+    @Test
+    void testIndexIsTrustedOnlyWhileTheStampMatches() {
+        PortfolioRepository first = open();
+        first.save(new Portfolio("p-1", "Before", "", "EUR"));
+        first.save(new Portfolio("p-2", "Untouched", "", "EUR"));
+        first.close();
+        opened.remove(first);
+
+        // p-1 edited while the app was closed; p-2's header is swapped for one the files do not
+        // contain, which only shows up if the index is used as it is
+        PersistenceService persistence = persistence();
+        Portfolio edited = persistence.loadPortfolio("p-1");
+        edited.setName("After");
+        persistence.savePortfolio(edited);
+        List<PortfolioHeader> index = new ArrayList<>();
+        for (PortfolioHeader header : persistence.loadIndex()) {
+            index.add(header.getId().equals("p-2")
+                    ? PortfolioHeader.of(new Portfolio("p-2", "From index", "", "EUR"), header.getUpdatedAt())
+                            .withFileStamp(header.getFileStamp())
+                    : header);
+        }
+        persistence.saveIndex(index);
+
+        PortfolioRepository second = open();
+        List<String> names = new ArrayList<>();
+        for (PortfolioHeader header : second.getHeaders()) {
+            names.add(header.getName());
+        }
+        assertTrue(names.contains("After"));
+        assertTrue(names.contains("From index"));
+    }
+
+    @Test
+    void testAssetsByTickerFollowAddAndRemove() {
+        PortfolioRepository repository = open();
+        Portfolio portfolio = new Portfolio("p-1", "Main", "", "EUR");
+        Asset btc = new Asset("a-1", "BTC", "Bitcoin", AssetType.CRYPTO);
+        portfolio.addAsset(btc);
+        repository.save(portfolio);
+        assertEquals(List.of(btc), repository.getAssetsByTicker("btc"));
+
+        Asset eth = new Asset("a-2", "ETH", "Ethereum", AssetType.CRYPTO);
+        portfolio.addAsset(eth);
+        repository.append(portfolio, PortfolioJournal.Record.addAsset(eth));
+        portfolio.removeAsset("a-1");
+        repository.append(portfolio, PortfolioJournal.Record.removeAsset("a-1"));
+
+        assertTrue(repository.getAssetsByTicker("BTC").isEmpty());
+        assertEquals(List.of(eth), repository.getAssetsByTicker("ETH"));
+    }
+
+    @Test
+    void testExternalJournalAppendIsPickedUpButOwnIsNot() throws InterruptedException {
+        PortfolioRepository repository = open();
+        Portfolio portfolio = new Portfolio("p-1", "Main", "", "EUR");
+        repository.save(portfolio);
+        repository.flush();
+        portfolio.setName("Own");
+        repository.append(portfolio, PortfolioJournal.Record.updateDetails("Own", null, null));
+        repository.flush();
+
+        // Own writes, snapshot or journal, never swap the instance the UI is editing
+        Thread.sleep(500);
+        assertSame(portfolio, repository.get("p-1"));
+
+        // Another instance appending to the same journal
+        String record = PortfolioJournal.getInstance().encode(PortfolioJournal.Record.updateDetails("External", null, null));
+        assertTrue(persistence().appendJournal("p-1", List.of(record)));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!"External".equals(repository.get("p-1").getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("External", repository.get("p-1").getName());
+    }
+
+    private PersistenceService persistence() {
+        return new PersistenceService(dir);
+    }
+
+    private PortfolioRepository open() {
+        PortfolioRepository repository = new PortfolioRepository(persistence());
+        opened.add(repository);
+        return repository;
+    }
+}
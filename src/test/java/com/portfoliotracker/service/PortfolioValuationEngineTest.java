@@ -0,0 +1,111 @@
+package com.portfoliotracker.service;
+
+import com.portfoliotracker.model.Asset;
+import com.portfoliotracker.model.AssetKey;
+import com.portfoliotracker.model.PriceSeries;
+import com.portfoliotracker.model.Transaction;
+import com.portfoliotracker.model.enums.AssetType;
+import com.portfoliotracker.model.enums.TransactionType;
+import com.portfoliotracker.model.enums.ValuationMode;
+import org.junit.jupiter.api.Test;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PortfolioValuationEngineTest {
+
+    private final PortfolioValuationEngine engine = PortfolioValuationEngine.getInstance();
+
+    @Test
+    void testMergesMisalignedSeriesWithForwardFill() {
+        // Daily bars with a gap next to a denser series that starts later
+        PriceSeries daily = new PriceSeries(new long[]{0, 100, 300}, new double[]{10, 11, 13});
+        PriceSeries dense = new PriceSeries(new long[]{50, 100, 150, 200}, new double[]{1, 2, 3, 4});
+
+        PriceSeries value = engine.valueHistory(new PriceSeries[]{daily, dense}, new double[]{2, 10});
+
+        assertArrayEquals(new long[]{50, 100, 150, 200, 300}, times(value));
+        assertEquals(2 * 10 + 10 * 1, value.priceAt(0), 1e-9);
+        assertEquals(2 * 11 + 10 * 2, value.priceAt(1), 1e-9);
+        assertEquals(2 * 11 + 10 * 3, value.priceAt(2), 1e-9);
+        assertEquals(2 * 11 + 10 * 4, value.priceAt(3), 1e-9);
+        assertEquals(2 * 13 + 10 * 4, value.priceAt(4), 1e-9);
+    }
+
+    @Test
+    void testSkipsEmptySeriesAndZeroQuantities() {
+        Map<String, PriceSeries> history = new LinkedHashMap<>();
+        history.put("BTC", new PriceSeries(new long[]{0, 10}, new double[]{100, 200}));
+        history.put("ETH", PriceSeries.EMPTY);
+        history.put("SOL", new PriceSeries(new long[]{5}, new double[]{1}));
+
+        PriceSeries value = engine.valueHistory(history, Map.of("BTC", 0.5, "ETH", 3.0, "SOL", 0.0));
+
+        assertEquals(2, value.size());
+        assertEquals(100, value.lastPrice(), 1e-9);
+        assertTrue(engine.valueHistory(new LinkedHashMap<>(), Map.of()).isEmpty());
+    }
+
+    @Test
+    void testMatchesBruteForceOnManySeries() {
+        int assets = 50;
+        PriceSeries[] series = new PriceSeries[assets];
+        double[] quantities = new double[assets];
+        for (int a = 0; a < assets; a++) {
+            int step = 1 + a % 7;
+            int n = 200;
+            long[] t = new long[n];
+            double[] p = new double[n];
+            for (int i = 0; i < n; i++) {
+                t[i] = a + (long) i * step;
+                p[i] = a + i * 0.5;
+            }
+            series[a] = new PriceSeries(t, p);
+            quantities[a] = a + 1;
+        }
+
+        PriceSeries value = engine.valueHistory(series, quantities);
+
+        for (int i = 0; i < value.size(); i++) {
+            long time = value.timeAt(i);
+            double expected = 0;
+            for (int a = 0; a < assets; a++) {
+                expected += series[a].priceAtTime(time) * quantities[a];
+            }
+            assertEquals(expected, value.priceAt(i), 1e-6);
+        }
+        assertEquals(assets - 1, value.firstTime());
+    }
+
+    @Test
+    void testHistoricalHoldingsApplyQuantityAtEachPoint() {
+        LocalDateTime day0 = LocalDateTime.of(2024, 5, 1, 0, 0);
+        long t0 = PriceSeries.toEpochMillis(day0);
+        long day = 86_400_000L;
+        PriceSeries btc = new PriceSeries(new long[]{t0, t0 + day, t0 + 2 * day, t0 + 3 * day},
+                new double[]{100, 110, 120, 130});
+
+        Asset asset = new Asset("BTC", "Bitcoin", AssetType.CRYPTO);
+        // Bought between the first two candles, half sold on the third
+        asset.addTransaction(new Transaction(TransactionType.BUY, 2.0, 105, day0.plusHours(12), 0, ""));
+        asset.addTransaction(new Transaction(TransactionType.SELL, 1.0, 120, day0.plusDays(2), 0, ""));
+
+        PriceSeries historical = engine.valueHistory(List.of(asset), Map.of(AssetKey.of(asset), btc), ValuationMode.HISTORICAL_HOLDINGS);
+        assertEquals(4, historical.size());
+        assertEquals(0, historical.priceAt(0), 1e-9);
+        assertEquals(220, historical.priceAt(1), 1e-9);
+        assertEquals(120, historical.priceAt(2), 1e-9);
+        assertEquals(130, historical.priceAt(3), 1e-9);
+
+        PriceSeries current = engine.valueHistory(List.of(asset), Map.of(AssetKey.of(asset), btc), ValuationMode.CURRENT_HOLDINGS);
+        assertEquals(100, current.priceAt(0), 1e-9);
+    }
+
+    private static long[] times(PriceSeries series) {
+        long[] times = new long[series.size()];
+        series.copyTimes(times, 0);
+        return times;
+    }
+}
@@ -0,0 +1,156 @@
+package com.portfoliotracker.util;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedCacheTest {
+    private final AtomicLong now = new AtomicLong(1_000);
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(2, 0);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+
+        assertEquals(1, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void testEvictsByWeight() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0, String::length);
+        cache.put("a", "12345");
+        cache.put("b", "12345");
+        cache.put("c", "123");
+
+        assertNull(cache.get("a"));
+        assertEquals(8, cache.getWeight());
+    }
+
+    @Test
+    void testExpiredEntryIsMiss() {
+        BoundedCache<String, Integer> cache = cache(10, 20);
+        cache.put("a", 1);
+        now.addAndGet(20);
+        assertEquals(1, cache.get("a"));
+        now.addAndGet(1);
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpiredCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testHitAndMissCounters() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10, 0);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void testRefreshAheadCalledOncePerKey() {
+        List<String> refreshed = new ArrayList<>();
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        BoundedCache<String, Integer> cache = this.<Integer>cache(10, 0).refreshAhead(10, key -> {
+            refreshed.add(key);
+            return pending;
+        });
+        cache.put("a", 1);
+        now.addAndGet(30);
+        cache.get("a");
+        cache.get("a");
+
+        assertEquals(List.of("a"), refreshed);
+
+        cache.put("a", 2);
+        now.addAndGet(30);
+        cache.get("a");
+        assertEquals(2, refreshed.size());
+    }
+
+    @Test
+    void testRefreshThatStoresNothingCanRunAgain() {
+        List<CompletableFuture<Void>> started = new ArrayList<>();
+        BoundedCache<String, Integer> cache = this.<Integer>cache(10, 0).refreshAhead(10, key -> {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            started.add(done);
+            return done;
+        });
+        cache.put("a", 1);
+        now.addAndGet(30);
+        cache.get("a");
+        cache.get("a");
+        assertEquals(1, started.size());
+
+        // Failed or skipped without a put: the next hit asks again
+        started.get(0).completeExceptionally(new IllegalStateException("offline"));
+        cache.get("a");
+        assertEquals(2, started.size());
+
+        // A refresher that starts nothing does not hold the key either
+        BoundedCache<String, Integer> idle = this.<Integer>cache(10, 0).refreshAhead(10, key -> {
+            started.add(null);
+            return null;
+        });
+        idle.put("a", 1);
+        now.addAndGet(30);
+        idle.get("a");
+        idle.get("a");
+        assertEquals(4, started.size());
+    }
+
+    @Test
+    void testKeyIsReleasedWhenItsEntryGoesAway() {
+        BoundedCache<String, Integer> cache = this.<Integer>cache(2, 100)
+                .refreshAhead(10, key -> new CompletableFuture<>());
+        cache.put("removed", 1);
+        cache.put("expired", 2);
+        now.addAndGet(30);
+        cache.get("removed");
+        cache.get("expired");
+        assertTrue(cache.isRefreshing("removed"));
+        assertTrue(cache.isRefreshing("expired"));
+
+        // None of these are put again, so nothing else would clear them
+        cache.remove("removed");
+        now.addAndGet(100);
+        assertEquals(1, cache.cleanUp());
+        assertFalse(cache.isRefreshing("removed"));
+        assertFalse(cache.isRefreshing("expired"));
+
+        cache.put("evicted", 1);
+        now.addAndGet(30);
+        cache.get("evicted");
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.isRefreshing("evicted"));
+    }
+
+    @Test
+    void testComputeSeesExpiredValue() {
+        BoundedCache<String, Integer> cache = cache(10, 20);
+        cache.put("a", 1);
+        now.addAndGet(40);
+
+        assertEquals(2, cache.compute("a", (k, v) -> v == null ? 0 : v + 1));
+        assertEquals(2, cache.get("a"));
+    }
+
+    private <V> BoundedCache<String, V> cache(long maxWeight, long ttlMillis) {
+        return new BoundedCache<>(maxWeight, ttlMillis, value -> 1, now::get);
+    }
+}
@@ -0,0 +1,89 @@
+package com.portfoliotracker.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableFileWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReplacesContentAndLeavesNoTempFile() throws IOException {
+        Path target = dir.resolve("p.ptb");
+        DurableFileWriter writer = new DurableFileWriter(0);
+
+        writer.write(target, bytes("first"));
+        writer.write(target, bytes("second"));
+
+        assertEquals("second", Files.readString(target));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(target), files.toList());
+        }
+    }
+
+    @Test
+    void testKeepsRollingBackups() throws IOException {
+        Path target = dir.resolve("p.ptb");
+        DurableFileWriter writer = new DurableFileWriter(2);
+
+        for (String content : new String[]{"v1", "v2", "v3", "v4"}) {
+            writer.write(target, bytes(content));
+        }
+
+        assertEquals("v4", Files.readString(target));
+        assertEquals("v3", Files.readString(DurableFileWriter.backupFile(target, 1)));
+        assertEquals("v2", Files.readString(DurableFileWriter.backupFile(target, 2)));
+        assertFalse(Files.exists(DurableFileWriter.backupFile(target, 3)));
+    }
+
+    @Test
+    void testBatchCommitsTogetherAndDropsUncommittedFiles() throws IOException {
+        Path a = dir.resolve("a.ptb");
+        Path b = dir.resolve("b.ptb");
+        DurableFileWriter writer = new DurableFileWriter(0);
+
+        try (DurableFileWriter.Batch batch = writer.batch()) {
+            batch.write(a, out -> out.write(bytes("a1")));
+            batch.write(b, out -> out.write(bytes("b1")));
+            batch.write(a, out -> out.write(bytes("a2")));
+            assertFalse(Files.exists(a));
+            assertEquals(Set.of(a, b), Set.copyOf(batch.commit()));
+        }
+        assertEquals("a2", Files.readString(a));
+        assertEquals("b1", Files.readString(b));
+
+        try (DurableFileWriter.Batch batch = writer.batch()) {
+            batch.write(a, out -> out.write(bytes("never committed")));
+        }
+        assertEquals("a2", Files.readString(a));
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void testFailedBodyKeepsOldContent() throws IOException {
+        Path target = dir.resolve("p.ptb");
+        DurableFileWriter writer = new DurableFileWriter(0);
+        writer.write(target, bytes("old"));
+
+        assertThrows(IOException.class, () -> writer.write(target, out -> {
+            out.write(bytes("half"));
+            throw new IOException("disk full");
+        }));
+
+        assertEquals("old", Files.readString(target));
+        assertFalse(Files.exists(dir.resolve("p.ptb.tmp")));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
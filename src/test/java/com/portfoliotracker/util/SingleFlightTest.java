@@ -0,0 +1,39 @@
+package com.portfoliotracker.util;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+    @Test
+    void testErrorInLoaderReleasesKeyAndWaiters() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> owner = CompletableFuture.supplyAsync(() -> flight.execute("k", () -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new StackOverflowError("boom");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> flight.execute("k", () -> "unused"));
+        while (flight.getDeduplicatedCount() == 0) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        Exception ownerError = assertThrows(Exception.class, () -> owner.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(StackOverflowError.class, ownerError.getCause());
+        Exception waiterError = assertThrows(Exception.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(StackOverflowError.class, waiterError.getCause());
+        assertEquals(0, flight.getInFlightCount());
+        assertEquals("again", flight.execute("k", () -> "again"));
+    }
+}